@@ -0,0 +1,210 @@
+package de.uni_leipzig.imise.csv2fhir;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import ca.uhn.fhir.context.FhirContext;
+import de.uni_leipzig.life.csv2fhir.Csv2Fhir;
+import de.uni_leipzig.life.csv2fhir.CsvDirectory;
+import de.uni_leipzig.life.csv2fhir.TableSource;
+
+/**
+ * Converts workbooks and directories of csv files side by side in one JVM. Every job prints to its own
+ * log file instead of System.out, and all jobs share one FhirContext and the date and unit caches.
+ * <p>
+ * At most {@code parallelJobs} jobs run at a time and at most {@code queueSize} more wait for a thread;
+ * {@link #submit(File, File, File)} blocks while the queue is full, so the submitting thread, which may
+ * be splitting the next workbook, never runs far ahead.
+ */
+public class BatchRunner implements AutoCloseable {
+
+    private final FhirContext ctx = FhirContext.forR4();
+    private final ExecutorService executor;
+    private final Semaphore slots;
+    private final List<Future<JobResult>> jobs = new ArrayList<>();
+    private final long start = System.nanoTime();
+    private boolean streaming;
+
+    public BatchRunner(int parallelJobs, int queueSize) {
+        executor = Executors.newFixedThreadPool(parallelJobs);
+        slots = new Semaphore(parallelJobs + queueSize);
+    }
+
+    /**
+     * Writes the bundles of the jobs while they are converted, see {@link Csv2Fhir#setStreaming(boolean)}.
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Queues the conversion of a workbook or a directory of csv files.
+     */
+    public void submit(File input, File resultJson, File logFile) throws InterruptedException {
+        slots.acquire();
+        try {
+            jobs.add(executor.submit(() -> {
+                try {
+                    return run(input, resultJson, logFile);
+                } finally {
+                    slots.release();
+                }
+            }));
+        } catch (RuntimeException e) {
+            slots.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Records a job that failed before it could be submitted, e.g. while its workbook was split, so it is
+     * reported with the others.
+     */
+    public void addFailure(String name, long nanos, Exception failure) {
+        jobs.add(CompletableFuture.completedFuture(new JobResult(name, 0, 0, 0, nanos, failure)));
+    }
+
+    private JobResult run(File input, File resultJson, File logFile) {
+        long jobStart = System.nanoTime();
+        try (PrintStream log = new PrintStream(new BufferedOutputStream(new FileOutputStream(logFile)), false,
+                StandardCharsets.UTF_8)) {
+            try {
+                Csv2Fhir converter;
+                if (input.isDirectory()) {
+                    converter = convert(new CsvDirectory(input), resultJson, log);
+                } else {
+                    try (ExcelWorkbook workbook = new ExcelWorkbook(input)) {
+                        workbook.setLog(log);
+                        converter = convert(workbook, resultJson, log);
+                    }
+                }
+                return new JobResult(input.getName(), converter.getRecordCount(), converter.getResourceCount(),
+                        converter.getDiagnostics().getErrorCount(), System.nanoTime() - jobStart, null);
+            } catch (Exception e) {
+                e.printStackTrace(log);
+                return new JobResult(input.getName(), 0, 0, 0, System.nanoTime() - jobStart, e);
+            }
+        } catch (IOException e) {
+            return new JobResult(input.getName(), 0, 0, 0, System.nanoTime() - jobStart, e);
+        }
+    }
+
+    private Csv2Fhir convert(TableSource source, File resultJson, PrintStream log) throws Exception {
+        Csv2Fhir converter = new Csv2Fhir(source, resultJson, ctx);
+        converter.setLog(log);
+        converter.setStreaming(streaming);
+        converter.convertFiles();
+        return converter;
+    }
+
+    /**
+     * Waits for the jobs submitted so far.
+     *
+     * @return their results in the order they were submitted
+     */
+    public List<JobResult> awaitAll() throws InterruptedException {
+        List<JobResult> results = new ArrayList<>();
+        for (Future<JobResult> job : jobs) {
+            try {
+                results.add(job.get());
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Job failed outside of its conversion", e.getCause());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Prints a line per job and the totals since the runner was created.
+     */
+    public void printSummary(PrintStream out, List<JobResult> results) {
+        out.println(String.format(Locale.ROOT, "%-40s %10s %10s %8s %9s %10s",
+                "Job", "Records", "Resources", "Errors", "Seconds", "Records/s"));
+        long records = 0;
+        int failed = 0;
+        for (JobResult result : results) {
+            out.println(result);
+            records += result.getRecords();
+            failed += result.getFailure() != null ? 1 : 0;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        out.println(String.format(Locale.ROOT, "%d jobs, %d failed, %d records in %.1f s, %.1f records/s",
+                results.size(), failed, records, seconds, records / seconds));
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    public static class JobResult {
+        private final String name;
+        private final long records;
+        private final long resources;
+        private final long errors;
+        private final long nanos;
+        private final Exception failure;
+
+        JobResult(String name, long records, long resources, long errors, long nanos, Exception failure) {
+            this.name = name;
+            this.records = records;
+            this.resources = resources;
+            this.errors = errors;
+            this.nanos = nanos;
+            this.failure = failure;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getRecords() {
+            return records;
+        }
+
+        public long getResources() {
+            return resources;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public double getSeconds() {
+            return nanos / 1e9;
+        }
+
+        public double getRecordsPerSecond() {
+            return records / getSeconds();
+        }
+
+        /**
+         * @return the exception that stopped the job, null if it completed
+         */
+        public Exception getFailure() {
+            return failure;
+        }
+
+        @Override
+        public String toString() {
+            if (failure != null) {
+                return String.format(Locale.ROOT, "%-40s failed after %.1f s: %s", name, getSeconds(), failure);
+            }
+            return String.format(Locale.ROOT, "%-40s %10d %10d %8d %9.1f %10.1f",
+                    name, records, resources, errors, getSeconds(), getRecordsPerSecond());
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package de.uni_leipzig.imise.csv2fhir;
+
+import java.io.PrintWriter;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+
+/**
+ * Turns the cell values of {@link StreamingSheetHandler} into the fields of the csv files. It keeps no
+ * state, so the sheets of a workbook can be written by several threads.
+ */
+final class CellEncoder {
+
+    static final char DELIMITER = ',';
+    private static final char QUOTE = '"';
+    // the zone of the dates made by POI
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.ofPattern("dd.MM.yyyy, HH:mm").withZone(ZoneId.systemDefault());
+    // below this Double.toString writes integral numbers as digits and ".0"
+    private static final double PLAIN_LIMIT = 1e7;
+
+    private CellEncoder() {
+    }
+
+    /**
+     * @return the text of the value in the csv file, null for a cell of another type
+     */
+    static String format(Object value) {
+        if (value == null) {
+            return "";
+        } else if (value instanceof Date) {
+            return DATE_FORMAT.format(((Date) value).toInstant());
+        } else if (value instanceof Double) {
+            return formatNumber((Double) value);
+        } else if (value instanceof String) {
+            return (String) value;
+        }
+        return null;
+    }
+
+    /**
+     * Writes the value as a field, quoted as in RFC 4180 if it contains the delimiter, a quote or a line
+     * break.
+     *
+     * @return false if the value is of another cell type, nothing is written then
+     */
+    static boolean write(PrintWriter csv, Object value) {
+        if (value == null) {
+            return true;
+        } else if (value instanceof Date) {
+            // the date contains the delimiter
+            csv.write(QUOTE);
+            DATE_FORMAT.formatTo(((Date) value).toInstant(), csv);
+            csv.write(QUOTE);
+            return true;
+        } else if (value instanceof Double) {
+            csv.write(formatNumber((Double) value));
+            return true;
+        } else if (value instanceof String) {
+            writeText(csv, (String) value);
+            return true;
+        }
+        return false;
+    }
+
+    private static String formatNumber(double number) {
+        if (number == (long) number && Math.abs(number) < PLAIN_LIMIT && (number != 0 || 1 / number > 0)) {
+            return Long.toString((long) number);
+        }
+        String text = Double.toString(number);
+        return text.endsWith(".0") ? text.substring(0, text.length() - 2) : text;
+    }
+
+    private static void writeText(PrintWriter csv, String text) {
+        int length = text.length();
+        int i = 0;
+        while (i < length && !isSpecial(text.charAt(i))) {
+            i++;
+        }
+        if (i == length) {
+            csv.write(text);
+            return;
+        }
+        csv.write(QUOTE);
+        csv.write(text, 0, i);
+        for (; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == QUOTE) {
+                csv.write(QUOTE);
+            }
+            csv.write(c);
+        }
+        csv.write(QUOTE);
+    }
+
+    private static boolean isSpecial(char c) {
+        return c == DELIMITER || c == QUOTE || c == '\n' || c == '\r';
+    }
+}
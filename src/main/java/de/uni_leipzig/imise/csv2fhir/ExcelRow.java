@@ -0,0 +1,44 @@
+package de.uni_leipzig.imise.csv2fhir;
+
+import java.util.Arrays;
+
+import de.uni_leipzig.life.csv2fhir.TableRow;
+
+/**
+ * A row of a sheet with the values of its csv record, trimmed and empty values as null.
+ */
+class ExcelRow implements TableRow {
+
+    private final String sheetName;
+    private final int rowNum;
+    private final long recordNumber;
+    private final String[] values;
+
+    ExcelRow(String sheetName, int rowNum, long recordNumber, String[] values) {
+        this.sheetName = sheetName;
+        this.rowNum = rowNum;
+        this.recordNumber = recordNumber;
+        this.values = values;
+    }
+
+    @Override
+    public long getRecordNumber() {
+        return recordNumber;
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    @Override
+    public String get(int index) {
+        return values[index];
+    }
+
+    @Override
+    public String toString() {
+        return "ExcelRow [sheet=" + sheetName + ", row=" + (rowNum + 1) + ", recordNumber=" + recordNumber
+                + ", values=" + Arrays.toString(values) + "]";
+    }
+}
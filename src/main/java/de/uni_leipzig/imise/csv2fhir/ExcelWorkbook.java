@@ -0,0 +1,194 @@
+package de.uni_leipzig.imise.csv2fhir;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.util.CellAddress;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.xmlbeans.XmlException;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTWorkbookPr;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.WorkbookDocument;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import de.uni_leipzig.life.csv2fhir.TableSource;
+
+import static org.apache.poi.ooxml.POIXMLTypeLoader.DEFAULT_XML_OPTIONS;
+
+/**
+ * The sheets of a workbook as the tables of a conversion, named like the csv files {@link SplitExcel}
+ * writes for them. The rows are read with the SAX parser and have the values of the csv records, except
+ * that a value with quotes or line breaks is not garbled by the unescaped csv file.
+ */
+public class ExcelWorkbook implements TableSource, Closeable {
+
+    private static final String SUFFIX = ".csv";
+
+    private final OPCPackage pkg;
+    private final XSSFReader reader;
+    private final ReadOnlySharedStringsTable sharedStrings;
+    private final StylesTable styles;
+    private final boolean date1904;
+    private SplitExcel.Logger log = new SplitExcel.Logger();
+
+    public ExcelWorkbook(File excel) throws IOException {
+        if (!excel.isFile()) {
+            throw new FileNotFoundException(excel.getPath());
+        }
+        try {
+            pkg = OPCPackage.open(excel, PackageAccess.READ);
+        } catch (OpenXML4JException e) {
+            throw new IOException(e);
+        }
+        try {
+            reader = new XSSFReader(pkg);
+            sharedStrings = new ReadOnlySharedStringsTable(pkg, false);
+            styles = reader.getStylesTable();
+            date1904 = isDate1904(reader);
+        } catch (OpenXML4JException | SAXException | XmlException | IOException e) {
+            pkg.revert();
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+    }
+
+    /**
+     * Prints the messages on the sheets to this stream instead of System.out and System.err.
+     */
+    public void setLog(PrintStream log) {
+        this.log = new SplitExcel.Logger(log);
+    }
+
+    private static boolean isDate1904(XSSFReader reader) throws IOException, OpenXML4JException, XmlException {
+        try (InputStream workbookData = reader.getWorkbookData()) {
+            CTWorkbookPr workbookPr = WorkbookDocument.Factory.parse(workbookData, DEFAULT_XML_OPTIONS)
+                    .getWorkbook().getWorkbookPr();
+            return workbookPr != null && workbookPr.getDate1904();
+        }
+    }
+
+    @Override
+    public List<String> getTableNames() throws IOException {
+        List<String> tableNames = new ArrayList<>();
+        try {
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            while (sheets.hasNext()) {
+                sheets.next().close();
+                tableNames.add(sheets.getSheetName() + SUFFIX);
+            }
+        } catch (OpenXML4JException e) {
+            throw new IOException(e);
+        }
+        return tableNames;
+    }
+
+    @Override
+    public void read(String tableName, RowHandler handler) throws Exception {
+        String sheetName = tableName.substring(0, tableName.length() - SUFFIX.length());
+        try {
+            readSheet(sheetName, new Rows(sheetName, handler, log));
+        } catch (SAXException e) {
+            // the exception of the handler
+            throw e.getException() != null ? e.getException() : e;
+        }
+    }
+
+    void readSheet(String sheetName, StreamingSheetHandler.RowListener listener)
+            throws IOException, OpenXML4JException, SAXException, ParserConfigurationException {
+        try (InputStream sheet = openSheet(sheetName)) {
+            XMLReader parser = XMLHelper.newXMLReader();
+            parser.setContentHandler(new StreamingSheetHandler(sharedStrings, styles, date1904, listener));
+            parser.parse(new InputSource(sheet));
+        }
+    }
+
+    private synchronized InputStream openSheet(String sheetName) throws IOException, OpenXML4JException {
+        XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+        while (sheets.hasNext()) {
+            InputStream sheet = sheets.next();
+            if (sheets.getSheetName().equals(sheetName)) {
+                return sheet;
+            }
+            sheet.close();
+        }
+        throw new FileNotFoundException("No sheet " + sheetName);
+    }
+
+    @Override
+    public void close() {
+        pkg.revert();
+    }
+
+    /**
+     * Passes the header and the rows which SplitExcel would write to the handler.
+     */
+    private static class Rows implements StreamingSheetHandler.RowListener {
+
+        private final String sheetName;
+        private final RowHandler handler;
+        private final SplitExcel.Logger log;
+        private int maxCol = -1;
+        private long recordNumber;
+
+        Rows(String sheetName, RowHandler handler, SplitExcel.Logger log) {
+            this.sheetName = sheetName;
+            this.handler = handler;
+            this.log = log;
+        }
+
+        @Override
+        public void row(int rowNum, List<Object> values) throws SAXException {
+            try {
+                if (maxCol < 0) {
+                    if (rowNum != 0) {
+                        throw new SAXException("No header in the first row of " + sheetName);
+                    }
+                    maxCol = SplitExcel.countColumns(values, log);
+                    Map<String, Integer> headerMap = new LinkedHashMap<>();
+                    for (int col = 0; col < maxCol; col++) {
+                        headerMap.put(((String) values.get(col)).trim(), col);
+                    }
+                    handler.start(headerMap);
+                } else if (!SplitExcel.isSkipped(values, maxCol)) {
+                    handler.row(new ExcelRow(sheetName, rowNum, ++recordNumber, toStrings(rowNum, values)));
+                }
+            } catch (SAXException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new SAXException(e);
+            }
+        }
+
+        private String[] toStrings(int rowNum, List<Object> values) {
+            String[] strings = new String[maxCol];
+            for (int col = 0; col < maxCol; col++) {
+                Object value = col < values.size() ? values.get(col) : null;
+                String string = CellEncoder.format(value);
+                if (string == null) {
+                    log.error("unknown cell type " + SplitExcel.getCellType(value).name() + " "
+                            + new CellAddress(rowNum, col));
+                    string = "";
+                }
+                string = string.trim();
+                strings[col] = string.isEmpty() ? null : string;
+            }
+            return strings;
+        }
+    }
+}
@@ -1,8 +1,9 @@
 package de.uni_leipzig.imise.csv2fhir;
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileDescriptor;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
@@ -10,20 +11,33 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.io.PrintWriter;
-import java.text.SimpleDateFormat;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.parsers.ParserConfigurationException;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellType;
 import org.apache.poi.ss.usermodel.DateUtil;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellAddress;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.xml.sax.SAXException;
 
 import de.uni_leipzig.life.csv2fhir.Csv2Fhir;
 
@@ -33,19 +47,55 @@ public class SplitExcel {
             "Person","Versorgungsfall","Abteilungsfall","Laborbefund","Diagnose","Prozedur","Medikation","Klinische Dokumentation"
             //			"Person","Klinische Dokumentation"
             )));
-    private static String delim=",";
-    private static String quote="\"";
-    private static SimpleDateFormat dateFormat =new SimpleDateFormat("dd.MM.yyyy, HH:mm");
-    //	private static SimpleDateFormat dateFormat =new SimpleDateFormat("MM/dd/yyyy");
-    class Logger {
-        void info(String s) { System.out.println(s); } 
-        void error(String s) { System.err.println(s); } 
+    static class Logger {
+        // null for System.out and System.err
+        private final PrintStream out;
+        Logger() { this(null); }
+        Logger(PrintStream out) { this.out = out; }
+        void info(String s) { (out != null ? out : System.out).println(s); } 
+        void error(String s) { (out != null ? out : System.err).println(s); } 
     };
     Logger log = new Logger();
     //	Logger log = LogManager.getLogger(getClass());
+    private boolean streaming;
+    private boolean direct;
+    private int sheetThreads = 1;
+
+    /**
+     * Reads the sheets with the SAX parser instead of the XSSFWorkbook, which holds all cells of the
+     * workbook in memory. The csv files are the same.
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Lets {@link #convertAllExcelInDir(File)} pass the rows of the sheets straight to the converters
+     * instead of writing csv files and reading them again.
+     */
+    public void setDirect(boolean direct) {
+        this.direct = direct;
+    }
+
+    /**
+     * Writes up to this many sheets of a workbook at the same time. Only with {@link #setStreaming(boolean)
+     * streaming}, as the XSSFWorkbook is not thread safe; its sheets are written one after the other.
+     */
+    public void setSheetThreads(int sheetThreads) {
+        this.sheetThreads = sheetThreads;
+    }
+
+    /**
+     * Prints the messages to this stream instead of System.out and System.err.
+     */
+    public void setLog(PrintStream log) {
+        this.log = new Logger(log);
+    }
 
     public File splitExcel(File excel) throws IOException {
-        FileInputStream excelFile = new FileInputStream(excel);
+        if (!excel.isFile()) {
+            throw new FileNotFoundException(excel.getPath());
+        }
         String basename = FilenameUtils.removeExtension(excel.getPath());
         File csvDir = new File(basename);
         if (!csvDir.exists()) {
@@ -55,107 +105,279 @@ public class SplitExcel {
             log.info("delete all files in " + csvDir);
             FileUtils.cleanDirectory(csvDir);
         }
-        try (Workbook workbook = new XSSFWorkbook(excelFile)) {
+        if (streaming) {
+            splitStreaming(excel, basename);
+        } else {
+            splitWorkbook(excel, basename);
+        }
+        log.info("finished");
+        return csvDir;
+    }
+
+    private void splitWorkbook(File excel, String basename) throws IOException {
+        if (sheetThreads > 1) {
+            log.info("splitting the sheets one after the other, only streaming splits them in parallel");
+        }
+        try (FileInputStream excelFile = new FileInputStream(excel);
+             Workbook workbook = new XSSFWorkbook(excelFile)) {
             for (Sheet dataSheet : workbook) {
                 String sheetName = dataSheet.getSheetName();
                 if (!sheetNames.contains(sheetName)) {
                     log.info("skip sheet \"" + sheetName + "\"");
                     continue;
                 }
-                // Das ist der Trick f�r das pot. Setzen des encondigs.(z.B. wegen "m�nnlich")
-                // Wir setzten nun aber nur auf UTF
-                String csvFile = FilenameUtils.concat(basename, sheetName+".csv"); 
-                OutputStream os = new FileOutputStream(new File(csvFile));
-                String charSet = "UTF-8";
-//                String charSet = "ISO-8859-1";
-                try (PrintWriter csv = new PrintWriter(new OutputStreamWriter(os,charSet))) {
-                    log.info("creating " + csvFile);
-                    // Annahme: Header ist in der ersten Zeile
-                    // Annahme: Es gibt nur soviele Spalten wie Header
-                    int maxCol = 0;
-                    Row firstRow = dataSheet.getRow(0);
-                    // Z�hle relevante Spalten 
-                    for (int col = 0; col < firstRow.getLastCellNum(); col++) {
-                        // This looks fine but skips null cells
-                        //for (Cell cell : firstRow) {
-                        //	String s = cell.getStringCellValue();
-                        Cell cell = firstRow.getCell(col);
-                        if (cell == null) break;
-                        String cellColumnHeader = cell.getStringCellValue();
-                        if (cellColumnHeader.isEmpty()) break;
-                        if (!cellColumnHeader.trim().equals(cellColumnHeader)) 
-                            log.error("column \"" + cellColumnHeader + "\" is not trimmed");
-                        maxCol++;					
-                    }
-                    for (Row row : dataSheet) {
-                        boolean skipEmptyRow = false;
-                        for (int col = 0; col < maxCol; col++) {
-                            Cell cell = row.getCell(col);
-                            String cellValue;						
-                            if (cell == null || cell.getCellType() == CellType.BLANK) {
-                                if (col == 0) { 
-                                    skipEmptyRow = true; 
-                                    break; 
-                                }
-                                cellValue = "";
-                            } else if (cell.getCellType() == CellType.NUMERIC) {
-                                if (DateUtil.isCellDateFormatted(cell)) {
-                                    // Achtung: Das klappt nicht immer; ab und zu ist Datum in Excel trotzdem ein String 
-                                    cellValue = dateFormat.format(cell.getDateCellValue());
-                                } else {
-                                    cellValue = "" + cell.getNumericCellValue();
-                                    cellValue = cellValue.replace(",", ".");
-                                    cellValue = cellValue.replaceAll("\\.0$", "");
-                                }
-                            } else if (cell.getCellType() == CellType.STRING) { 
-                                cellValue = cell.getStringCellValue();								
-                            } else {
-                                log.error("unknown cell type " + cell.getCellType().name() + " " + cell.getAddress());
-                                cellValue = "";
-                            }
-                            if (col > 0) csv.print(delim);
-                            //s = s.replace("\"", "\"\"");
-                            if (cellValue.contains(delim)) cellValue = quote + cellValue + quote;
-                            csv.print(cellValue);
-                        }
-                        if (!skipEmptyRow) csv.println();
+                splitSheet(dataSheet, basename);
+            }
+        }
+    }
+
+    private void splitSheet(Sheet dataSheet, String basename) throws IOException {
+        try (PrintWriter csv = createCsv(basename, dataSheet.getSheetName())) {
+            Row firstRow = dataSheet.getRow(0);
+            List<Object> header = new ArrayList<>();
+            for (int col = 0; col < firstRow.getLastCellNum(); col++) {
+                // This looks fine but skips null cells
+                //for (Cell cell : firstRow) {
+                Cell cell = firstRow.getCell(col);
+                if (cell == null) break;
+                header.add(cell.getStringCellValue());
+            }
+            int maxCol = countColumns(header, log);
+            List<Object> values = new ArrayList<>(maxCol);
+            for (Row row : dataSheet) {
+                values.clear();
+                for (int col = 0; col < maxCol; col++) {
+                    values.add(getValue(row.getCell(col)));
+                }
+                printRow(csv, row.getRowNum(), values, maxCol);
+            }
+        }
+    }
+
+    private void splitStreaming(File excel, String basename) throws IOException {
+        try (ExcelWorkbook workbook = new ExcelWorkbook(excel)) {
+            List<Callable<Void>> sheets = new ArrayList<>();
+            for (String tableName : workbook.getTableNames()) {
+                String sheetName = FilenameUtils.removeExtension(tableName);
+                if (!sheetNames.contains(sheetName)) {
+                    log.info("skip sheet \"" + sheetName + "\"");
+                    continue;
+                }
+                sheets.add(() -> {
+                    splitSheet(workbook, sheetName, basename);
+                    return null;
+                });
+            }
+            splitSheets(sheets);
+        }
+    }
+
+    private void splitSheet(ExcelWorkbook workbook, String sheetName, String basename) throws IOException {
+        try (PrintWriter csv = createCsv(basename, sheetName)) {
+            int[] maxCol = {-1};
+            workbook.readSheet(sheetName, (rowNum, values) -> {
+                if (maxCol[0] < 0) {
+                    if (rowNum != 0) {
+                        throw new SAXException("No header in the first row of " + sheetName);
                     }
+                    maxCol[0] = countColumns(values, log);
                 }
+                printRow(csv, rowNum, values, maxCol[0]);
+            });
+        } catch (OpenXML4JException | SAXException | ParserConfigurationException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Runs the splitting of the sheets on up to {@link #setSheetThreads(int) sheetThreads} threads.
+     */
+    private void splitSheets(List<Callable<Void>> sheets) throws IOException {
+        if (sheetThreads <= 1 || sheets.size() <= 1) {
+            for (Callable<Void> sheet : sheets) {
+                runSheet(sheet);
             }
+            return;
         }
-        log.info("finished");
-        return csvDir;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(sheetThreads, sheets.size()));
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (Callable<Void> sheet : sheets) {
+                futures.add(executor.submit(() -> runSheet(sheet)));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while splitting the sheets", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw (RuntimeException) e.getCause();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Void runSheet(Callable<Void> sheet) throws IOException {
+        try {
+            return sheet.call();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    private PrintWriter createCsv(String basename, String sheetName) throws IOException {
+        // Das ist der Trick f�r das pot. Setzen des encondigs.(z.B. wegen "m�nnlich")
+        // Wir setzten nun aber nur auf UTF
+        String csvFile = FilenameUtils.concat(basename, sheetName+".csv");
+        OutputStream os = new FileOutputStream(new File(csvFile));
+        PrintWriter csv = new PrintWriter(new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8),
+                1 << 16));
+        log.info("creating " + csvFile);
+        return csv;
+    }
+
+    /**
+     * @return the number of columns up to the first empty header
+     */
+    static int countColumns(List<Object> header, Logger log) {
+        // Annahme: Header ist in der ersten Zeile
+        // Annahme: Es gibt nur soviele Spalten wie Header
+        // Z�hle relevante Spalten 
+        int maxCol = 0;
+        for (Object value : header) {
+            if (value != null && !(value instanceof String)) {
+                throw new IllegalStateException("Cannot get a STRING value from a " + getCellType(value) + " cell");
+            }
+            String cellColumnHeader = (String) value;
+            if (cellColumnHeader == null || cellColumnHeader.isEmpty()) break;
+            if (!cellColumnHeader.trim().equals(cellColumnHeader))
+                log.error("column \"" + cellColumnHeader + "\" is not trimmed");
+            maxCol++;
+        }
+        return maxCol;
+    }
+
+    /**
+     * @return null for a blank cell, a String, a Date, a Double or the type of another cell
+     */
+    private static Object getValue(Cell cell) {
+        if (cell == null || cell.getCellType() == CellType.BLANK) {
+            return null;
+        } else if (cell.getCellType() == CellType.NUMERIC) {
+            // Achtung: Das klappt nicht immer; ab und zu ist Datum in Excel trotzdem ein String 
+            return DateUtil.isCellDateFormatted(cell) ? cell.getDateCellValue() : (Object) cell.getNumericCellValue();
+        } else if (cell.getCellType() == CellType.STRING) {
+            return cell.getStringCellValue();
+        }
+        return cell.getCellType();
+    }
+
+    static CellType getCellType(Object value) {
+        return value instanceof Date || value instanceof Double ? CellType.NUMERIC : (CellType) value;
     }
-    public void convertAllExcelInDir(File excelDir) {
+
+    /**
+     * @return true if the row is not written because its first value is blank
+     */
+    static boolean isSkipped(List<Object> values, int maxCol) {
+        return maxCol > 0 && (values.isEmpty() || values.get(0) == null);
+    }
+
+    /**
+     * Prints the first maxCol values, unless the first is blank.
+     */
+    private void printRow(PrintWriter csv, int rowNum, List<Object> values, int maxCol) {
+        if (isSkipped(values, maxCol)) {
+            return;
+        }
+        for (int col = 0; col < maxCol; col++) {
+            Object value = col < values.size() ? values.get(col) : null;
+            if (col > 0) csv.write(CellEncoder.DELIMITER);
+            if (!CellEncoder.write(csv, value)) {
+                log.error("unknown cell type " + getCellType(value).name() + " " + new CellAddress(rowNum, col));
+            }
+        }
+        csv.println();
+    }
+
+    /**
+     * Converts the sheets of the workbook without csv files in between. The rows are read with the SAX
+     * parser and passed to the converters as they are read.
+     */
+    public void convertExcel(File excel, File resultJson) throws Exception {
+        try (ExcelWorkbook workbook = new ExcelWorkbook(excel)) {
+            Csv2Fhir converter = new Csv2Fhir(workbook, resultJson);
+            if (log.out != null) {
+                workbook.setLog(log.out);
+                converter.setLog(log.out);
+            }
+            converter.convertFiles();
+        }
+    }
+
+    public List<BatchRunner.JobResult> convertAllExcelInDir(File excelDir) {
+        return convertAllExcelInDir(excelDir, 1);
+    }
+
+    /**
+     * Converts the workbooks of the directory with up to parallelJobs at a time, each logging to a file
+     * next to it. The workbooks are split one after the other while the jobs run. A workbook that cannot
+     * be split is reported as a failed job and the others are converted.
+     *
+     * @return the results of the jobs in the order of the workbook names, empty if interrupted
+     */
+    public List<BatchRunner.JobResult> convertAllExcelInDir(File excelDir, int parallelJobs) {
         FilenameFilter filter= new FilenameFilter() {
             public boolean accept(File dir, String name) {
                 return !name.startsWith("~") && name.toLowerCase().endsWith(".xlsx");
             }
         };
-        for (File excelTestdata : excelDir.listFiles(filter)) {
-            File csvDir;
-            try {
-                csvDir = splitExcel(excelTestdata);
-                File logFile = new File(excelDir,	FilenameUtils.removeExtension(excelTestdata.getName())+".log");
-                System.out.println(logFile.getAbsolutePath());
-                System.setOut(new PrintStream(logFile));
-                File resultJson = new File(excelDir,            			
-                        FilenameUtils.removeExtension(excelTestdata.getName())+".json");
-                Csv2Fhir converter = new Csv2Fhir(csvDir,resultJson);
-                converter.convertFiles();	
-                System.setOut(new PrintStream(new FileOutputStream(FileDescriptor.out)));
-            } catch (IOException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
-            } catch (Exception e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
+        try (BatchRunner runner = new BatchRunner(parallelJobs, parallelJobs)) {
+            File[] workbooks = excelDir.listFiles(filter);
+            Arrays.sort(workbooks);
+            for (File excelTestdata : workbooks) {
+                long splitStart = System.nanoTime();
+                File input;
+                try {
+                    input = direct ? excelTestdata : splitExcel(excelTestdata);
+                } catch (IOException | RuntimeException e) {
+                    log.error("cannot split " + excelTestdata + ": " + e);
+                    runner.addFailure(excelTestdata.getName(), System.nanoTime() - splitStart, e);
+                    continue;
+                }
+                String basename = FilenameUtils.removeExtension(excelTestdata.getName());
+                runner.submit(input, new File(excelDir, basename + ".json"), new File(excelDir, basename + ".log"));
             }
-        }		
+            List<BatchRunner.JobResult> results = runner.awaitAll();
+            runner.printSummary(System.out, results);
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ArrayList<>();
+        }
     }
 
     public static void main(String[] args) {
         SplitExcel se = new SplitExcel();
-        se.convertAllExcelInDir(new File(args[0]));
+        List<String> options = Arrays.asList(args).subList(1, args.length);
+        se.setStreaming(options.contains("--streaming"));
+        se.setDirect(options.contains("--direct"));
+        int parallelJobs = 1;
+        for (String option : options) {
+            if (option.startsWith("--jobs=")) {
+                parallelJobs = Integer.parseInt(option.substring("--jobs=".length()));
+            } else if (option.startsWith("--sheet-threads=")) {
+                se.setSheetThreads(Integer.parseInt(option.substring("--sheet-threads=".length())));
+            }
+        }
+        se.convertAllExcelInDir(new File(args[0]), parallelJobs);
     }
 }
@@ -0,0 +1,183 @@
+package de.uni_leipzig.imise.csv2fhir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.apache.poi.xssf.usermodel.XSSFRichTextString;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Reads the cells of a sheet from the SAX events of its xml and hands every row to a
+ * {@link RowListener}, so only the current row is kept in memory. The cells get the values the
+ * XSSFWorkbook would give them: a String for text, a Date for numbers with a date format, a Double
+ * for other numbers, null for blank cells and the {@link CellType} for formulas, booleans and errors.
+ */
+class StreamingSheetHandler extends DefaultHandler {
+
+    interface RowListener {
+        /**
+         * @param values the values by column, shorter than the header if the last cells are missing
+         */
+        void row(int rowNum, List<Object> values) throws SAXException;
+    }
+
+    private final ReadOnlySharedStringsTable sharedStrings;
+    private final StylesTable styles;
+    private final boolean date1904;
+    private final RowListener listener;
+
+    private final List<Object> values = new ArrayList<>();
+    private final List<CellRangeAddress> arrayFormulas = new ArrayList<>();
+    private final StringBuilder text = new StringBuilder();
+    private int rowNum = -1;
+    private int colNum;
+    private String type;
+    private int styleIndex;
+    private boolean formula;
+    private String value;
+    private boolean inValue;
+    private boolean inInlineText;
+    private boolean inPhonetic;
+
+    StreamingSheetHandler(ReadOnlySharedStringsTable sharedStrings, StylesTable styles, boolean date1904,
+                          RowListener listener) {
+        this.sharedStrings = sharedStrings;
+        this.styles = styles;
+        this.date1904 = date1904;
+        this.listener = listener;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) {
+        switch (localName) {
+            case "row":
+                String r = attributes.getValue("r");
+                rowNum = r != null ? Integer.parseInt(r) - 1 : rowNum + 1;
+                colNum = -1;
+                values.clear();
+                break;
+            case "c":
+                String ref = attributes.getValue("r");
+                colNum = ref != null ? new CellReference(ref).getCol() : colNum + 1;
+                type = attributes.getValue("t");
+                String s = attributes.getValue("s");
+                styleIndex = s != null ? Integer.parseInt(s) : 0;
+                formula = isInArrayFormula();
+                value = null;
+                text.setLength(0);
+                break;
+            case "f":
+                formula = true;
+                String formulaRef = attributes.getValue("ref");
+                if ("array".equals(attributes.getValue("t")) && formulaRef != null) {
+                    arrayFormulas.add(CellRangeAddress.valueOf(formulaRef));
+                }
+                break;
+            case "v":
+                inValue = true;
+                text.setLength(0);
+                break;
+            case "t":
+                inInlineText = "inlineStr".equals(type) && !inPhonetic;
+                break;
+            case "rPh":
+                inPhonetic = true;
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        if (inValue || inInlineText) {
+            text.append(ch, start, length);
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        switch (localName) {
+            case "v":
+                inValue = false;
+                value = text.toString();
+                text.setLength(0);
+                break;
+            case "t":
+                inInlineText = false;
+                break;
+            case "rPh":
+                inPhonetic = false;
+                break;
+            case "is":
+                value = text.toString();
+                break;
+            case "c":
+                while (values.size() < colNum) {
+                    values.add(null);
+                }
+                values.add(getValue());
+                break;
+            case "row":
+                listener.row(rowNum, values);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private Object getValue() {
+        if (formula) {
+            return CellType.FORMULA;
+        }
+        if (type == null || type.equals("n")) {
+            if (value == null) {
+                return null;
+            }
+            double number = Double.parseDouble(value);
+            return isDateFormatted(number) ? DateUtil.getJavaDate(number, date1904) : (Object) number;
+        }
+        switch (type) {
+            case "s":
+                return value != null ? sharedStrings.getItemAt(Integer.parseInt(value)).getString() : "";
+            case "inlineStr":
+            case "str":
+                return new XSSFRichTextString(value != null ? value : "").getString();
+            case "b":
+                return CellType.BOOLEAN;
+            case "e":
+                return CellType.ERROR;
+            default:
+                return CellType._NONE;
+        }
+    }
+
+    /**
+     * Like {@link DateUtil#isCellDateFormatted}, with the style of the cell or the default style.
+     */
+    private boolean isDateFormatted(double number) {
+        if (!DateUtil.isValidExcelDate(number) || styles.getNumCellStyles() == 0) {
+            return false;
+        }
+        XSSFCellStyle style = styles.getStyleAt(styleIndex);
+        return style != null && DateUtil.isADateFormat(style.getDataFormat(), style.getDataFormatString());
+    }
+
+    private boolean isInArrayFormula() {
+        for (CellRangeAddress range : arrayFormulas) {
+            if (range.isInRange(rowNum, colNum)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,132 @@
+package de.uni_leipzig.life.csv2fhir;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The progress of a conversion into a streamed bundle: the input files which are completely written, the
+ * last record written of the current file and the size of the output and its number of entries after it.
+ * A later run can skip the written records and continue the output at this point.
+ */
+public class Checkpoint {
+
+    private static final int VERSION = 1;
+
+    private final boolean compact;
+    private final Set<String> completedFiles = new LinkedHashSet<>();
+    private String fileName;
+    private long recordNumber;
+    private long offset;
+    private long entryCount;
+
+    public Checkpoint(boolean compact) {
+        this.compact = compact;
+    }
+
+    /**
+     * @return the checkpoint saved in the file or null if the file does not exist
+     */
+    public static Checkpoint load(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() != VERSION) {
+                throw new IOException("Unsupported checkpoint file " + file);
+            }
+            Checkpoint checkpoint = new Checkpoint(in.readBoolean());
+            for (int files = in.readInt(); files > 0; files--) {
+                checkpoint.completedFiles.add(in.readUTF());
+            }
+            checkpoint.fileName = in.readBoolean() ? in.readUTF() : null;
+            checkpoint.recordNumber = in.readLong();
+            checkpoint.offset = in.readLong();
+            checkpoint.entryCount = in.readLong();
+            return checkpoint;
+        }
+    }
+
+    /**
+     * The file is replaced at once, so an aborted save leaves the previous checkpoint.
+     */
+    public void save(File file) throws IOException {
+        File temp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temp.toPath())))) {
+            out.writeInt(VERSION);
+            out.writeBoolean(compact);
+            out.writeInt(completedFiles.size());
+            for (String completedFile : completedFiles) {
+                out.writeUTF(completedFile);
+            }
+            out.writeBoolean(fileName != null);
+            if (fileName != null) {
+                out.writeUTF(fileName);
+            }
+            out.writeLong(recordNumber);
+            out.writeLong(offset);
+            out.writeLong(entryCount);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Records that the output up to offset contains the records of the file up to recordNumber.
+     */
+    public void update(String fileName, long recordNumber, long offset, long entryCount) {
+        this.fileName = fileName;
+        this.recordNumber = recordNumber;
+        this.offset = offset;
+        this.entryCount = entryCount;
+    }
+
+    /**
+     * Records that the output up to offset contains all records of the file.
+     */
+    public void complete(String fileName, long offset, long entryCount) {
+        completedFiles.add(fileName);
+        update(null, 0, offset, entryCount);
+    }
+
+    public boolean isCompact() {
+        return compact;
+    }
+
+    public boolean isCompleted(String fileName) {
+        return completedFiles.contains(fileName);
+    }
+
+    /**
+     * @return the number of the last record of the file in the output, 0 if it is not started
+     */
+    public long getRecordNumber(String fileName) {
+        return fileName.equals(this.fileName) ? recordNumber : 0;
+    }
+
+    /**
+     * @return the size of the output, 0 if nothing is written yet
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    @Override
+    public String toString() {
+        return completedFiles.size() + " completed files"
+                + (fileName != null ? ", record " + recordNumber + " of " + fileName : "")
+                + ", " + entryCount + " entries";
+    }
+}
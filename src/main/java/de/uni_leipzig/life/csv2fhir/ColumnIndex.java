@@ -0,0 +1,63 @@
+package de.uni_leipzig.life.csv2fhir;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The positions of a fixed list of columns in the header of one file, resolved once per file so
+ * converters can read fields by index instead of looking up the header name for every record.
+ */
+public final class ColumnIndex {
+
+    private final String[] names;
+    private final int[] indices;
+
+    /**
+     * @param headerMap the header of the file, column name to index
+     * @param names     the columns to resolve; a column is addressed by its position in this array
+     */
+    public ColumnIndex(Map<String, Integer> headerMap, String... names) {
+        this.names = names;
+        Map<String, Integer> trimmed = new HashMap<>();
+        headerMap.forEach((name, index) -> trimmed.putIfAbsent(name.trim(), index));
+        indices = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            indices[i] = trimmed.getOrDefault(names[i], -1);
+        }
+    }
+
+    /**
+     * @return the value of the column or null if it is empty or missing in the file or record
+     */
+    public String get(TableRow record, int column) {
+        int index = indices[column];
+        return index >= 0 && index < record.size() ? record.get(index) : null;
+    }
+
+    /**
+     * @return the values of all columns, null for empty or missing ones
+     */
+    public String[] getAll(TableRow record) {
+        String[] values = new String[indices.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = get(record, i);
+        }
+        return values;
+    }
+
+    /**
+     * @return the position of the column in the names or -1 if it is not one of them
+     */
+    public int indexOf(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public String getName(int column) {
+        return names[column];
+    }
+}
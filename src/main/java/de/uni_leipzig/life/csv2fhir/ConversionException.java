@@ -0,0 +1,28 @@
+package de.uni_leipzig.life.csv2fhir;
+
+/**
+ * An {@link Issue} thrown by a converter. The message with the record is only built on demand, and no
+ * stack trace is recorded, as the exception is part of the normal flow for dirty data.
+ */
+public class ConversionException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Issue issue;
+    private final TableRow record;
+
+    public ConversionException(Issue issue, TableRow record) {
+        super(null, null, false, false);
+        this.issue = issue;
+        this.record = record;
+    }
+
+    @Override
+    public String getMessage() {
+        return issue.getDescription() + " for Record: " + record.getRecordNumber() + "! " + record.toString();
+    }
+
+    public Issue getIssue() {
+        return issue;
+    }
+}
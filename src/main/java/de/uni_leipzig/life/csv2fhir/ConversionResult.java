@@ -0,0 +1,67 @@
+package de.uni_leipzig.life.csv2fhir;
+
+import org.hl7.fhir.r4.model.Resource;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The resources converted from a record and the issues found on the way. A result with an error has no
+ * resources.
+ */
+public class ConversionResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private List<Resource> resources = Collections.emptyList();
+    private List<Issue> issues = Collections.emptyList();
+    private boolean hasErrors;
+
+    public static ConversionResult of(List<Resource> resources) {
+        return new ConversionResult().setResources(resources);
+    }
+
+    public ConversionResult setResources(List<Resource> resources) {
+        this.resources = resources;
+        return this;
+    }
+
+    public ConversionResult addIssue(Issue issue) {
+        if (issues.isEmpty()) {
+            issues = new ArrayList<>(2);
+        }
+        issues.add(issue);
+        hasErrors |= !issue.isWarning();
+        return this;
+    }
+
+    /**
+     * @return the converted resources or an empty list if there is an error
+     */
+    public List<Resource> getResources() {
+        return hasErrors ? Collections.emptyList() : resources;
+    }
+
+    public List<Issue> getIssues() {
+        return issues;
+    }
+
+    public boolean hasErrors() {
+        return hasErrors;
+    }
+
+    /**
+     * @return the converted resources
+     * @throws ConversionException for the first error, for callers of {@link Converter#convert()}
+     */
+    public List<Resource> getResourcesOrThrow(TableRow record) throws ConversionException {
+        for (Issue issue : issues) {
+            if (!issue.isWarning()) {
+                throw new ConversionException(issue, record);
+            }
+        }
+        return resources;
+    }
+}
@@ -0,0 +1,410 @@
+package de.uni_leipzig.life.csv2fhir;
+
+import de.uni_leipzig.life.csv2fhir.utils.HashUtil;
+import org.hl7.fhir.r4.model.Resource;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The rows converted by earlier runs, as 64 bit hashes of their content per input file. Csv2Fhir mixes
+ * the encounters of the patient into the hashes of rows referencing encounters, so they are converted
+ * again when those change. For every row the
+ * references of its resources with an id are kept, so vanished rows can be deleted on the server.
+ * <p>
+ * Only the hashes are held in memory, in arrays of longs: 8 bytes per row of the previous run and 8 to 16
+ * bytes, as the array grows, per row of this one, instead of more than 200 bytes for the entries of hash
+ * maps. The references stay in the state file and, for the rows converted by this run, in a temporary
+ * file, from where they are streamed to find the vanished rows and to save the state. Finding the
+ * vanished rows takes 8 more bytes per reference of this run for a while.
+ * <p>
+ * The previous state is only read during a conversion; the current state is written by the thread
+ * writing the output. Rows with errors are not recorded, so they are converted and reported again.
+ */
+public class ConversionState implements Closeable {
+
+    private static final int VERSION = 1;
+
+    // the state file loaded, null for an empty state
+    private final File file;
+    // the sorted hashes of the rows of the previous run per file, in the order of the state file
+    private final Map<String, long[]> previous;
+    private final Map<String, Rows> current = new LinkedHashMap<>();
+    private long unchangedCount;
+    private long changedCount;
+
+    private ConversionState(File file, Map<String, long[]> previous) {
+        this.file = file;
+        this.previous = previous;
+    }
+
+    /**
+     * @return the state saved in the file or an empty state if the file does not exist
+     */
+    public static ConversionState load(File file) throws IOException {
+        Map<String, long[]> previous = new LinkedHashMap<>();
+        if (!file.exists()) {
+            return new ConversionState(null, previous);
+        }
+        try (DataInputStream in = open(file)) {
+            for (int files = in.readInt(); files > 0; files--) {
+                String fileName = in.readUTF();
+                long[] hashes = new long[in.readInt()];
+                for (int i = 0; i < hashes.length; i++) {
+                    hashes[i] = in.readLong();
+                    // the references are streamed from the file when needed
+                    in.readUTF();
+                }
+                Arrays.sort(hashes);
+                previous.put(fileName, hashes);
+            }
+        }
+        return new ConversionState(file, previous);
+    }
+
+    /**
+     * @return the state file positioned after the version, at the number of files
+     */
+    private static DataInputStream open(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(file.toPath()))));
+        try {
+            if (in.readInt() != VERSION) {
+                throw new IOException("Unsupported state file " + file);
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return in;
+    }
+
+    /**
+     * Saves the rows of this run; files that were not converted keep the rows of the previous state.
+     * The file is replaced at once, so an aborted save leaves the old state.
+     */
+    public void save(File file) throws IOException {
+        File temp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(Files.newOutputStream(temp.toPath()))))) {
+            out.writeInt(VERSION);
+            int files = previous.size();
+            for (String fileName : current.keySet()) {
+                if (!previous.containsKey(fileName)) {
+                    files++;
+                }
+            }
+            out.writeInt(files);
+            if (this.file != null) {
+                try (DataInputStream in = open(this.file)) {
+                    for (int i = in.readInt(); i > 0; i--) {
+                        String fileName = in.readUTF();
+                        int rowCount = in.readInt();
+                        Rows rows = current.get(fileName);
+                        out.writeUTF(fileName);
+                        out.writeInt(rows != null ? rows.getHashes().length : rowCount);
+                        for (int j = 0; j < rowCount; j++) {
+                            long hash = in.readLong();
+                            String references = in.readUTF();
+                            if (rows == null || rows.contains(hash)) {
+                                out.writeLong(hash);
+                                out.writeUTF(references);
+                            }
+                        }
+                        if (rows != null) {
+                            rows.copyConverted(out);
+                        }
+                    }
+                }
+            }
+            for (Map.Entry<String, Rows> file2rows : current.entrySet()) {
+                if (!previous.containsKey(file2rows.getKey())) {
+                    out.writeUTF(file2rows.getKey());
+                    out.writeInt(file2rows.getValue().getHashes().length);
+                    file2rows.getValue().copyConverted(out);
+                }
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the FNV-1a hash of the values of the record
+     */
+    public static long hash(TableRow record) {
+        long hash = HashUtil.FNV_OFFSET;
+        for (int i = 0; i < record.size(); i++) {
+            String value = record.get(i);
+            if (value != null) {
+                hash = HashUtil.fnv1a(hash, value);
+            }
+            // separator, so "ab","c" and "a","bc" differ
+            hash = HashUtil.fnv1a(hash, '\uffff');
+        }
+        return hash;
+    }
+
+    /**
+     * Marks the file as converted by this run, so its rows missing from the file count as vanished even
+     * if no row of it is kept or converted.
+     */
+    public void startFile(String fileName) {
+        current.putIfAbsent(fileName, new Rows());
+    }
+
+    /**
+     * @return true if an earlier run converted a row with this hash in the file
+     */
+    public boolean isUnchanged(String fileName, long hash) {
+        long[] hashes = previous.get(fileName);
+        return hashes != null && Arrays.binarySearch(hashes, hash) >= 0;
+    }
+
+    /**
+     * Keeps the row of an earlier run.
+     */
+    public void keep(String fileName, long hash) {
+        current.computeIfAbsent(fileName, name -> new Rows()).add(hash);
+        unchangedCount++;
+    }
+
+    /**
+     * Records a row converted in this run.
+     */
+    public void put(String fileName, long hash, List<Resource> resources) throws IOException {
+        StringBuilder references = new StringBuilder();
+        for (Resource resource : resources) {
+            if (resource != null && resource.getId() != null) {
+                if (references.length() > 0) {
+                    references.append(' ');
+                }
+                references.append(resource.getResourceType()).append('/').append(resource.getId());
+            }
+        }
+        current.computeIfAbsent(fileName, name -> new Rows()).put(hash, references.toString());
+        changedCount++;
+    }
+
+    /**
+     * @return the references of the resources of rows which were converted by an earlier run but are no
+     * longer in a file converted by this run, without the resources of this run
+     */
+    public List<String> getVanishedReferences() throws IOException {
+        List<String> vanished = new ArrayList<>();
+        // a changed row keeps the id of its resources, which must not be deleted; a vanished resource is
+        // only kept if its reference has the hash of one of this run
+        LongList live = new LongList();
+        if (file != null) {
+            try (DataInputStream in = open(file)) {
+                for (int i = in.readInt(); i > 0; i--) {
+                    Rows rows = current.get(in.readUTF());
+                    for (int j = in.readInt(); j > 0; j--) {
+                        long hash = in.readLong();
+                        String references = in.readUTF();
+                        if (rows != null && !references.isEmpty()) {
+                            if (rows.contains(hash)) {
+                                addHashes(references, live);
+                            } else {
+                                vanished.add(references);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        for (Rows rows : current.values()) {
+            rows.forEachConverted((hash, references) -> addHashes(references, live));
+        }
+        long[] liveHashes = live.toSortedArray();
+        List<String> references = new ArrayList<>();
+        for (String rowReferences : vanished) {
+            for (String reference : rowReferences.split(" ")) {
+                if (Arrays.binarySearch(liveHashes, HashUtil.fnv1a(reference)) < 0) {
+                    references.add(reference);
+                }
+            }
+        }
+        return references;
+    }
+
+    private static void addHashes(String references, LongList hashes) {
+        if (!references.isEmpty()) {
+            for (String reference : references.split(" ")) {
+                hashes.add(HashUtil.fnv1a(reference));
+            }
+        }
+    }
+
+    /**
+     * @return the number of rows which were converted by an earlier run but are no longer in a file
+     * converted by this run
+     */
+    public long getVanishedCount() {
+        long count = 0;
+        for (Map.Entry<String, Rows> file2rows : current.entrySet()) {
+            long[] previousHashes = previous.get(file2rows.getKey());
+            if (previousHashes != null) {
+                for (long hash : previousHashes) {
+                    if (!file2rows.getValue().contains(hash)) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Deletes the temporary files with the rows converted by this run.
+     */
+    @Override
+    public void close() throws IOException {
+        for (Rows rows : current.values()) {
+            rows.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return unchangedCount + " unchanged, " + changedCount + " new or changed, " + getVanishedCount()
+                + " vanished rows";
+    }
+
+    /**
+     * The rows of a file in this run: the hashes of the kept and converted rows in memory, the converted
+     * rows with their references in a temporary file. Once read, no rows are added.
+     */
+    private static class Rows implements Closeable {
+
+        private final LongList hashes = new LongList();
+        private long[] sorted;
+        private File spool;
+        private DataOutputStream out;
+
+        void add(long hash) {
+            hashes.add(hash);
+            sorted = null;
+        }
+
+        void put(long hash, String references) throws IOException {
+            if (out == null) {
+                spool = File.createTempFile("csv2fhir-state", ".tmp");
+                out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spool.toPath())));
+            }
+            out.writeLong(hash);
+            out.writeUTF(references);
+            add(hash);
+        }
+
+        /**
+         * @return the distinct hashes of the rows, sorted
+         */
+        long[] getHashes() {
+            if (sorted == null) {
+                sorted = hashes.toSortedArray();
+            }
+            return sorted;
+        }
+
+        boolean contains(long hash) {
+            return Arrays.binarySearch(getHashes(), hash) >= 0;
+        }
+
+        /**
+         * Writes the converted rows in the format of the state file, a repeated row only once.
+         */
+        void copyConverted(DataOutputStream target) throws IOException {
+            BitSet written = new BitSet(getHashes().length);
+            forEachConverted((hash, references) -> {
+                int index = Arrays.binarySearch(getHashes(), hash);
+                if (!written.get(index)) {
+                    written.set(index);
+                    target.writeLong(hash);
+                    target.writeUTF(references);
+                }
+            });
+        }
+
+        void forEachConverted(RowConsumer consumer) throws IOException {
+            if (out == null) {
+                return;
+            }
+            out.flush();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Files.newInputStream(spool.toPath())))) {
+                while (true) {
+                    long hash;
+                    try {
+                        hash = in.readLong();
+                    } catch (EOFException e) {
+                        return;
+                    }
+                    consumer.accept(hash, in.readUTF());
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (out != null) {
+                out.close();
+                Files.deleteIfExists(spool.toPath());
+            }
+        }
+    }
+
+    private interface RowConsumer {
+        void accept(long hash, String references) throws IOException;
+    }
+
+    /**
+     * A growing array of longs.
+     */
+    private static class LongList {
+
+        private long[] values = new long[16];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        /**
+         * Sorts the values and removes the repeated ones.
+         *
+         * @return the distinct values, sorted
+         */
+        long[] toSortedArray() {
+            Arrays.sort(values, 0, size);
+            int distinct = 0;
+            for (int i = 0; i < size; i++) {
+                if (i == 0 || values[i] != values[distinct - 1]) {
+                    values[distinct++] = values[i];
+                }
+            }
+            values = Arrays.copyOf(values, distinct);
+            size = distinct;
+            return values;
+        }
+    }
+}
@@ -8,4 +8,18 @@ import java.util.List;
 public interface Converter {
 
     List<Resource> convert() throws Exception;
+
+    /**
+     * Converts the record and collects its issues instead of throwing on the first one. The default
+     * adapts {@link #convert()}; converters with warnings or many invalid values override it.
+     *
+     * @throws Exception on a problem not foreseen by the converter
+     */
+    default ConversionResult convertWithIssues() throws Exception {
+        try {
+            return ConversionResult.of(convert());
+        } catch (ConversionException e) {
+            return new ConversionResult().addIssue(e.getIssue());
+        }
+    }
 }
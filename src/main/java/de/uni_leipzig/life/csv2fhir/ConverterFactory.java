@@ -1,10 +1,36 @@
 package de.uni_leipzig.life.csv2fhir;
 
-import org.apache.commons.csv.CSVRecord;
+import java.util.Map;
 
 public interface ConverterFactory {
 
-    Converter create(CSVRecord record);
+    Converter create(TableRow record, ColumnIndex columns);
 
     String[] getNeededColumnNames();
+
+    /**
+     * Called for every record of a file in order, also for records that are not converted because they
+     * are unchanged or already written, before the next file is read.
+     */
+    default void index(TableRow record, ColumnIndex columns) {
+    }
+
+    /**
+     * @return columns read by the converter which may be missing in a file; they are indexed after the needed ones
+     */
+    default String[] getOptionalColumnNames() {
+        return new String[0];
+    }
+
+    /**
+     * Binds the needed and optional column names to their indices in the header of one file.
+     */
+    default ColumnIndex bindColumns(Map<String, Integer> headerMap) {
+        String[] needed = getNeededColumnNames();
+        String[] optional = getOptionalColumnNames();
+        String[] names = new String[needed.length + optional.length];
+        System.arraycopy(needed, 0, names, 0, needed.length);
+        System.arraycopy(optional, 0, names, needed.length, optional.length);
+        return new ColumnIndex(headerMap, names);
+    }
 }
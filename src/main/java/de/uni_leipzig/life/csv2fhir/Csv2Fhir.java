@@ -9,115 +9,866 @@ import de.uni_leipzig.life.csv2fhir.converterFactory.MedikationConverterFactory;
 import de.uni_leipzig.life.csv2fhir.converterFactory.PersonConverterFactory;
 import de.uni_leipzig.life.csv2fhir.converterFactory.ProzedurConverterFactory;
 import de.uni_leipzig.life.csv2fhir.converterFactory.VersorgungsfallConverterFactory;
+import de.uni_leipzig.life.csv2fhir.output.BundleWriter;
+import de.uni_leipzig.life.csv2fhir.output.ChunkedBundleWriter;
+import de.uni_leipzig.life.csv2fhir.output.NdjsonWriter;
+import de.uni_leipzig.life.csv2fhir.output.ResourceWriter;
+import de.uni_leipzig.life.csv2fhir.output.StreamingBundleWriter;
+import de.uni_leipzig.life.csv2fhir.output.UploadWriter;
+import de.uni_leipzig.life.csv2fhir.utils.DateUtil;
+import de.uni_leipzig.life.csv2fhir.utils.HashUtil;
 import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
-import org.apache.commons.csv.CSVRecord;
-import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.Resource;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.Reader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 public class Csv2Fhir {
 
-    private final File inputDirectory;
+    public static final CSVFormat CSV_FORMAT = CSVFormat.DEFAULT
+            .withNullString("").withIgnoreSurroundingSpaces().withTrim(true)
+            .withAllowMissingColumnNames(true).withFirstRecordAsHeader();
+
+    private static final int RECORDS_PER_TASK = 256;
+    // results the file being written in parallel may run ahead of the output
+    private static final int RESULTS_PER_FILE = 4096;
+    private static final Result END_OF_FILE = new Result(0, 0, null, null);
+    private static final String CHECKPOINT_SUFFIX = ".checkpoint";
+    private static final String PERSON = "Person.csv";
+    private static final String VERSORGUNGSFALL = "Versorgungsfall.csv";
+    // read before the other files, which reference the patients and encounters in them
+    private static final List<String> INDEXED_FILES = Arrays.asList(PERSON, VERSORGUNGSFALL);
+    private static final String PATIENT_ID = "Patient-ID";
+
+    /**
+     * What happens to records of a patient not in Person.csv.
+     */
+    public enum Orphans {
+        KEEP, FLAG, DROP
+    }
+
+    private final TableSource source;
     private final File outputFile;
     private final Map<String, ConverterFactory> converterFactorys;
+    private final EncounterIndex encounters = new EncounterIndex();
+    private final IdSet patients = new IdSet();
+    private Orphans orphans = Orphans.KEEP;
+    private boolean checkPatients;
+    private final Map<String, Long> orphanCounts = new LinkedHashMap<>();
     private final FhirContext ctx;
-    private final CSVFormat csvFormat;
+    private boolean streaming;
+    private int threads = 1;
+    private boolean parallelFiles;
+    private int maxEntries;
+    private long maxBytes;
+    private boolean ndjson;
+    private boolean compact;
+    private boolean gzip;
+    private File diagnosticsFile;
+    private File stateFile;
+    private boolean deleteVanished;
+    private ConversionState state;
+    private URI uploadUrl;
+    private int uploadBatchSize = 500;
+    private int uploadInFlight = 4;
+    private boolean uploadBatch;
+    private boolean resume;
+    private int checkpointInterval;
+    private boolean checkpointing;
+    private Checkpoint checkpoint;
+    private StreamingBundleWriter checkpointWriter;
+    private String resumeFileName;
+    private long resumeRecordNumber;
+    private int recordsSinceCheckpoint;
+    private final Diagnostics diagnostics = new Diagnostics();
+    private PrintStream log = System.out;
+    private long recordCount;
+    private long resourceCount;
 
     public Csv2Fhir(File inputDir, File outputFile) {
-        this.inputDirectory = inputDir;
+        this(new CsvDirectory(inputDir), outputFile);
+    }
+
+    /**
+     * @param source the tables to convert, named like the csv files
+     */
+    public Csv2Fhir(TableSource source, File outputFile) {
+        this(source, outputFile, FhirContext.forR4());
+    }
+
+    /**
+     * @param ctx an R4 context, which may be shared by conversions running at the same time
+     */
+    public Csv2Fhir(TableSource source, File outputFile, FhirContext ctx) {
+        this.source = source;
         this.outputFile = outputFile;
         this.converterFactorys = new HashMap<>() {{
-            put("Person.csv", new PersonConverterFactory());
-            put("Versorgungsfall.csv", new VersorgungsfallConverterFactory());
-            put("Abteilungsfall.csv", new AbteilungsfallConverterFactory());
-            put("Laborbefund.csv", new LaborbefundConverterFactory());
-            put("Diagnose.csv", new DiagnoseConverterFactory());
-            put("Prozedur.csv", new ProzedurConverterFactory());
-            put("Medikation.csv", new MedikationConverterFactory());
-            put("Klinische Dokumentation.csv", new KlinischeDokumentationConverterFactory());
+            put(PERSON, new PersonConverterFactory(patients));
+            put(VERSORGUNGSFALL, new VersorgungsfallConverterFactory(encounters));
+            put("Abteilungsfall.csv", new AbteilungsfallConverterFactory(encounters));
+            put("Laborbefund.csv", new LaborbefundConverterFactory(encounters));
+            put("Diagnose.csv", new DiagnoseConverterFactory(encounters));
+            put("Prozedur.csv", new ProzedurConverterFactory(encounters));
+            put("Medikation.csv", new MedikationConverterFactory(encounters));
+            put("Klinische Dokumentation.csv", new KlinischeDokumentationConverterFactory(encounters));
         }};
-        this.ctx = FhirContext.forR4();
-        csvFormat = CSVFormat.DEFAULT
-                .withNullString("").withIgnoreSurroundingSpaces().withTrim(true)
-                .withAllowMissingColumnNames(true).withFirstRecordAsHeader();
+        this.ctx = ctx;
+    }
+
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Converts the files after Person.csv and Versorgungsfall.csv concurrently. Every file waiting for
+     * its turn in the output holds up to {@value #RESULTS_PER_FILE} converted records in memory and spools
+     * the rest to a temporary file.
+     */
+    public void setParallelFiles(boolean parallelFiles) {
+        this.parallelFiles = parallelFiles;
+    }
+
+    /**
+     * Splits the output into bundles of at most maxEntries entries, 0 for no limit.
+     */
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Splits the output into bundles of at most maxBytes bytes, 0 for no limit.
+     */
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Writes one ndjson file per resource type into the output file, which is used as directory.
+     */
+    public void setNdjson(boolean ndjson) {
+        this.ndjson = ndjson;
+    }
+
+    /**
+     * Writes json without indentation and line breaks.
+     */
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+
+    /**
+     * Compresses the output with gzip and appends ".gz" to the output file names.
+     */
+    public void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    /**
+     * Writes the diagnostics report to this file instead of printing it at the end of the conversion.
+     */
+    public void setDiagnosticsFile(File diagnosticsFile) {
+        this.diagnosticsFile = diagnosticsFile;
+    }
+
+    /**
+     * Converts only the rows that are new or changed since the run that saved this state file, and saves
+     * the state of this run to it at the end.
+     */
+    public void setStateFile(File stateFile) {
+        this.stateFile = stateFile;
+    }
+
+    /**
+     * Writes delete requests for the resources of rows that vanished since the run that saved the state
+     * file. Only resources with an id can be deleted.
+     */
+    public void setDeleteVanished(boolean deleteVanished) {
+        this.deleteVanished = deleteVanished;
+    }
+
+    /**
+     * Checks that the patient of every record is in Person.csv, if the file is converted, and keeps the
+     * records of other patients with a warning or drops them with an error.
+     */
+    public void setOrphans(Orphans orphans) {
+        this.orphans = orphans;
+    }
+
+    /**
+     * Posts the entries to the FHIR server with this base url instead of writing them to the output file.
+     */
+    public void setUploadUrl(URI uploadUrl) {
+        this.uploadUrl = uploadUrl;
+    }
+
+    /**
+     * Number of entries in every bundle posted to the server.
+     */
+    public void setUploadBatchSize(int uploadBatchSize) {
+        this.uploadBatchSize = uploadBatchSize;
+    }
+
+    /**
+     * Number of bundles posted to the server at the same time. The conversion waits while all of them are
+     * pending, and at the end of every file until all of them are answered.
+     */
+    public void setUploadInFlight(int uploadInFlight) {
+        this.uploadInFlight = uploadInFlight;
+    }
+
+    /**
+     * Posts batch bundles instead of transactions.
+     */
+    public void setUploadBatch(boolean uploadBatch) {
+        this.uploadBatch = uploadBatch;
+    }
+
+    /**
+     * Continues the conversion of a run that was aborted, after the last checkpoint it saved next to the
+     * output file. The diagnostics only cover the records converted by this run.
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    /**
+     * Saves a checkpoint after this many records, and after every file, if the output is a single
+     * uncompressed streamed bundle; 0 for no checkpoints (default). Every checkpoint forces the output
+     * to the disk.
+     */
+    public void setCheckpointInterval(int checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * Prints the progress and the diagnostics to this stream instead of System.out.
+     */
+    public void setLog(PrintStream log) {
+        this.log = log;
+    }
+
+    public static File getCheckpointFile(File outputFile) {
+        return new File(outputFile.getPath() + CHECKPOINT_SUFFIX);
+    }
+
+    public Diagnostics getDiagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     * @return the number of records passed to the converters, including unchanged ones
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    public long getResourceCount() {
+        return resourceCount;
     }
 
     public void convertFiles() throws Exception {
-        Bundle bundle = new Bundle();
-        bundle.setType(Bundle.BundleType.TRANSACTION);
-
-        String[] files = inputDirectory.list();
-        if (files != null) {
-            for (String fileName : files) {
-                ConverterFactory factory = converterFactorys.get(fileName);
-                if (factory == null) {
-                    continue;
+        if (deleteVanished && (stateFile == null || ndjson)) {
+            throw new Exception("Deleting vanished rows needs a state file and bundle output!");
+        }
+        boolean checkpointable = streaming && uploadUrl == null && !gzip && !ndjson && maxEntries == 0
+                && maxBytes == 0;
+        if (resume && (!checkpointable || stateFile != null)) {
+            throw new Exception("Resuming needs an uncompressed streamed bundle as output and no state file!");
+        }
+        state = stateFile != null ? ConversionState.load(stateFile) : null;
+        checkpointing = checkpointable && checkpointInterval > 0;
+        File checkpointFile = checkpointable ? getCheckpointFile(outputFile) : null;
+        checkpoint = resume ? loadCheckpoint(checkpointFile) : null;
+        boolean resumed = checkpoint != null;
+        if (!resumed && checkpointing) {
+            checkpoint = new Checkpoint(compact);
+        }
+        ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        ResourceWriter writer = resumed ? resumeWriter() : createWriter();
+        try {
+            if (checkpoint != null) {
+                checkpointWriter = (StreamingBundleWriter) writer;
+            }
+            if (uploadUrl != null) {
+                log.println("Uploading to " + uploadUrl);
+            }
+            convertFiles(writer, executor);
+            if (deleteVanished) {
+                for (String reference : state.getVanishedReferences()) {
+                    writer.delete(reference);
                 }
-                File file = new File(inputDirectory.getPath(), fileName);
-                if (!file.exists() || file.isDirectory()) {
-                    continue;
+            }
+            if (checkPatients) {
+                log.println("Records of patients not in " + PERSON + ": " + orphanCounts);
+            }
+            log.println("Date cache: " + DateUtil.getDateCache());
+            log.println("Date time cache: " + DateUtil.getDateTimeCache());
+            writeDiagnostics();
+        } catch (Exception | Error e) {
+            // closing would complete the bundle, which then looks like the output of a successful run
+            try {
+                writer.abort();
+                if (state != null) {
+                    state.close();
                 }
-                try (Reader in = new FileReader(file)) {
-                    CSVParser records = csvFormat.parse(in);
-                    System.out.println("Start parsing File:" + fileName);
-                    if (isColumnMissing(records.getHeaderMap(), factory.getNeededColumnNames())) {
-                        throw new Exception("Error - File: " + fileName + " not convertable!");
-                    }
-                    for (CSVRecord record : records) {
-                        try {
-                            List<Resource> list = factory.create(record).convert();
-                            if (list != null) {
-                                for (Resource resource : list) {
-                                    if (resource != null) {
-                                        bundle.addEntry()
-                                                .setResource(resource)
-                                                .setRequest(getRequestComponent(resource));
-                                    }
-                                }
-                            }
-                        } catch (Exception e) {
-                            if (e.getMessage()==null) e.printStackTrace();
-                            else System.out.println(e.getMessage());
-                        }
+            } catch (IOException abortException) {
+                e.addSuppressed(abortException);
+            }
+            throw e;
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+        writer.close();
+        // only after the output is complete, so a failed run is repeated as a whole
+        if (state != null) {
+            log.println("Incremental: " + state);
+            state.save(stateFile);
+            state.close();
+        }
+        if (checkpoint != null) {
+            Files.deleteIfExists(checkpointFile.toPath());
+        }
+    }
+
+    private Checkpoint loadCheckpoint(File checkpointFile) throws Exception {
+        Checkpoint checkpoint = Checkpoint.load(checkpointFile);
+        if (checkpoint == null) {
+            log.println("No checkpoint " + checkpointFile + " found, converting all files");
+            return null;
+        }
+        if (checkpoint.isCompact() != compact || !outputFile.exists()) {
+            throw new Exception("Checkpoint " + checkpointFile + " does not belong to the output file!");
+        }
+        log.println("Resuming after " + checkpoint);
+        return checkpoint;
+    }
+
+    private ResourceWriter resumeWriter() throws IOException {
+        return StreamingBundleWriter.resume(ctx, outputFile, compact, checkpoint.getOffset(),
+                checkpoint.getEntryCount());
+    }
+
+    private void saveCheckpoint(String fileName, long recordNumber) throws IOException {
+        checkpoint.update(fileName, recordNumber, checkpointWriter.flush(), checkpointWriter.getEntryCount());
+        checkpoint.save(getCheckpointFile(outputFile));
+        recordsSinceCheckpoint = 0;
+    }
+
+    private void completeFile(String fileName, ResourceWriter writer) throws IOException {
+        writer.completeFile();
+        if (checkpointing) {
+            checkpoint.complete(fileName, checkpointWriter.flush(), checkpointWriter.getEntryCount());
+            checkpoint.save(getCheckpointFile(outputFile));
+            recordsSinceCheckpoint = 0;
+        }
+    }
+
+    private void writeDiagnostics() throws IOException {
+        log.println("Diagnostics: " + diagnostics);
+        if (diagnosticsFile != null) {
+            try (Writer out = Files.newBufferedWriter(diagnosticsFile.toPath(), StandardCharsets.UTF_8)) {
+                diagnostics.writeReport(out);
+            }
+        } else {
+            Writer out = new OutputStreamWriter(log, StandardCharsets.UTF_8);
+            diagnostics.writeReport(out);
+            out.flush();
+        }
+    }
+
+    private ResourceWriter createWriter() throws IOException {
+        if (uploadUrl != null) {
+            return new UploadWriter(ctx, uploadUrl, uploadBatchSize, uploadInFlight, uploadBatch);
+        } else if (ndjson) {
+            return new NdjsonWriter(ctx, outputFile, gzip);
+        } else if (maxEntries > 0 || maxBytes > 0) {
+            return new ChunkedBundleWriter(ctx, outputFile, maxEntries, maxBytes, compact, gzip);
+        } else if (streaming) {
+            return new StreamingBundleWriter(ctx, outputFile, compact, gzip);
+        } else {
+            return new BundleWriter(ctx, outputFile, compact, gzip);
+        }
+    }
+
+    private void convertFiles(ResourceWriter writer, ExecutorService executor) throws Exception {
+        List<String> fileNames = new ArrayList<>();
+        for (String fileName : source.getTableNames()) {
+            if (converterFactorys.containsKey(fileName)) {
+                fileNames.add(fileName);
+            }
+        }
+        List<String> indexedFiles = new ArrayList<>();
+        for (String fileName : INDEXED_FILES) {
+            if (fileNames.remove(fileName)) {
+                indexedFiles.add(fileName);
+            }
+        }
+        fileNames.addAll(0, indexedFiles);
+        if (state != null) {
+            fileNames.forEach(state::startFile);
+        }
+        if (checkpoint != null) {
+            fileNames.removeIf(checkpoint::isCompleted);
+            // the files are written in the order of the list, so only the first one can be started
+            resumeFileName = fileNames.isEmpty() ? null : fileNames.get(0);
+            resumeRecordNumber = fileNames.isEmpty() ? 0 : checkpoint.getRecordNumber(resumeFileName);
+        }
+        patients.clear();
+        encounters.clear();
+        orphanCounts.clear();
+        checkPatients = false;
+        for (String fileName : indexedFiles) {
+            if (fileNames.remove(fileName)) {
+                convertFile(fileName, result -> write(fileName, result, writer), getWrittenRecordNumber(fileName),
+                        executor);
+                completeFile(fileName, writer);
+            } else {
+                // completed by the resumed run, only indexed
+                convertFile(fileName, result -> {}, Long.MAX_VALUE, executor);
+            }
+            checkPatients |= orphans != Orphans.KEEP && fileName.equals(PERSON);
+            encounters.build();
+        }
+        log.println("Patients: " + patients.size() + ", encounter index: " + encounters);
+        if (parallelFiles && fileNames.size() > 1) {
+            convertFilesParallel(fileNames, writer, executor);
+        } else {
+            for (String fileName : fileNames) {
+                convertFile(fileName, result -> write(fileName, result, writer), getWrittenRecordNumber(fileName),
+                        executor);
+                completeFile(fileName, writer);
+            }
+        }
+    }
+
+    /**
+     * @return the number of the last record of the file in the output of the run resumed
+     */
+    private long getWrittenRecordNumber(String fileName) {
+        return fileName.equals(resumeFileName) ? resumeRecordNumber : 0;
+    }
+
+    /**
+     * Converts every file on its own task. The results are written in the order of the file names, so the
+     * output is the same as for a sequential conversion. Those of the first file are passed on as they
+     * arrive, running ahead by at most {@value #RESULTS_PER_FILE} results. The other files are converted
+     * into a {@link Spool} each, which is written when its turn comes, so no file waits for another.
+     * Memory is bounded by {@value #RESULTS_PER_FILE} results per file, the rest goes to the disk.
+     */
+    private void convertFilesParallel(List<String> fileNames, ResourceWriter writer, ExecutorService executor)
+            throws Exception {
+        ExecutorService fileExecutor = Executors.newFixedThreadPool(fileNames.size());
+        File spoolDirectory = Files.createTempDirectory("csv2fhir-spool").toFile();
+        try {
+            String first = fileNames.get(0);
+            BlockingQueue<Result> queue = new ArrayBlockingQueue<>(RESULTS_PER_FILE);
+            Future<?> firstFuture = fileExecutor.submit(() -> {
+                try {
+                    convertFile(first, queue::put, getWrittenRecordNumber(first), executor);
+                } finally {
+                    queue.put(END_OF_FILE);
+                }
+                return null;
+            });
+            List<Future<Spool>> spools = new ArrayList<>();
+            for (String fileName : fileNames.subList(1, fileNames.size())) {
+                spools.add(fileExecutor.submit(() -> {
+                    try (Spool spool = new Spool(spoolDirectory, fileName)) {
+                        convertFile(fileName, spool, getWrittenRecordNumber(fileName), executor);
+                        return spool;
                     }
+                }));
+            }
+            Result result;
+            while ((result = queue.take()) != END_OF_FILE) {
+                write(first, result, writer);
+            }
+            get(firstFuture);
+            completeFile(first, writer);
+            for (int i = 1; i < fileNames.size(); i++) {
+                String fileName = fileNames.get(i);
+                Spool spool = get(spools.get(i - 1));
+                spool.replay(spooled -> write(fileName, spooled, writer));
+                spool.delete();
+                completeFile(fileName, writer);
+            }
+        } finally {
+            // the interrupted tasks stop at their next result, as the spools refuse it
+            fileExecutor.shutdownNow();
+            fileExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            for (File file : spoolDirectory.listFiles()) {
+                Files.deleteIfExists(file.toPath());
+            }
+            Files.deleteIfExists(spoolDirectory.toPath());
+        }
+    }
+
+    /**
+     * @return the result of the task, or its exception
+     */
+    private static <T> T get(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * @param written the number of the last record already in the output; the records up to it are only
+     *                passed to {@link ConverterFactory#index(TableRow, ColumnIndex)}
+     */
+    private void convertFile(String fileName, ResultSink sink, long written, ExecutorService executor)
+            throws Exception {
+        FileConversion conversion = new FileConversion(fileName, sink, written, executor);
+        source.read(fileName, conversion);
+        conversion.finish();
+    }
+
+    /**
+     * Converts the rows of a file as they are pushed by the source. With an executor, the rows are fanned
+     * out to the workers in batches. While one batch is converted, the results of the previous one are
+     * passed on, so the output keeps the order of the input.
+     */
+    private class FileConversion implements TableSource.RowHandler {
+
+        private final String fileName;
+        private final ConverterFactory factory;
+        private final ResultSink sink;
+        private final long written;
+        private final ExecutorService executor;
+        private final int batchSize = threads * RECORDS_PER_TASK;
+        private ColumnIndex columns;
+        private int patientColumn;
+        private List<Future<Result[]>> pending = Collections.emptyList();
+        private List<TableRow> batch = new ArrayList<>();
+
+        FileConversion(String fileName, ResultSink sink, long written, ExecutorService executor) {
+            this.fileName = fileName;
+            this.factory = converterFactorys.get(fileName);
+            this.sink = sink;
+            this.written = written;
+            this.executor = executor;
+        }
+
+        @Override
+        public void start(Map<String, Integer> headerMap) throws Exception {
+            log.println("Start parsing File:" + fileName);
+            if (isColumnMissing(headerMap, factory.getNeededColumnNames())) {
+                throw new Exception("Error - File: " + fileName + " not convertable!");
+            }
+            columns = factory.bindColumns(headerMap);
+            patientColumn = columns.indexOf(PATIENT_ID);
+        }
+
+        @Override
+        public void row(TableRow row) throws Exception {
+            factory.index(row, columns);
+            if (row.getRecordNumber() <= written) {
+                return;
+            }
+            if (executor == null) {
+                sink.accept(convert(fileName, factory, row, columns, patientColumn));
+                return;
+            }
+            batch.add(row);
+            if (batch.size() == batchSize) {
+                List<Future<Result[]>> submitted = submit(fileName, batch, factory, columns, patientColumn, executor);
+                acceptAll(pending, sink);
+                pending = submitted;
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+
+        void finish() throws Exception {
+            if (executor != null) {
+                List<Future<Result[]>> submitted = submit(fileName, batch, factory, columns, patientColumn, executor);
+                acceptAll(pending, sink);
+                acceptAll(submitted, sink);
+            }
+        }
+    }
+
+    private List<Future<Result[]>> submit(String fileName, List<TableRow> batch, ConverterFactory factory,
+                                          ColumnIndex columns, int patientColumn, ExecutorService executor) {
+        List<Future<Result[]>> futures = new ArrayList<>();
+        for (int from = 0; from < batch.size(); from += RECORDS_PER_TASK) {
+            List<TableRow> slice = batch.subList(from, Math.min(from + RECORDS_PER_TASK, batch.size()));
+            futures.add(executor.submit(() -> {
+                Result[] results = new Result[slice.size()];
+                for (int i = 0; i < results.length; i++) {
+                    results[i] = convert(fileName, factory, slice.get(i), columns, patientColumn);
                 }
+                return results;
+            }));
+        }
+        return futures;
+    }
+
+    private static void acceptAll(List<Future<Result[]>> futures, ResultSink sink) throws Exception {
+        for (Future<Result[]> future : futures) {
+            for (Result result : future.get()) {
+                sink.accept(result);
             }
         }
-        ctx.newJsonParser().setPrettyPrint(true).encodeResourceToWriter(bundle, new FileWriter(outputFile));
+    }
+
+    /**
+     * @param patientColumn the index of the {@value #PATIENT_ID} column in the columns, or -1
+     */
+    private Result convert(String fileName, ConverterFactory factory, TableRow record, ColumnIndex columns,
+                           int patientColumn) {
+        long hash = 0;
+        if (state != null) {
+            hash = ConversionState.hash(record);
+            if (!INDEXED_FILES.contains(fileName)) {
+                // the row references an encounter of its patient, whose id changes with the Startdatum
+                String patientId = patientColumn >= 0 ? columns.get(record, patientColumn) : null;
+                hash = HashUtil.fnv1a(hash, encounters.getDigest(patientId));
+            }
+            if (state.isUnchanged(fileName, hash)) {
+                return new Result(record.getRecordNumber(), hash, null, null);
+            }
+        }
+        try {
+            Issue orphan = checkPatient(fileName, record, columns, patientColumn);
+            if (orphan != null && !orphan.isWarning()) {
+                return new Result(record.getRecordNumber(), hash, new ConversionResult().addIssue(orphan), null);
+            }
+            ConversionResult conversion = factory.create(record, columns).convertWithIssues();
+            if (orphan != null) {
+                conversion.addIssue(orphan);
+            }
+            return new Result(record.getRecordNumber(), hash, conversion, null);
+        } catch (Exception e) {
+            return new Result(record.getRecordNumber(), hash, null, e);
+        }
+    }
+
+    /**
+     * @return the issue if the patient of the record is not in Person.csv, otherwise null
+     */
+    private Issue checkPatient(String fileName, TableRow record, ColumnIndex columns, int patientColumn) {
+        if (!checkPatients || fileName.equals(PERSON)) {
+            return null;
+        }
+        String patientId = patientColumn >= 0 ? columns.get(record, patientColumn) : null;
+        if (patientId == null || patients.contains(patientId)) {
+            return null;
+        }
+        String description = "Patient-ID <" + patientId + "> is not in " + PERSON;
+        return orphans == Orphans.DROP
+                ? Issue.error(PATIENT_ID, Issue.Kind.UNKNOWN_PATIENT, "Error on " + fileName + ": " + description)
+                : Issue.warning(PATIENT_ID, Issue.Kind.UNKNOWN_PATIENT, "On " + fileName + ": " + description);
+    }
+
+    private void write(String fileName, Result result, ResourceWriter writer) throws IOException {
+        writeResult(fileName, result, writer);
+        if (checkpointing && ++recordsSinceCheckpoint >= checkpointInterval) {
+            saveCheckpoint(fileName, result.recordNumber);
+        }
+    }
+
+    private void writeResult(String fileName, Result result, ResourceWriter writer) throws IOException {
+        recordCount++;
+        if (result.error != null) {
+            diagnostics.error(fileName, result.recordNumber, result.error);
+            return;
+        }
+        if (result.conversion == null) {
+            state.keep(fileName, result.hash);
+            return;
+        }
+        for (Issue issue : result.conversion.getIssues()) {
+            diagnostics.report(fileName, result.recordNumber, issue);
+            if (issue.getKind() == Issue.Kind.UNKNOWN_PATIENT) {
+                orphanCounts.merge(fileName, 1L, Long::sum);
+            }
+        }
+        for (Resource resource : result.conversion.getResources()) {
+            if (resource == null) {
+                continue;
+            }
+            if (!writer.write(resource)) {
+                // a row repeated in the file, or a Versorgungsfall starting with another of the patient
+                diagnostics.report(fileName, result.recordNumber, Issue.warning(null, Issue.Kind.DUPLICATE,
+                        "On " + fileName + ": " + BundleWriter.getReference(resource)
+                                + " is already in the bundle for an earlier record"));
+                continue;
+            }
+            resourceCount++;
+        }
+        if (state != null && !result.conversion.hasErrors()) {
+            state.put(fileName, result.hash, result.conversion.getResources());
+        }
     }
 
     private boolean isColumnMissing(Map<String, Integer> map, String[] neededColls) {
         boolean b = !map.keySet().stream().map(String::trim).collect(Collectors.toSet()).containsAll(Arrays.asList(neededColls));
         if (b) {//Error message
             for (String s : neededColls) {
-                System.out.print(map.keySet().stream().map(String::trim).collect(Collectors.toSet()).contains(s) + " - '" + s + "' ");
+                log.print(map.keySet().stream().map(String::trim).collect(Collectors.toSet()).contains(s) + " - '" + s + "' ");
             }
-            System.out.println();
-            System.out.println(map.keySet().stream().map(String::trim).collect(Collectors.toSet()).toString());
+            log.println();
+            log.println(map.keySet().stream().map(String::trim).collect(Collectors.toSet()).toString());
         }
         return b;
     }
 
-    private Bundle.BundleEntryRequestComponent getRequestComponent(Resource resource) {
-        if (resource.getId() == null) {
-            return new Bundle.BundleEntryRequestComponent()
-                    .setMethod(Bundle.HTTPVerb.POST)
-                    .setUrl(resource.getResourceType().toString());
-        } else {
-            return new Bundle.BundleEntryRequestComponent()
-                    .setMethod(Bundle.HTTPVerb.PUT)
-                    .setUrl(resource.getResourceType() + "/" + resource.getId());
+    private interface ResultSink {
+        void accept(Result result) throws Exception;
+    }
+
+    /**
+     * The results of a file, written by one task and {@link #replay(ResultSink) replayed} by another after
+     * it is closed. The first {@value #RESULTS_PER_FILE} results are kept in memory, the others are
+     * serialized with their resources to a temporary file. Their errors are replaced by a
+     * {@link SpooledException}, as not every exception can be serialized.
+     */
+    private static class Spool implements ResultSink, Closeable {
+
+        private final File directory;
+        private final String fileName;
+        private final List<Result> buffered = new ArrayList<>();
+        private File file;
+        private ObjectOutputStream out;
+        private int unreset;
+
+        /**
+         * @param directory where the temporary file is created, named after the input file
+         */
+        Spool(File directory, String fileName) {
+            this.directory = directory;
+            this.fileName = fileName;
+        }
+
+        @Override
+        public void accept(Result result) throws IOException {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Spooling of " + fileName + " interrupted");
+            }
+            if (buffered.size() < RESULTS_PER_FILE) {
+                buffered.add(result);
+                return;
+            }
+            if (out == null) {
+                file = File.createTempFile(fileName + "-", ".spool", directory);
+                out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            }
+            out.writeObject(result.error == null ? result : new Result(result.recordNumber, result.hash,
+                    result.conversion, new SpooledException(result.error)));
+            // the stream keeps every object written to refer back to it, until it is reset
+            if (++unreset == RECORDS_PER_TASK) {
+                out.reset();
+                unreset = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (out != null) {
+                out.writeObject(null);
+                out.close();
+            }
+        }
+
+        void replay(ResultSink sink) throws Exception {
+            for (Result result : buffered) {
+                sink.accept(result);
+            }
+            if (file == null) {
+                return;
+            }
+            try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                Result result;
+                while ((result = (Result) in.readObject()) != null) {
+                    sink.accept(result);
+                }
+            }
+        }
+
+        void delete() throws IOException {
+            buffered.clear();
+            if (file != null) {
+                Files.delete(file.toPath());
+            }
         }
     }
-}
 
+    /**
+     * Stands in for an exception of a spooled result. It prints like the exception and its causes.
+     */
+    private static class SpooledException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String string;
+
+        SpooledException(Throwable e) {
+            super(e.getMessage(), e.getCause() != null ? new SpooledException(e.getCause()) : null);
+            this.string = e.toString();
+            setStackTrace(e.getStackTrace());
+        }
+
+        @Override
+        public String toString() {
+            return string;
+        }
+    }
+
+    private static class Result implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        final long recordNumber;
+        final long hash;
+        final ConversionResult conversion;
+        final Exception error;
+
+        /**
+         * @param conversion null without error if the row is unchanged since the last run
+         */
+        Result(long recordNumber, long hash, ConversionResult conversion, Exception error) {
+            this.recordNumber = recordNumber;
+            this.hash = hash;
+            this.conversion = conversion;
+            this.error = error;
+        }
+    }
+}
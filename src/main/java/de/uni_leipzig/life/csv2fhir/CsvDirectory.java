@@ -0,0 +1,58 @@
+package de.uni_leipzig.life.csv2fhir;
+
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The csv files of a directory, read as UTF-8 with {@link Csv2Fhir#CSV_FORMAT}.
+ */
+public class CsvDirectory implements TableSource {
+
+    private final File directory;
+
+    public CsvDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public List<String> getTableNames() {
+        List<String> tableNames = new ArrayList<>();
+        String[] files = directory.list();
+        if (files != null) {
+            for (String fileName : files) {
+                if (new File(directory, fileName).isFile()) {
+                    tableNames.add(fileName);
+                }
+            }
+        }
+        return tableNames;
+    }
+
+    @Override
+    public void read(String tableName, RowHandler handler) throws Exception {
+        try (Reader in = new InputStreamReader(new FileInputStream(getFile(tableName)), StandardCharsets.UTF_8)) {
+            CSVParser records = Csv2Fhir.CSV_FORMAT.parse(in);
+            handler.start(records.getHeaderMap());
+            for (CSVRecord record : records) {
+                handler.row(new CsvRow(record));
+            }
+        }
+    }
+
+    protected File getFile(String tableName) {
+        return new File(directory, tableName);
+    }
+
+    @Override
+    public String toString() {
+        return directory.getPath();
+    }
+}
@@ -0,0 +1,35 @@
+package de.uni_leipzig.life.csv2fhir;
+
+import org.apache.commons.csv.CSVRecord;
+
+/**
+ * A record of a csv file read with {@link Csv2Fhir#CSV_FORMAT}.
+ */
+public class CsvRow implements TableRow {
+
+    private final CSVRecord record;
+
+    public CsvRow(CSVRecord record) {
+        this.record = record;
+    }
+
+    @Override
+    public long getRecordNumber() {
+        return record.getRecordNumber();
+    }
+
+    @Override
+    public int size() {
+        return record.size();
+    }
+
+    @Override
+    public String get(int index) {
+        return record.get(index);
+    }
+
+    @Override
+    public String toString() {
+        return record.toString();
+    }
+}
@@ -0,0 +1,140 @@
+package de.uni_leipzig.life.csv2fhir;
+
+import de.uni_leipzig.life.csv2fhir.utils.JsonUtil;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Collects the problems of a conversion, grouped by file, column and kind. Every group keeps a counter,
+ * the first description and the numbers of the first few records, so the report stays small however
+ * dirty the input is.
+ */
+public class Diagnostics {
+
+    private static final int MAX_SAMPLES = 10;
+
+    private final Map<Key, Group> groups = new LinkedHashMap<>();
+    private long errorCount;
+    private long warningCount;
+
+    public synchronized void report(String fileName, long recordNumber, Issue issue) {
+        if (issue.isWarning()) {
+            warningCount++;
+        } else {
+            errorCount++;
+        }
+        add(fileName, issue.getColumn(), issue.getKind(), issue.isWarning(), issue.getDescription(), recordNumber);
+    }
+
+    /**
+     * Counts an exception that was not expected by the converter, like a bug on an unusual value. The
+     * stack trace of the first one of a group is kept to locate it.
+     */
+    public synchronized void error(String fileName, long recordNumber, Exception e) {
+        errorCount++;
+        Group group = add(fileName, null, Issue.Kind.UNEXPECTED, false, e.toString(), recordNumber);
+        if (group.stackTrace == null) {
+            StringWriter stackTrace = new StringWriter();
+            e.printStackTrace(new PrintWriter(stackTrace));
+            group.stackTrace = stackTrace.toString();
+        }
+    }
+
+    public synchronized long getErrorCount() {
+        return errorCount;
+    }
+
+    public synchronized long getWarningCount() {
+        return warningCount;
+    }
+
+    private Group add(String fileName, String column, Issue.Kind kind, boolean warning,
+                      String description, long recordNumber) {
+        Group group = groups.computeIfAbsent(new Key(fileName, column, kind, warning), key -> new Group(description));
+        group.count++;
+        if (group.samples.size() < MAX_SAMPLES) {
+            group.samples.add(recordNumber);
+        }
+        return group;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return errorCount + " errors and " + warningCount + " warnings in " + groups.size() + " groups";
+    }
+
+    /**
+     * Writes the counters and the groups as json, the groups in the order they first occurred.
+     */
+    public synchronized void writeReport(Writer out) throws IOException {
+        out.write("{\n  \"errors\": " + errorCount + ",\n  \"warnings\": " + warningCount + ",\n  \"groups\": [");
+        String separator = "\n";
+        for (Map.Entry<Key, Group> entry : groups.entrySet()) {
+            Key key = entry.getKey();
+            Group group = entry.getValue();
+            out.write(separator);
+            out.write("    {\n      \"file\": \"" + JsonUtil.escape(key.fileName) + "\",\n");
+            if (key.column != null) {
+                out.write("      \"column\": \"" + JsonUtil.escape(key.column) + "\",\n");
+            }
+            out.write("      \"kind\": \"" + key.kind + "\",\n");
+            out.write("      \"severity\": \"" + (key.warning ? "warning" : "error") + "\",\n");
+            out.write("      \"count\": " + group.count + ",\n");
+            out.write("      \"description\": \"" + JsonUtil.escape(group.description) + "\",\n");
+            if (group.stackTrace != null) {
+                out.write("      \"stackTrace\": \"" + JsonUtil.escape(group.stackTrace) + "\",\n");
+            }
+            out.write("      \"records\": " + group.samples + "\n    }");
+            separator = ",\n";
+        }
+        out.write(groups.isEmpty() ? "]\n}\n" : "\n  ]\n}\n");
+    }
+
+    private static final class Key {
+        final String fileName;
+        final String column;
+        final Issue.Kind kind;
+        final boolean warning;
+
+        Key(String fileName, String column, Issue.Kind kind, boolean warning) {
+            this.fileName = fileName;
+            this.column = column;
+            this.kind = kind;
+            this.warning = warning;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return fileName.equals(key.fileName) && Objects.equals(column, key.column) && kind == key.kind
+                    && warning == key.warning;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fileName, column, kind, warning);
+        }
+    }
+
+    private static final class Group {
+        final String description;
+        final List<Long> samples = new ArrayList<>();
+        long count;
+        String stackTrace;
+
+        Group(String description) {
+            this.description = description;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package de.uni_leipzig.life.csv2fhir;
+
+import de.uni_leipzig.life.csv2fhir.utils.HashUtil;
+import org.hl7.fhir.r4.model.BaseDateTimeType;
+import org.hl7.fhir.r4.model.Reference;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The encounters of every patient as intervals sorted by their start, so the rows of other files can
+ * reference the encounter of their timestamp. The intervals are kept in primitive arrays, the UUID ids
+ * of the encounters as two longs.
+ * <p>
+ * A lookup is a binary search followed by a backward scan over the intervals starting before the time,
+ * which stops as soon as none of the earlier intervals ends at or after it. That is O(log n) for
+ * encounters which do not overlap, but O(n) in the worst case, like one long encounter followed by many
+ * short ones. A patient has few encounters, so no interval tree is used.
+ * <p>
+ * The index is filled by one thread with {@link #add(String, long, long, String)} and must be
+ * {@link #build() built} before it is read; after that it may be read by any number of threads.
+ */
+public class EncounterIndex {
+
+    private static final long[] NO_LONGS = new long[0];
+
+    private Map<String, Intervals> patients = new HashMap<>();
+    private boolean built = true;
+
+    /**
+     * Adds the encounter of the patient from start to end, both inclusive, in milliseconds.
+     *
+     * @param encounterId a UUID
+     */
+    public void add(String patientId, long start, long end, String encounterId) {
+        UUID id = UUID.fromString(encounterId);
+        patients.computeIfAbsent(patientId, key -> new Intervals(HashUtil.fnv1a(key)))
+                .add(start, end, id.getMostSignificantBits(), id.getLeastSignificantBits());
+        built = false;
+    }
+
+    /**
+     * Sorts the encounters of every patient.
+     */
+    public void build() {
+        patients.values().forEach(Intervals::build);
+        built = true;
+    }
+
+    public void clear() {
+        patients = new HashMap<>();
+        built = true;
+    }
+
+    /**
+     * @return the reference to the encounter of the patient with the latest start among those
+     * containing the time, or null if there is none
+     */
+    public Reference getReference(String patientId, BaseDateTimeType time) {
+        if (!built) {
+            throw new IllegalStateException("The encounter index is not built");
+        }
+        if (patientId == null || time == null || time.getValue() == null) {
+            return null;
+        }
+        Intervals intervals = patients.get(patientId);
+        if (intervals == null) {
+            return null;
+        }
+        int i = intervals.find(time.getValue().getTime());
+        return i >= 0
+                ? new Reference("Encounter/" + new UUID(intervals.idMsbs[i], intervals.idLsbs[i]))
+                : null;
+    }
+
+    /**
+     * @return a hash of the encounters of the patient, independent of the order they were added in, so
+     * rows referencing them can be converted again when they change; 0 if the patient has none
+     */
+    public long getDigest(String patientId) {
+        Intervals intervals = patientId != null ? patients.get(patientId) : null;
+        return intervals != null ? intervals.digest : 0;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Intervals intervals : patients.values()) {
+            size += intervals.size;
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return size() + " encounters of " + patients.size() + " patients";
+    }
+
+    private static class Intervals {
+        long[] starts = NO_LONGS;
+        long[] ends = NO_LONGS;
+        long[] idMsbs = NO_LONGS;
+        long[] idLsbs = NO_LONGS;
+        // the latest end of the intervals up to an index, so the search can stop going back
+        long[] maxEnds = NO_LONGS;
+        int size;
+        final long patientHash;
+        // the sum of the hashes of the intervals
+        long digest;
+
+        Intervals(long patientHash) {
+            this.patientHash = patientHash;
+        }
+
+        void add(long start, long end, long idMsb, long idLsb) {
+            if (size == starts.length) {
+                int capacity = Math.max(4, size * 2);
+                starts = Arrays.copyOf(starts, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+                idMsbs = Arrays.copyOf(idMsbs, capacity);
+                idLsbs = Arrays.copyOf(idLsbs, capacity);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            idMsbs[size] = idMsb;
+            idLsbs[size] = idLsb;
+            size++;
+            digest += HashUtil.fnv1a(HashUtil.fnv1a(HashUtil.fnv1a(HashUtil.fnv1a(patientHash, start), end),
+                    idMsb), idLsb);
+        }
+
+        void build() {
+            boolean sorted = true;
+            for (int i = 1; i < size && sorted; i++) {
+                sorted = starts[i - 1] <= starts[i];
+            }
+            if (!sorted) {
+                Integer[] order = new Integer[size];
+                for (int i = 0; i < size; i++) {
+                    order[i] = i;
+                }
+                Arrays.sort(order, (a, b) -> Long.compare(starts[a], starts[b]));
+                starts = reorder(starts, order);
+                ends = reorder(ends, order);
+                idMsbs = reorder(idMsbs, order);
+                idLsbs = reorder(idLsbs, order);
+            }
+            maxEnds = new long[size];
+            for (int i = 0; i < size; i++) {
+                maxEnds[i] = i == 0 ? ends[0] : Math.max(maxEnds[i - 1], ends[i]);
+            }
+        }
+
+        /**
+         * Searches the last interval starting at or before the time, then goes back while the latest end
+         * of the intervals up to there reaches the time.
+         *
+         * @return the index of the interval with the latest start containing the time, -1 if there is none
+         */
+        int find(long time) {
+            int low = 0;
+            int high = size - 1;
+            // the last interval starting at or before the time
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (starts[mid] <= time) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            for (int i = high; i >= 0 && maxEnds[i] >= time; i--) {
+                if (ends[i] >= time) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private static long[] reorder(long[] values, Integer[] order) {
+            long[] reordered = new long[order.length];
+            for (int i = 0; i < order.length; i++) {
+                reordered[i] = values[order[i]];
+            }
+            return reordered;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package de.uni_leipzig.life.csv2fhir;
+
+import de.uni_leipzig.life.csv2fhir.utils.HashUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.ToLongFunction;
+
+/**
+ * An exact set of ids, kept in arrays of primitives instead of the strings and entries of a hash set. The
+ * ids are appended to one byte array as UTF-8, an open addressing table holds their 64 bit hashes and
+ * positions. The hash only picks the candidates, an id is found only if its bytes equal those of a known
+ * one, so ids with the same hash are told apart.
+ * <p>
+ * An id of n bytes takes n bytes in the array, 4 bytes for its end and 24 to 48 bytes in the table, so a
+ * million ids of 10 chars take about 50 MB, half of a hash set of strings.
+ * <p>
+ * The set is filled by one thread and read by any number of threads after that.
+ */
+public class IdSet {
+
+    // marks a free slot of the table, the positions are stored plus one
+    private static final int FREE = 0;
+
+    private final ToLongFunction<String> hashFunction;
+    private long[] hashes = new long[16];
+    private int[] positions = new int[16];
+    private byte[] bytes = new byte[256];
+    // the end of every id in the bytes, an id starts at the end of the previous one
+    private int[] ends = new int[16];
+    private int size;
+
+    public IdSet() {
+        this(HashUtil::fnv1a);
+    }
+
+    /**
+     * @param hashFunction the hash of the ids, only replaced to test ids with the same hash
+     */
+    IdSet(ToLongFunction<String> hashFunction) {
+        this.hashFunction = hashFunction;
+    }
+
+    /**
+     * @return false if the id is already in the set
+     */
+    public boolean add(String id) {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        long hash = hashFunction.applyAsLong(id);
+        int mask = positions.length - 1;
+        int i = slot(hash, mask);
+        for (; positions[i] != FREE; i = (i + 1) & mask) {
+            if (hashes[i] == hash && equals(positions[i] - 1, idBytes)) {
+                return false;
+            }
+        }
+        append(idBytes);
+        hashes[i] = hash;
+        positions[i] = size;
+        if (size * 2 > positions.length) {
+            grow();
+        }
+        return true;
+    }
+
+    public boolean contains(String id) {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        long hash = hashFunction.applyAsLong(id);
+        int mask = positions.length - 1;
+        for (int i = slot(hash, mask); positions[i] != FREE; i = (i + 1) & mask) {
+            if (hashes[i] == hash && equals(positions[i] - 1, idBytes)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        hashes = new long[16];
+        positions = new int[16];
+        bytes = new byte[256];
+        ends = new int[16];
+        size = 0;
+    }
+
+    private boolean equals(int position, byte[] idBytes) {
+        int start = position == 0 ? 0 : ends[position - 1];
+        return Arrays.equals(bytes, start, ends[position], idBytes, 0, idBytes.length);
+    }
+
+    /**
+     * Appends the bytes of the id as the id at the position {@link #size}, which is incremented.
+     */
+    private void append(byte[] idBytes) {
+        int start = size == 0 ? 0 : ends[size - 1];
+        int end = Math.addExact(start, idBytes.length);
+        if (end > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(end, (int) Math.min(bytes.length * 2L, Integer.MAX_VALUE - 8)));
+        }
+        System.arraycopy(idBytes, 0, bytes, start, idBytes.length);
+        if (size == ends.length) {
+            ends = Arrays.copyOf(ends, ends.length * 2);
+        }
+        ends[size++] = end;
+    }
+
+    private void grow() {
+        long[] grownHashes = new long[hashes.length * 2];
+        int[] grownPositions = new int[positions.length * 2];
+        int mask = grownPositions.length - 1;
+        for (int j = 0; j < positions.length; j++) {
+            if (positions[j] != FREE) {
+                int i = slot(hashes[j], mask);
+                while (grownPositions[i] != FREE) {
+                    i = (i + 1) & mask;
+                }
+                grownHashes[i] = hashes[j];
+                grownPositions[i] = positions[j];
+            }
+        }
+        hashes = grownHashes;
+        positions = grownPositions;
+    }
+
+    private static int slot(long hash, int mask) {
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,55 @@
+package de.uni_leipzig.life.csv2fhir;
+
+import java.io.Serializable;
+
+/**
+ * A problem with a value of a record. Errors prevent the conversion of the record, warnings do not.
+ */
+public final class Issue implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Kind {
+        EMPTY, INVALID_DATE, NOT_NUMERIC, INVALID_VALUE, UNKNOWN_UNIT, UNKNOWN_PATIENT, DUPLICATE, UNEXPECTED
+    }
+
+    private final boolean warning;
+    private final String column;
+    private final Kind kind;
+    private final String description;
+
+    /**
+     * @param column      the name of the column with the value or null if the problem is not tied to one
+     * @param description the problem, like "Error on Patient: Patient-ID empty"
+     */
+    private Issue(boolean warning, String column, Kind kind, String description) {
+        this.warning = warning;
+        this.column = column;
+        this.kind = kind;
+        this.description = description;
+    }
+
+    public static Issue error(String column, Kind kind, String description) {
+        return new Issue(false, column, kind, description);
+    }
+
+    public static Issue warning(String column, Kind kind, String description) {
+        return new Issue(true, column, kind, description);
+    }
+
+    public boolean isWarning() {
+        return warning;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
@@ -3,6 +3,7 @@ package de.uni_leipzig.life.csv2fhir;
 import picocli.CommandLine;
 
 import java.io.File;
+import java.net.URI;
 import java.util.concurrent.Callable;
 
 @CommandLine.Command(name = "csv2fhir", mixinStandardHelpOptions = true, version = "1.0",
@@ -12,10 +13,90 @@ public class Main implements Callable<Integer> {
             description = "supply the input Directory here")
     File inputDirectory;
 
-    @CommandLine.Option(names = {"-o", "--output-file"}, required = true, paramLabel = "OUTPUT-FILE",
-            description = "supply the output File here")
+    @CommandLine.Option(names = {"-o", "--output-file"}, paramLabel = "OUTPUT-FILE",
+            description = "supply the output File here (the output directory for --ndjson)")
     File outputFile;
 
+    @CommandLine.Option(names = {"-s", "--streaming"},
+            description = "write every bundle entry as soon as it is converted instead of building the bundle in memory")
+    boolean streaming;
+
+    @CommandLine.Option(names = {"-t", "--threads"}, paramLabel = "THREADS", defaultValue = "1",
+            description = "number of worker threads converting the records of a file (default: ${DEFAULT-VALUE})")
+    int threads;
+
+    @CommandLine.Option(names = {"-p", "--parallel-files"},
+            description = "convert the csv files of the input directory concurrently; every file waiting for its"
+                    + " turn in the output holds up to 4096 converted records in memory and spools the rest to"
+                    + " a temporary file, which only pays off with a core per file")
+    boolean parallelFiles;
+
+    @CommandLine.Option(names = {"--nio-reader"},
+            description = "read the csv files from memory mapped buffers, decoding only the values that are converted")
+    boolean nioReader;
+
+    @CommandLine.Option(names = {"--max-entries"}, paramLabel = "ENTRIES", defaultValue = "0",
+            description = "start a new bundle file after this many entries (default: no limit)")
+    int maxEntries;
+
+    @CommandLine.Option(names = {"--max-bytes"}, paramLabel = "BYTES", defaultValue = "0",
+            description = "start a new bundle file before it grows beyond this many uncompressed bytes (default: no limit)")
+    long maxBytes;
+
+    @CommandLine.Option(names = {"--ndjson"},
+            description = "write one newline delimited json file per resource type instead of a bundle")
+    boolean ndjson;
+
+    @CommandLine.Option(names = {"-c", "--compact"}, description = "write json without indentation")
+    boolean compact;
+
+    @CommandLine.Option(names = {"-z", "--gzip"}, description = "compress the output files with gzip")
+    boolean gzip;
+
+    @CommandLine.Option(names = {"-d", "--diagnostics"}, paramLabel = "REPORT-FILE",
+            description = "write the json report of the conversion errors to this file instead of printing it")
+    File diagnosticsFile;
+
+    @CommandLine.Option(names = {"--state"}, paramLabel = "STATE-FILE",
+            description = "convert only rows that are new or changed since the run that saved this state file")
+    File stateFile;
+
+    @CommandLine.Option(names = {"--delete-vanished"},
+            description = "with --state, write delete requests for the resources of vanished rows")
+    boolean deleteVanished;
+
+    @CommandLine.Option(names = {"--orphans"}, paramLabel = "HANDLING", defaultValue = "KEEP",
+            description = "records of patients not in Person.csv: ${COMPLETION-CANDIDATES} (default: ${DEFAULT-VALUE});"
+                    + " FLAG and DROP report them")
+    Csv2Fhir.Orphans orphans;
+
+    @CommandLine.Option(names = {"-u", "--upload"}, paramLabel = "FHIR-BASE-URL",
+            description = "post the entries to this FHIR server while converting instead of writing an output file")
+    URI uploadUrl;
+
+    @CommandLine.Option(names = {"--upload-batch-size"}, paramLabel = "ENTRIES", defaultValue = "500",
+            description = "entries per bundle posted to the server (default: ${DEFAULT-VALUE})")
+    int uploadBatchSize;
+
+    @CommandLine.Option(names = {"--upload-in-flight"}, paramLabel = "REQUESTS", defaultValue = "4",
+            description = "bundles of a csv file posted to the server at the same time; the next file starts"
+                    + " once all are answered (default: ${DEFAULT-VALUE})")
+    int uploadInFlight;
+
+    @CommandLine.Option(names = {"--upload-as-batch"},
+            description = "post batch bundles, whose entries succeed or fail on their own, instead of transactions")
+    boolean uploadBatch;
+
+    @CommandLine.Option(names = {"--resume"},
+            description = "continue an aborted --streaming run after the last checkpoint next to the output file,"
+                    + " saved with --checkpoint-interval")
+    boolean resume;
+
+    @CommandLine.Option(names = {"--checkpoint-interval"}, paramLabel = "RECORDS",
+            description = "with --streaming, save a checkpoint after this many records and every file, forcing"
+                    + " the output to disk (default: no checkpoints)")
+    Integer checkpointInterval;
+
     public static void main(String[] args) {
         CommandLine cmd = new CommandLine(new Main())
                 .setExecutionExceptionHandler(new PrintExceptionMessageHandler());
@@ -25,8 +106,38 @@ public class Main implements Callable<Integer> {
 
     @Override
     public Integer call() throws Exception {
+        if (outputFile == null && uploadUrl == null) {
+            throw new Exception("provide an output File or an upload url!");
+        }
+        if (uploadBatchSize < 1 || uploadInFlight < 1) {
+            throw new Exception("upload batch size and bundles in flight must be at least 1!");
+        }
+        if (checkpointInterval != null && checkpointInterval < 1) {
+            throw new Exception("checkpoint interval must be at least 1!");
+        }
         if (inputDirectory.isDirectory()) {
-            Csv2Fhir converter = new Csv2Fhir(inputDirectory, outputFile);
+            TableSource source = nioReader ? new MappedCsvDirectory(inputDirectory) : new CsvDirectory(inputDirectory);
+            Csv2Fhir converter = new Csv2Fhir(source, outputFile);
+            converter.setStreaming(streaming);
+            converter.setThreads(threads);
+            converter.setParallelFiles(parallelFiles);
+            converter.setMaxEntries(maxEntries);
+            converter.setMaxBytes(maxBytes);
+            converter.setNdjson(ndjson);
+            converter.setCompact(compact);
+            converter.setGzip(gzip);
+            converter.setDiagnosticsFile(diagnosticsFile);
+            converter.setStateFile(stateFile);
+            converter.setDeleteVanished(deleteVanished);
+            converter.setOrphans(orphans);
+            converter.setUploadUrl(uploadUrl);
+            converter.setUploadBatchSize(uploadBatchSize);
+            converter.setUploadInFlight(uploadInFlight);
+            converter.setUploadBatch(uploadBatch);
+            converter.setResume(resume);
+            if (checkpointInterval != null) {
+                converter.setCheckpointInterval(checkpointInterval);
+            }
             converter.convertFiles();
         } else {
             throw new Exception("provided input Directory is NOT a directory!");
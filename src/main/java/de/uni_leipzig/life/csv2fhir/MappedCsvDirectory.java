@@ -0,0 +1,380 @@
+package de.uni_leipzig.life.csv2fhir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The csv files of a directory, read from memory mapped buffers instead of a Reader. The tokenizer only
+ * records where the fields of a row are; a value is decoded from UTF-8 when it is first asked for, so the
+ * columns no converter reads are never turned into strings.
+ * <p>
+ * The rows have the values of {@link Csv2Fhir#CSV_FORMAT}: fields may be quoted with doubled quotes
+ * inside, whitespace around a field is ignored, empty values are null and empty lines are skipped.
+ * A file is mapped in windows of up to 1 GB, so a single record must be shorter than that.
+ */
+public class MappedCsvDirectory extends CsvDirectory {
+
+    private static final int WINDOW_SIZE = 1 << 30;
+
+    private final int windowSize;
+
+    public MappedCsvDirectory(File directory) {
+        this(directory, WINDOW_SIZE);
+    }
+
+    MappedCsvDirectory(File directory, int windowSize) {
+        super(directory);
+        this.windowSize = windowSize;
+    }
+
+    @Override
+    public void read(String tableName, RowHandler handler) throws Exception {
+        File file = getFile(tableName);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            new Tokenizer(file, channel, windowSize).read(handler);
+        }
+    }
+
+    private static class Tokenizer {
+
+        private static final byte DELIMITER = ',';
+        private static final byte QUOTE = '"';
+        private static final byte CR = '\r';
+        private static final byte LF = '\n';
+        // results of readRecord besides the position after the record
+        private static final int END = -1;
+        private static final int MORE = -2;
+
+        private final File file;
+        private final FileChannel channel;
+        private final long size;
+        private final int windowSize;
+        private ByteBuffer window;
+        private long windowStart;
+        private int limit;
+        private boolean last;
+
+        private int[] bounds = new int[32];
+        private byte[] kinds = new byte[16];
+        private int fields;
+        private long recordNumber;
+
+        Tokenizer(File file, FileChannel channel, int windowSize) throws IOException {
+            this.file = file;
+            this.channel = channel;
+            this.size = channel.size();
+            this.windowSize = windowSize;
+        }
+
+        void read(RowHandler handler) throws Exception {
+            map(0);
+            Map<String, Integer> headerMap = null;
+            int pos = 0;
+            while (true) {
+                int next = readRecord(pos);
+                if (next == MORE) {
+                    if (pos == 0) {
+                        throw new IOException("A record of " + file + " is longer than " + windowSize + " bytes");
+                    }
+                    map(windowStart + pos);
+                    pos = 0;
+                    continue;
+                }
+                if (next == END) {
+                    break;
+                }
+                MappedRow row = new MappedRow(window, ++recordNumber, Arrays.copyOf(bounds, 2 * fields),
+                        Arrays.copyOf(kinds, fields));
+                if (headerMap == null) {
+                    headerMap = new LinkedHashMap<>();
+                    for (int i = 0; i < row.size(); i++) {
+                        String name = row.get(i);
+                        if (name != null) {
+                            headerMap.put(name, i);
+                        }
+                    }
+                    handler.start(headerMap);
+                    recordNumber = 0;
+                } else {
+                    handler.row(row);
+                }
+                pos = next;
+            }
+            if (headerMap == null) {
+                handler.start(new LinkedHashMap<>());
+            }
+        }
+
+        private void map(long start) throws IOException {
+            windowStart = start;
+            limit = (int) Math.min(windowSize, size - start);
+            last = start + limit == size;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, limit);
+        }
+
+        /**
+         * Reads the fields of the record at the position.
+         *
+         * @return the position after the record, END if there is none or MORE if it does not end in the window
+         */
+        private int readRecord(int pos) throws IOException {
+            fields = 0;
+            while (pos < limit && (window.get(pos) == LF || window.get(pos) == CR)) {
+                pos++;
+            }
+            if (pos == limit) {
+                return last ? END : MORE;
+            }
+            while (true) {
+                int whitespace;
+                while ((whitespace = whitespace(pos)) > 0) {
+                    pos += whitespace;
+                }
+                if (whitespace == MORE) {
+                    return MORE;
+                }
+                if (pos == limit) {
+                    if (!last) {
+                        return MORE;
+                    }
+                    addField(pos, pos, MappedRow.SIMPLE);
+                    return pos;
+                }
+                byte b = window.get(pos);
+                if (b == DELIMITER) {
+                    addField(pos, pos, MappedRow.SIMPLE);
+                    pos++;
+                    continue;
+                } else if (b == CR || b == LF) {
+                    addField(pos, pos, MappedRow.SIMPLE);
+                    return endOfLine(pos);
+                } else if (b == QUOTE) {
+                    pos = readQuoted(pos + 1);
+                    if (pos < 0) {
+                        return pos;
+                    }
+                } else {
+                    int start = pos;
+                    while (pos < limit && (b = window.get(pos)) != DELIMITER && b != CR && b != LF) {
+                        pos++;
+                    }
+                    if (pos == limit && !last) {
+                        return MORE;
+                    }
+                    addField(start, pos, MappedRow.SIMPLE);
+                }
+                if (pos == limit) {
+                    return pos;
+                } else if (window.get(pos) == DELIMITER) {
+                    pos++;
+                } else {
+                    return endOfLine(pos);
+                }
+            }
+        }
+
+        /**
+         * Reads a quoted field and the whitespace after it.
+         *
+         * @param pos the position after the opening quote
+         * @return the position of the delimiter, the line break or the end of the file after the field, or MORE
+         */
+        private int readQuoted(int pos) throws IOException {
+            int start = pos;
+            byte kind = MappedRow.QUOTED;
+            while (true) {
+                if (pos == limit) {
+                    if (last) {
+                        throw new IOException(file + ": EOF reached before the quoted value at byte "
+                                + (windowStart + start - 1) + " finished");
+                    }
+                    return MORE;
+                }
+                if (window.get(pos) == QUOTE) {
+                    if (pos + 1 == limit && !last) {
+                        return MORE;
+                    } else if (pos + 1 < limit && window.get(pos + 1) == QUOTE) {
+                        kind = MappedRow.ESCAPED;
+                        pos += 2;
+                        continue;
+                    }
+                    break;
+                }
+                pos++;
+            }
+            addField(start, pos, kind);
+            pos++;
+            while (pos < limit) {
+                byte b = window.get(pos);
+                if (b == DELIMITER || b == CR || b == LF) {
+                    return pos;
+                }
+                int whitespace = whitespace(pos);
+                if (whitespace == MORE) {
+                    return MORE;
+                } else if (whitespace == 0) {
+                    throw new IOException(file + ": invalid char between the quoted value and the delimiter at byte "
+                            + (windowStart + pos));
+                }
+                pos += whitespace;
+            }
+            return last ? pos : MORE;
+        }
+
+        /**
+         * @return the position after the line break, a CR LF is one line break
+         */
+        private int endOfLine(int pos) {
+            if (window.get(pos) == CR) {
+                if (pos + 1 == limit) {
+                    return last ? pos + 1 : MORE;
+                } else if (window.get(pos + 1) == LF) {
+                    return pos + 2;
+                }
+            }
+            return pos + 1;
+        }
+
+        /**
+         * @return the length of the UTF-8 sequence at the position if it is a whitespace other than a line
+         * break, 0 if it is none and MORE if the window ends inside the sequence
+         */
+        private int whitespace(int pos) {
+            if (pos == limit) {
+                return 0;
+            }
+            int b = window.get(pos) & 0xff;
+            if (b < 0x80) {
+                return b != CR && b != LF && Character.isWhitespace(b) ? 1 : 0;
+            }
+            // the whitespace outside of ASCII, like U+3000, has two or three bytes
+            int length = b >= 0xe0 ? 3 : 2;
+            if (b < 0xc2 || b >= 0xf0) {
+                return 0;
+            } else if (pos + length > limit) {
+                return last ? 0 : MORE;
+            }
+            int codePoint = length == 2 ? b & 0x1f : b & 0x0f;
+            for (int i = 1; i < length; i++) {
+                int next = window.get(pos + i) & 0xff;
+                if ((next & 0xc0) != 0x80) {
+                    return 0;
+                }
+                codePoint = codePoint << 6 | next & 0x3f;
+            }
+            return Character.isWhitespace(codePoint) ? length : 0;
+        }
+
+        private void addField(int start, int end, byte kind) {
+            if (fields == kinds.length) {
+                kinds = Arrays.copyOf(kinds, fields * 2);
+                bounds = Arrays.copyOf(bounds, fields * 4);
+            }
+            bounds[2 * fields] = start;
+            bounds[2 * fields + 1] = end;
+            kinds[fields++] = kind;
+        }
+    }
+
+    /**
+     * A record whose values are decoded from the mapped window when they are read. Rows may be read by any
+     * thread, the window is only read with absolute positions.
+     */
+    private static final class MappedRow implements TableRow {
+
+        static final byte SIMPLE = 0;
+        static final byte QUOTED = 1;
+        // quoted with doubled quotes inside
+        static final byte ESCAPED = 2;
+
+        private final ByteBuffer window;
+        private final long recordNumber;
+        private final int[] bounds;
+        private final byte[] kinds;
+        private String[] values;
+
+        MappedRow(ByteBuffer window, long recordNumber, int[] bounds, byte[] kinds) {
+            this.window = window;
+            this.recordNumber = recordNumber;
+            this.bounds = bounds;
+            this.kinds = kinds;
+        }
+
+        @Override
+        public long getRecordNumber() {
+            return recordNumber;
+        }
+
+        @Override
+        public int size() {
+            return kinds.length;
+        }
+
+        @Override
+        public String get(int index) {
+            if (values == null) {
+                values = new String[kinds.length];
+            }
+            String value = values[index];
+            if (value == null) {
+                value = decode(index);
+                values[index] = value;
+            }
+            return value;
+        }
+
+        private String decode(int index) {
+            int start = bounds[2 * index];
+            int end = bounds[2 * index + 1];
+            // String.trim removes these from the values of CSVParser
+            while (start < end && (window.get(start) & 0xff) <= ' ') {
+                start++;
+            }
+            if (start == end) {
+                return null;
+            }
+            int lastByte = window.get(end - 1) & 0xff;
+            if (kinds[index] != ESCAPED && lastByte > ' ' && lastByte < 0x80) {
+                return decode(start, end);
+            }
+            String value = decode(start, end);
+            if (kinds[index] == SIMPLE) {
+                // the lexer strips trailing whitespace from unquoted values before they are trimmed
+                int length = value.length();
+                while (length > 0 && Character.isWhitespace(value.charAt(length - 1))) {
+                    length--;
+                }
+                value = value.substring(0, length);
+            } else if (kinds[index] == ESCAPED) {
+                value = value.replace("\"\"", "\"");
+            }
+            value = value.trim();
+            return value.isEmpty() ? null : value;
+        }
+
+        private String decode(int start, int end) {
+            ByteBuffer slice = window.duplicate();
+            slice.position(start).limit(end);
+            byte[] bytes = new byte[end - start];
+            slice.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String toString() {
+            String[] all = new String[kinds.length];
+            for (int i = 0; i < all.length; i++) {
+                all[i] = get(i);
+            }
+            // like CSVRecord, so the messages do not depend on the reader
+            return "CSVRecord [comment='null', recordNumber=" + recordNumber + ", values=" + Arrays.toString(all) + "]";
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package de.uni_leipzig.life.csv2fhir;
+
+/**
+ * A row of an input table, a record of a csv file or a row of a sheet, with the values trimmed and
+ * empty values as null.
+ */
+public interface TableRow {
+
+    /**
+     * @return the number of the row, starting with 1 for the first row after the header
+     */
+    long getRecordNumber();
+
+    int size();
+
+    String get(int index);
+}
@@ -0,0 +1,29 @@
+package de.uni_leipzig.life.csv2fhir;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The input tables of a conversion, named like the csv files the converters are registered for. A
+ * table is pushed row by row to a {@link RowHandler}, so sources that parse their input as a stream
+ * need not keep it in memory. Different tables may be read at the same time by different threads.
+ */
+public interface TableSource {
+
+    List<String> getTableNames() throws IOException;
+
+    void read(String tableName, RowHandler handler) throws Exception;
+
+    interface RowHandler {
+
+        /**
+         * Called once before the rows.
+         *
+         * @param headerMap column name to index
+         */
+        void start(Map<String, Integer> headerMap) throws Exception;
+
+        void row(TableRow row) throws Exception;
+    }
+}
@@ -3,11 +3,15 @@ package de.uni_leipzig.life.csv2fhir;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Ucum {
     private static Map<String, String> ucumMap = new HashMap<>();
     private static Map<String, String> humanMap = new HashMap<>();
 
+    private static final int MAX_CACHED_UNITS = 1 << 12;
+    private static final Map<String, Unit> units = new ConcurrentHashMap<>();
+
     // http://download.hl7.de/documents/ucum/ucumdata.html
     // Mapping from "Valid UCUM Code to Common Synonym (non-UCUM) 
     static {
@@ -89,44 +93,108 @@ public class Ucum {
         //		humanMap.put("ml","mL");
         //		humanMap.put("Jahre","a");
     }
+    /**
+     * Resolves a unit as found in the csv files to its ucum code and display text. The result is cached,
+     * so a known unit costs a single map lookup. Unlike {@link #human2ucum(String)} nothing is printed for
+     * an unknown unit; the caller checks {@link Unit#isKnown()}.
+     */
+    public static Unit resolve(String unit) {
+        Unit resolved = units.get(unit);
+        if (resolved == null) {
+            resolved = isUcum(unit) ? new Unit(unit, ucum2human(unit), null) : fromHuman(unit);
+            if (units.size() < MAX_CACHED_UNITS) {
+                units.putIfAbsent(unit, resolved);
+            }
+        }
+        return resolved;
+    }
+
     public static boolean isUcum(String ucum) {
-        String[] uArr = ucum.split("/",-1);
-        if (ucum == null || ucum.isBlank()) return false;
-        for (String u : uArr) {
-            String h = ucumMap.get(u);
-            if (h == null) {
+        if (ucum.isBlank()) return false;
+        for (int from = 0; from <= ucum.length(); ) {
+            int to = end(ucum, from);
+            if (!ucumMap.containsKey(ucum.substring(from, to))) {
                 return false;
             }
+            from = to + 1;
         }
-        return true;		
+        return true;
     }
+
     public static String ucum2human(String ucum) {
-        String[] uArr = ucum.split("/",-1);
-        String human="";
-        for (String u : uArr) {
+        StringBuilder human = new StringBuilder();
+        for (int from = 0; from <= ucum.length(); ) {
+            int to = end(ucum, from);
+            String u = ucum.substring(from, to);
             String h = ucumMap.get(u);
             if (h == null) {
                 System.out.println("unknown ucum unit <" + u + "> in " + ucum + "; error ignored");
                 h = u;
             }
-            if (!human.isEmpty()) human +="/";
-            human += h;
+            if (human.length() > 0) human.append('/');
+            human.append(h);
+            from = to + 1;
         }
-        return human;
+        return human.toString();
     }
+
     public static String human2ucum(String human) {
-        String[] hArr = human.split("/",-1);
-        String ucum = "";
-        for (String h : hArr) {
+        Unit unit = fromHuman(human);
+        if (unit.warning != null) {
+            System.out.println(unit.warning);
+        }
+        return unit.code;
+    }
+
+    private static Unit fromHuman(String human) {
+        StringBuilder ucum = new StringBuilder();
+        for (int from = 0; from <= human.length(); ) {
+            int to = end(human, from);
+            String h = human.substring(from, to);
             String u = humanMap.get(h);
             if (u == null) {
-                System.out.println("unknown human readable unit <" + h + "> in " + human +"; ucum will be empty");
-                return "";
+                return new Unit("", human,
+                        "unknown human readable unit <" + h + "> in " + human + "; ucum will be empty");
             }
+            if (ucum.length() > 0) ucum.append('/');
+            ucum.append(u);
+            from = to + 1;
+        }
+        return new Unit(ucum.toString(), human, null);
+    }
+
+    /**
+     * @return the end of the part of the unit starting at from, which is the next '/' or the end of the unit
+     */
+    private static int end(String unit, int from) {
+        int slash = unit.indexOf('/', from);
+        return slash < 0 ? unit.length() : slash;
+    }
+
+    /**
+     * A unit resolved to its ucum code, which is empty if the unit is unknown, and its display text.
+     */
+    public static final class Unit {
+        private final String code;
+        private final String display;
+        private final String warning;
+
+        private Unit(String code, String display, String warning) {
+            this.code = code;
+            this.display = display;
+            this.warning = warning;
+        }
+
+        public String getCode() {
+            return code;
+        }
+
+        public String getDisplay() {
+            return display;
+        }
 
-            if (!ucum.isEmpty()) ucum +="/";
-            ucum += u;
+        public boolean isKnown() {
+            return warning == null;
         }
-        return ucum;
     }
 }
@@ -1,10 +1,16 @@
 package de.uni_leipzig.life.csv2fhir.converter;
 
+import de.uni_leipzig.life.csv2fhir.ColumnIndex;
+import de.uni_leipzig.life.csv2fhir.ConversionException;
 import de.uni_leipzig.life.csv2fhir.Converter;
+import de.uni_leipzig.life.csv2fhir.EncounterIndex;
+import de.uni_leipzig.life.csv2fhir.Issue;
+import de.uni_leipzig.life.csv2fhir.TableRow;
 import de.uni_leipzig.life.csv2fhir.utils.DateUtil;
-import org.apache.commons.csv.CSVRecord;
+import de.uni_leipzig.life.csv2fhir.utils.IdUtil;
 import org.hl7.fhir.r4.model.CodeableConcept;
 import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.DateTimeType;
 import org.hl7.fhir.r4.model.Encounter;
 import org.hl7.fhir.r4.model.Period;
 import org.hl7.fhir.r4.model.Reference;
@@ -15,57 +21,84 @@ import java.util.List;
 
 public class AbteilungsfallConverter implements Converter {
 
-    private final CSVRecord record;
+    // positions in the column names of the AbteilungsfallConverterFactory
+    private static final int PATIENT_ID = 0;
+    private static final int STARTDATUM = 1;
+    private static final int ENDDATUM = 2;
+    private static final int FACHABTEILUNG = 3;
 
-    public AbteilungsfallConverter(CSVRecord record) {
+    private final TableRow record;
+    private final ColumnIndex columns;
+    private final EncounterIndex encounters;
+
+    public AbteilungsfallConverter(TableRow record, ColumnIndex columns, EncounterIndex encounters) {
         this.record = record;
+        this.columns = columns;
+        this.encounters = encounters;
     }
 
     @Override
     public List<Resource> convert() throws Exception {
         Encounter encounter = new Encounter();
+        encounter.setId(convertId());
         // TODO encounter.setIdentifier(null);
         encounter.setStatus(Encounter.EncounterStatus.FINISHED);//TODO
         // TODO encounter.setClass_(null);
         encounter.setServiceType(convertServiceType());
         encounter.setSubject(convertSubject());
-        encounter.setPeriod(convertPeriod());
+        Period period = convertPeriod();
+        encounter.setPeriod(period);
+        encounter.setPartOf(encounters.getReference(get(PATIENT_ID), period.getStartElement()));
         // TODO encounter.setDiagnosis(null);
         // TODO encounter.addLocation(null);
         return Collections.singletonList(encounter);
     }
 
     private CodeableConcept convertServiceType() throws Exception {
-        String code = record.get("Fachabteilung");
+        String code = get(FACHABTEILUNG);
         if (code != null) {
             return new CodeableConcept().addCoding(new Coding()
                     .setSystem("https://www.medizininformatik-initiative.de/fhir/core/CodeSystem/Fachabteilungsschluessel")
                     .setCode(code))
                     .setText(code);
         } else {
-            throw new Exception("Error on Abteilungsfall: Fachabteilung empty for Record: "
-                    + record.getRecordNumber() + "! " + record.toString());
+            throw error(FACHABTEILUNG, Issue.Kind.EMPTY, "Error on Abteilungsfall: Fachabteilung empty");
         }
     }
 
     private Reference convertSubject() throws Exception {
-        String patientId = record.get("Patient-ID");
+        String patientId = get(PATIENT_ID);
         if (patientId != null) {
             return new Reference().setReference("Patient/" + patientId);
         } else {
-            throw new Exception("Error on Abteilungsfall: Patient-ID empty for Record: "
-                    + record.getRecordNumber() + "!" + record.toString());
+            throw error(PATIENT_ID, Issue.Kind.EMPTY, "Error on Abteilungsfall: Patient-ID empty");
         }
     }
 
     private Period convertPeriod() throws Exception {
+        return new Period()
+                .setStartElement(parseDateTime(STARTDATUM))
+                .setEndElement(parseDateTime(ENDDATUM));
+    }
+
+    private DateTimeType parseDateTime(int column) throws Exception {
         try {
-            return new Period()
-                    .setStartElement(DateUtil.parseDateTimeType(record.get("Startdatum")))
-                    .setEndElement(DateUtil.parseDateTimeType(record.get("Enddatum")));
+            return DateUtil.parseDateTimeType(get(column));
         } catch (Exception e) {
-            throw new Exception("Error on Abteilungsfall: Can not parse Startdatum or Enddatum for Record: "
-                    + record.getRecordNumber() + "! " + record.toString());
+            throw error(column, Issue.Kind.INVALID_DATE,
+                    "Error on Abteilungsfall: Can not parse Startdatum or Enddatum");
         }
     }
+
+    private String convertId() {
+        return IdUtil.nameBasedId("Abteilungsfall", columns.getAll(record));
+    }
+
+    private String get(int column) {
+        return columns.get(record, column);
+    }
+
+    private ConversionException error(int column, Issue.Kind kind, String description) {
+        return new ConversionException(Issue.error(columns.getName(column), kind, description), record);
+    }
 }
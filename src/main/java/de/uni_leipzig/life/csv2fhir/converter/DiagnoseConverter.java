@@ -1,8 +1,13 @@
 package de.uni_leipzig.life.csv2fhir.converter;
 
+import de.uni_leipzig.life.csv2fhir.ColumnIndex;
+import de.uni_leipzig.life.csv2fhir.ConversionException;
 import de.uni_leipzig.life.csv2fhir.Converter;
+import de.uni_leipzig.life.csv2fhir.EncounterIndex;
+import de.uni_leipzig.life.csv2fhir.Issue;
+import de.uni_leipzig.life.csv2fhir.TableRow;
 import de.uni_leipzig.life.csv2fhir.utils.DateUtil;
-import org.apache.commons.csv.CSVRecord;
+import de.uni_leipzig.life.csv2fhir.utils.IdUtil;
 import org.hl7.fhir.r4.model.CodeableConcept;
 import org.hl7.fhir.r4.model.Coding;
 import org.hl7.fhir.r4.model.Condition;
@@ -15,66 +20,89 @@ import java.util.List;
 
 public class DiagnoseConverter implements Converter {
 
-    private final CSVRecord record;
+    // positions in the column names of the DiagnoseConverterFactory
+    private static final int PATIENT_ID = 0;
+    private static final int BEZEICHNER = 1;
+    private static final int ICD = 2;
+    private static final int DOKUMENTATIONSDATUM = 3;
+    private static final int TYP = 4;
 
-    public DiagnoseConverter(CSVRecord record) {
+    private final TableRow record;
+    private final ColumnIndex columns;
+    private final EncounterIndex encounters;
+
+    public DiagnoseConverter(TableRow record, ColumnIndex columns, EncounterIndex encounters) {
         this.record = record;
+        this.columns = columns;
+        this.encounters = encounters;
     }
 
     @Override
     public List<Resource> convert() throws Exception {
         Condition condition = new Condition();
+        condition.setId(convertId());
         condition.addCategory(convertCategory());
         condition.setCode(convertProcedureCode());
         condition.setSubject(convertSubject());
-        condition.setRecordedDateElement(convertRecordedDate());
+        DateTimeType recordedDate = convertRecordedDate();
+        condition.setRecordedDateElement(recordedDate);
+        condition.setEncounter(encounters.getReference(get(PATIENT_ID), recordedDate));
         return Collections.singletonList(condition);
     }
 
     private CodeableConcept convertCategory() throws Exception {
-        String code = record.get("Typ");
+        String code = get(TYP);
         if (code != null) {
             return new CodeableConcept().setText(code);
         } else {
-            throw new Exception("Error on Diagnose: Typ empty for Record: "
-                    + record.getRecordNumber() + "!" + record.toString());
+            throw error(TYP, Issue.Kind.EMPTY, "Error on Diagnose: Typ empty");
         }
     }
 
     private CodeableConcept convertProcedureCode() throws Exception {
         return new CodeableConcept()
                 .addCoding(getCoding())
-                .setText(record.get("Bezeichner"));
+                .setText(get(BEZEICHNER));
     }
 
     private Coding getCoding() throws Exception {
-        String code = record.get("ICD");
+        String code = get(ICD);
         if (code != null) {
             return new Coding()
                     .setSystem("http://fhir.de/CodeSystem/dimdi/icd-10-gm")
                     .setCode(code);
         } else {
-            throw new Exception("Error on Diagnose: ICD empty for Record: "
-                    + record.getRecordNumber() + "!" + record.toString());
+            throw error(ICD, Issue.Kind.EMPTY, "Error on Diagnose: ICD empty");
         }
     }
 
     private Reference convertSubject() throws Exception {
-        String patientId = record.get("Patient-ID");
+        String patientId = get(PATIENT_ID);
         if (patientId != null) {
             return new Reference().setReference("Patient/" + patientId);
         } else {
-            throw new Exception("Error on Diagnose: Patient-ID empty for Record: "
-                    + record.getRecordNumber() + "!" + record.toString());
+            throw error(PATIENT_ID, Issue.Kind.EMPTY, "Error on Diagnose: Patient-ID empty");
         }
     }
 
     private DateTimeType convertRecordedDate() throws Exception {
         try {
-            return DateUtil.parseDateTimeType(record.get("Dokumentationsdatum"));
+            return DateUtil.parseDateTimeType(get(DOKUMENTATIONSDATUM));
         } catch (Exception e) {
-            throw new Exception("Error on Diagnose: Can not parse Dokumentationsdatum for Record: "
-                    + record.getRecordNumber() + "! " + record.toString());
+            throw error(DOKUMENTATIONSDATUM, Issue.Kind.INVALID_DATE,
+                    "Error on Diagnose: Can not parse Dokumentationsdatum");
         }
     }
+
+    private String convertId() {
+        return IdUtil.nameBasedId("Diagnose", columns.getAll(record));
+    }
+
+    private String get(int column) {
+        return columns.get(record, column);
+    }
+
+    private ConversionException error(int column, Issue.Kind kind, String description) {
+        return new ConversionException(Issue.error(columns.getName(column), kind, description), record);
+    }
 }
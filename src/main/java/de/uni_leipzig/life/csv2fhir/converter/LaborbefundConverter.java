@@ -1,12 +1,17 @@
 package de.uni_leipzig.life.csv2fhir.converter;
 
+import de.uni_leipzig.life.csv2fhir.ColumnIndex;
+import de.uni_leipzig.life.csv2fhir.ConversionResult;
 import de.uni_leipzig.life.csv2fhir.Converter;
+import de.uni_leipzig.life.csv2fhir.EncounterIndex;
+import de.uni_leipzig.life.csv2fhir.Issue;
+import de.uni_leipzig.life.csv2fhir.TableRow;
 import de.uni_leipzig.life.csv2fhir.Ucum;
 import de.uni_leipzig.life.csv2fhir.utils.DateUtil;
+import de.uni_leipzig.life.csv2fhir.utils.IdUtil;
 import de.uni_leipzig.life.csv2fhir.utils.DecimalUtil;
 
 import org.apache.commons.collections4.iterators.AbstractUntypedIteratorDecorator;
-import org.apache.commons.csv.CSVRecord;
 import org.hl7.fhir.r4.model.CodeableConcept;
 import org.hl7.fhir.r4.model.Coding;
 import org.hl7.fhir.r4.model.DateTimeType;
@@ -25,87 +30,117 @@ import java.util.List;
 
 public class LaborbefundConverter implements Converter {
 
-	private final CSVRecord record;
+	// positions in the column names of the LaborbefundConverterFactory
+	private static final int PATIENT_ID = 0;
+	private static final int LOINC = 1;
+	private static final int PARAMETER = 2;
+	private static final int MESSWERT = 3;
+	private static final int EINHEIT = 4;
+	private static final int ZEITSTEMPEL = 5;
 
-	public LaborbefundConverter(CSVRecord record) {
+	private final TableRow record;
+	private final ColumnIndex columns;
+	private final EncounterIndex encounters;
+	private final ConversionResult result = new ConversionResult();
+
+	public LaborbefundConverter(TableRow record, ColumnIndex columns, EncounterIndex encounters) {
 		this.record = record;
+		this.columns = columns;
+		this.encounters = encounters;
 	}
 
 	@Override
 	public List<Resource> convert() throws Exception {
+		return convertWithIssues().getResourcesOrThrow(record);
+	}
+
+	@Override
+	public ConversionResult convertWithIssues() {
 		Observation observation = new Observation();
+		observation.setId(parseObservationId());
 		//TODO observation.setIdentifier(new ArrayList<>());
 		observation.setStatus(Observation.ObservationStatus.FINAL);
 		//TODO observation.setCategory(new ArrayList<>());
 		observation.setCode(parseObservationCode());
 		observation.setSubject(parseObservationPatientId());
-		observation.setEffective(parseObservationTimestamp());
+		DateTimeType effective = parseObservationTimestamp();
+		observation.setEffective(effective);
+		observation.setEncounter(encounters.getReference(get(PATIENT_ID), effective));
 		observation.setValue(parseObservationValue());
-		return Collections.singletonList(observation);
+		return result.setResources(Collections.singletonList(observation));
 	}
 
-	private CodeableConcept parseObservationCode() throws Exception {
-		String code = record.get("LOINC");
+	private CodeableConcept parseObservationCode() {
+		String code = get(LOINC);
 		if (code != null) {
 			return new CodeableConcept().addCoding(new Coding()
 					.setSystem("http://loinc.org")
 					.setCode(code))
-					.setText(record.get("Parameter"));
+					.setText(get(PARAMETER));
 		} else {
-			throw new Exception("Error on Observation: LOINC empty for Record: "
-					+ record.getRecordNumber() + "! " + record.toString());
+			return error(LOINC, Issue.Kind.EMPTY, "Error on Observation: LOINC empty");
 		}
 	}
 
-	private Reference parseObservationPatientId() throws Exception {
-		String patientId = record.get("Patient-ID");
+	private Reference parseObservationPatientId() {
+		String patientId = get(PATIENT_ID);
 		if (patientId != null) {
 			return new Reference().setReference("Patient/" + patientId);
 		} else {
-			throw new Exception("Error on Observation: Patient-ID empty for Record: "
-					+ record.getRecordNumber() + "! " + record.toString());
+			return error(PATIENT_ID, Issue.Kind.EMPTY, "Error on Observation: Patient-ID empty");
 		}
 	}
 
-	private DateTimeType parseObservationTimestamp() throws Exception {
-		String timestamp = record.get("Zeitstempel (Abnahme)");
+	private DateTimeType parseObservationTimestamp() {
+		String timestamp = get(ZEITSTEMPEL);
 		if (timestamp != null) {
 			try {
 				return DateUtil.parseDateTimeType(timestamp);
 			} catch (Exception eYear) {
-				throw new Exception("Error on Observation: Can not parse Zeitstempel for Record: "
-						+ record.getRecordNumber() + "! " + record.toString());
+				return error(ZEITSTEMPEL, Issue.Kind.INVALID_DATE, "Error on Observation: Can not parse Zeitstempel");
 			}
 		} else {
-			throw new Exception("Error on Observation: Zeitstempel (Abnahme) empty for Record: "
-					+ record.getRecordNumber() + "! " + record.toString());
+			return error(ZEITSTEMPEL, Issue.Kind.EMPTY, "Error on Observation: Zeitstempel (Abnahme) empty");
 		}
 	}
 
-	private Quantity parseObservationValue() throws Exception {
+	private Quantity parseObservationValue() {
 		BigDecimal messwert;
 		try {
-			messwert = DecimalUtil.parseDecimal(record.get("Messwert"));
+			messwert = DecimalUtil.parseDecimal(get(MESSWERT));
 		} catch (Exception e) {
-			throw new Exception("Error on Observation: Messwert is not a numerical value for Record: "
-					+ record.getRecordNumber() + "! " + record.toString());
+			return error(MESSWERT, Issue.Kind.NOT_NUMERIC, "Error on Observation: Messwert is not a numerical value");
 		}
-		String unit = record.get("Einheit");
+		String unit = get(EINHEIT);
 		if (unit == null || unit.isEmpty()) {
-			throw new Exception("Error on Observation: Einheit is empty for Record: "
-					+ record.getRecordNumber() + "! " + record.toString());
+			return error(EINHEIT, Issue.Kind.EMPTY, "Error on Observation: Einheit is empty");
 		}
 
-		String ucum,synonym;
-		if (Ucum.isUcum(unit)) {
-			ucum = unit;
-			synonym = Ucum.ucum2human(unit); 
-		} else  {
-			ucum = Ucum.human2ucum(unit);
-			synonym = unit;
+		Ucum.Unit resolved = Ucum.resolve(unit);
+		if (!resolved.isKnown()) {
+			warning(EINHEIT, Issue.Kind.UNKNOWN_UNIT, "On Observation: Einheit <" + unit + "> is no known unit");
 		}
+		String ucum = resolved.getCode();
+		String synonym = resolved.getDisplay();
 		if (ucum.isEmpty())
 			return new Quantity().setValue(messwert).setUnit(synonym);
 		return new Quantity().setValue(messwert).setSystem("http://unitsofmeasure.org").setCode(ucum).setUnit(synonym);
 	}
+
+	private String parseObservationId() {
+		return IdUtil.nameBasedId("Laborbefund", columns.getAll(record));
+	}
+
+	private String get(int column) {
+		return columns.get(record, column);
+	}
+
+	private <T> T error(int column, Issue.Kind kind, String description) {
+		result.addIssue(Issue.error(columns.getName(column), kind, description));
+		return null;
+	}
+
+	private void warning(int column, Issue.Kind kind, String description) {
+		result.addIssue(Issue.warning(columns.getName(column), kind, description));
+	}
 }
@@ -1,10 +1,15 @@
 package de.uni_leipzig.life.csv2fhir.converter;
 
+import de.uni_leipzig.life.csv2fhir.ColumnIndex;
+import de.uni_leipzig.life.csv2fhir.ConversionResult;
 import de.uni_leipzig.life.csv2fhir.Converter;
+import de.uni_leipzig.life.csv2fhir.EncounterIndex;
+import de.uni_leipzig.life.csv2fhir.Issue;
+import de.uni_leipzig.life.csv2fhir.TableRow;
 import de.uni_leipzig.life.csv2fhir.Ucum;
 import de.uni_leipzig.life.csv2fhir.utils.DateUtil;
 import de.uni_leipzig.life.csv2fhir.utils.DecimalUtil;
-import org.apache.commons.csv.CSVRecord;
+import de.uni_leipzig.life.csv2fhir.utils.IdUtil;
 import org.hl7.fhir.r4.model.CodeableConcept;
 import org.hl7.fhir.r4.model.Coding;
 import org.hl7.fhir.r4.model.DateTimeType;
@@ -26,27 +31,55 @@ import static org.hl7.fhir.r4.model.MedicationStatement.MedicationStatementStatu
 
 public class MedikationConverter implements Converter {
 
-    private final CSVRecord record;
+    // positions in the column names of the MedikationConverterFactory
+    private static final int PATIENT_ID = 0;
+    private static final int ZEITSTEMPEL = 1;
+    private static final int RESOURCENTYP = 2;
+    private static final int ATC_CODE = 3;
+    private static final int PZN_CODE = 4;
+    private static final int USER_SELECTED = 5;
+    private static final int DOSEN_PRO_TAG = 6;
+    private static final int THERAPIESTARTDATUM = 7;
+    private static final int THERAPIEENDEDATUM = 8;
+    private static final int EINZELDOSIS = 9;
+    private static final int EINHEIT = 10;
+    private static final int WIRKSUBSTANZ = 11;
+    private static final int ASK = 12;
 
-    public MedikationConverter(CSVRecord record) {
+    private final TableRow record;
+    private final ColumnIndex columns;
+    private final EncounterIndex encounters;
+    private final ConversionResult result = new ConversionResult();
+
+    public MedikationConverter(TableRow record, ColumnIndex columns, EncounterIndex encounters) {
         this.record = record;
+        this.columns = columns;
+        this.encounters = encounters;
     }
 
     @Override
     public List<Resource> convert() throws Exception {
-        if ("Administration".equals(record.get("FHIR_Resourcentyp"))) {
-            return Collections.singletonList(convertMedicationAdministration());
+        return convertWithIssues().getResourcesOrThrow(record);
+    }
+
+    @Override
+    public ConversionResult convertWithIssues() {
+        if ("Administration".equals(get(RESOURCENTYP))) {
+            return result.setResources(Collections.singletonList(convertMedicationAdministration()));
         } else {
-            return Collections.singletonList(parseMedicationStatement());
+            return result.setResources(Collections.singletonList(parseMedicationStatement()));
         }
     }
 
-    private MedicationAdministration convertMedicationAdministration() throws Exception {
+    private MedicationAdministration convertMedicationAdministration() {
         MedicationAdministration medicationAdministration = new MedicationAdministration();
+        medicationAdministration.setId(convertId());
         medicationAdministration.setStatus("completed");
         medicationAdministration.setMedication(convertMedicationCodeableConcept());
         medicationAdministration.setSubject(convertSubject());
-        medicationAdministration.setEffective(convertPeriod());
+        Period period = convertPeriod();
+        medicationAdministration.setEffective(period);
+        medicationAdministration.setContext(encounters.getReference(get(PATIENT_ID), period.getStartElement()));
         medicationAdministration.setDosage(convertDosageComponent());
         return medicationAdministration;
     }
@@ -56,81 +89,86 @@ public class MedikationConverter implements Converter {
         concept.addCoding(getATCCoding());
         concept.addCoding(getPZNCoding());
         concept.addCoding(getASKCoding());
-        concept.setText(record.get("Wirksubstanz aus Präparat/Handelsname"));
+        concept.setText(get(WIRKSUBSTANZ));
         return concept;
     }
 
     private Coding getATCCoding() {
-        String atc = record.get("ATC Code");
+        String atc = get(ATC_CODE);
         if (atc != null) {
             return new Coding()
                     .setSystem("http://fhir.de/CodeSystem/dimdi/atc")
                     .setCode(atc)
-                    .setUserSelected("ATC".equals(record.get("FHIR_UserSelected")));
+                    .setUserSelected("ATC".equals(get(USER_SELECTED)));
         } else {
             return null;
         }
     }
 
     private Coding getPZNCoding() {
-        String pzn = record.get("PZN Code");
+        String pzn = get(PZN_CODE);
         if (pzn != null) {
             return new Coding()
                     .setSystem("http://fhir.de/CodeSystem/ifa/pzn")
                     .setCode(pzn)
-                    .setUserSelected("PZN".equals(record.get("FHIR_UserSelected")));
+                    .setUserSelected("PZN".equals(get(USER_SELECTED)));
         } else {
             return null;
         }
     }
 
     private Coding getASKCoding() {
-        String ask = record.get("ASK");
+        String ask = get(ASK);
         if (ask != null) {
             return new Coding()
                     .setSystem("http://fhir.de/CodeSystem/ask")
                     .setCode(ask)
-                    .setUserSelected("ASK".equals(record.get("FHIR_UserSelected")));
+                    .setUserSelected("ASK".equals(get(USER_SELECTED)));
         } else {
             return null;
         }
     }
 
-    private Reference convertSubject() throws Exception {
-        String patientId = record.get("Patient-ID");
+    private Reference convertSubject() {
+        String patientId = get(PATIENT_ID);
         if (patientId != null) {
             return new Reference().setReference("Patient/" + patientId);
         } else {
-            throw new Exception("Error on Medication: Patient-ID empty for Record: "
-                    + record.getRecordNumber() + "!" + record.toString());
+            return error(PATIENT_ID, Issue.Kind.EMPTY, "Error on Medication: Patient-ID empty");
         }
     }
 
-    private Period convertPeriod() throws Exception {
+    private Period convertPeriod() {
+        Period  p = new Period().setStartElement(parseTherapyDate(THERAPIESTARTDATUM));
+        String end = get(THERAPIEENDEDATUM);
+        if (end != null && !end.isBlank()) {
+            p.setEndElement(parseTherapyDate(THERAPIEENDEDATUM));
+        }
+        return p;
+    }
+
+    private DateTimeType parseTherapyDate(int column) {
         try {
-            Period  p = new Period().setStartElement(DateUtil.parseDateTimeType(record.get("Therapiestartdatum")));
-            String end = record.get("Therapieendedatum");
-            if (end != null && !end.isBlank()) {
-                p.setEndElement(DateUtil.parseDateTimeType(end));
-            }
-            return p;
+            return DateUtil.parseDateTimeType(get(column));
         } catch (Exception e) {
-            throw new Exception("Error on Medication: Can not parse Therapiestartdatum or Therapieendedatum for Record: "
-                    + record.getRecordNumber() + "! " + record.toString());
+            return error(column, Issue.Kind.INVALID_DATE,
+                    "Error on Medication: Can not parse Therapiestartdatum or Therapieendedatum");
         }
     }
 
-    private MedicationAdministration.MedicationAdministrationDosageComponent convertDosageComponent() throws Exception {
+    private MedicationAdministration.MedicationAdministrationDosageComponent convertDosageComponent() {
         return new MedicationAdministration.MedicationAdministrationDosageComponent()
                 .setRate(getDoseRate());
     }
 
-    private Ratio getDoseRate() throws Exception {
-        String unit = record.get("Einheit");
+    private Ratio getDoseRate() {
+        String unit = get(EINHEIT);
         if (unit != null) {
+            BigDecimal dosesPerDay = getDosesPerDay();
+            BigDecimal dose = getDose();
             return new Ratio()
                     .setNumerator(new Quantity()
-                            .setValue(getDosesPerDay().multiply(getDose()))
+                            .setValue(dosesPerDay != null && dose != null ? dosesPerDay.multiply(dose) : null)
                             .setUnit(unit)
                             .setSystem("http://unitsofmeasure.org")
                             .setCode(unit))
@@ -140,59 +178,61 @@ public class MedikationConverter implements Converter {
                             .setSystem("http://unitsofmeasure.org")
                             .setCode("d"));
         } else {
-            throw new Exception("Error on Medication: Einheit empty for Record: "
-                    + record.getRecordNumber() + "! " + record.toString());
+            return error(EINHEIT, Issue.Kind.EMPTY, "Error on Medication: Einheit empty");
         }
     }
 
-    private BigDecimal getDosesPerDay() throws Exception {
+    private BigDecimal getDosesPerDay() {
         try {
-            return DecimalUtil.parseDecimal(record.get("Anzahl Dosen pro Tag"));
+            return DecimalUtil.parseDecimal(get(DOSEN_PRO_TAG));
         } catch (Exception e) {
-            throw new Exception("Error on Medication: Anzahl Dosen pro Tag is not a numerical value for Record: "
-                    + record.getRecordNumber() + "! " + record.toString());
+            return error(DOSEN_PRO_TAG, Issue.Kind.NOT_NUMERIC,
+                    "Error on Medication: Anzahl Dosen pro Tag is not a numerical value");
         }
     }
 
-    private BigDecimal getDose() throws Exception {
+    private BigDecimal getDose() {
         try {
-            return DecimalUtil.parseDecimal(record.get("Einzeldosis"));
+            return DecimalUtil.parseDecimal(get(EINZELDOSIS));
         } catch (Exception e) {
-            throw new Exception("Error on Medication: Einzeldosis is not a numerical value for Record: "
-                    + record.getRecordNumber() + "! " + record.toString());
+            return error(EINZELDOSIS, Issue.Kind.NOT_NUMERIC,
+                    "Error on Medication: Einzeldosis is not a numerical value");
         }
     }
 
-    private MedicationStatement parseMedicationStatement() throws Exception {
+    private MedicationStatement parseMedicationStatement() {
         MedicationStatement medicationStatement = new MedicationStatement();
+        medicationStatement.setId(convertId());
         medicationStatement.setStatus(ACTIVE);
         medicationStatement.setMedication(convertMedicationCodeableConcept());
         medicationStatement.setSubject(convertSubject());
-        medicationStatement.setEffective(convertPeriod());
+        Period period = convertPeriod();
+        medicationStatement.setEffective(period);
+        medicationStatement.setContext(encounters.getReference(get(PATIENT_ID), period.getStartElement()));
         medicationStatement.setDateAssertedElement(convertTimestamp());
         medicationStatement.addDosage(convertDosage());
         return medicationStatement;
     }
 
-    private DateTimeType convertTimestamp() throws Exception {
+    private DateTimeType convertTimestamp() {
         try {
-            return DateUtil.parseDateTimeType(record.get("Zeitstempel"));
+            return DateUtil.parseDateTimeType(get(ZEITSTEMPEL));
         } catch (Exception e) {
-            throw new Exception("Error on Medication: Can not parse timestamp for Record: "
-                    + record.getRecordNumber() + "! " + record.toString());
+            return error(ZEITSTEMPEL, Issue.Kind.INVALID_DATE, "Error on Medication: Can not parse timestamp");
         }
     }
 
-    private Dosage convertDosage() throws Exception {
+    private Dosage convertDosage() {
         String unit = getDoseUnit();
-        String ucum,synonym;
-        if (Ucum.isUcum(unit)) {
-            ucum = unit;
-            synonym = Ucum.ucum2human(unit); 
-        } else  {
-            ucum = Ucum.human2ucum(unit);
-            synonym = unit;
+        if (unit == null) {
+            return null;
+        }
+        Ucum.Unit resolved = Ucum.resolve(unit);
+        if (!resolved.isKnown()) {
+            warning(EINHEIT, Issue.Kind.UNKNOWN_UNIT, "On Medication: Einheit <" + unit + "> is no known unit");
         }
+        String ucum = resolved.getCode();
+        String synonym = resolved.getDisplay();
 
         return new Dosage()
                 .addDoseAndRate(new Dosage.DosageDoseAndRateComponent()
@@ -208,13 +248,29 @@ public class MedikationConverter implements Converter {
                                 .setCode("d")));
     }
 
-    private String getDoseUnit() throws Exception {
-        String doseUnit = record.get("Einheit");
+    private String getDoseUnit() {
+        String doseUnit = get(EINHEIT);
         if (doseUnit != null) {
             return doseUnit;
         } else {
-            throw new Exception("Error on Medication: Einheit empty for Record: "
-                    + record.getRecordNumber() + "! " + record.toString());
+            return error(EINHEIT, Issue.Kind.EMPTY, "Error on Medication: Einheit empty");
         }
     }
+
+    private String convertId() {
+        return IdUtil.nameBasedId("Medikation", columns.getAll(record));
+    }
+
+    private String get(int column) {
+        return columns.get(record, column);
+    }
+
+    private <T> T error(int column, Issue.Kind kind, String description) {
+        result.addIssue(Issue.error(columns.getName(column), kind, description));
+        return null;
+    }
+
+    private void warning(int column, Issue.Kind kind, String description) {
+        result.addIssue(Issue.warning(columns.getName(column), kind, description));
+    }
 }
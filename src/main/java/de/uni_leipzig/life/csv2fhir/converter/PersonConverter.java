@@ -1,8 +1,11 @@
 package de.uni_leipzig.life.csv2fhir.converter;
 
+import de.uni_leipzig.life.csv2fhir.ColumnIndex;
+import de.uni_leipzig.life.csv2fhir.ConversionResult;
 import de.uni_leipzig.life.csv2fhir.Converter;
+import de.uni_leipzig.life.csv2fhir.Issue;
+import de.uni_leipzig.life.csv2fhir.TableRow;
 import de.uni_leipzig.life.csv2fhir.utils.DateUtil;
-import org.apache.commons.csv.CSVRecord;
 import org.hl7.fhir.r4.model.Address;
 import org.hl7.fhir.r4.model.DateType;
 import org.hl7.fhir.r4.model.Enumerations;
@@ -16,14 +19,31 @@ import java.util.List;
 
 public class PersonConverter implements Converter {
 
-    private final CSVRecord record;
+    // positions in the column names of the PersonConverterFactory
+    private static final int PATIENT_ID = 0;
+    private static final int VORNAME = 1;
+    private static final int NACHNAME = 2;
+    private static final int ANSCHRIFT = 3;
+    private static final int GEBURTSDATUM = 4;
+    private static final int GESCHLECHT = 5;
+    private static final int KRANKENKASSE = 6;
 
-    public PersonConverter(CSVRecord record) {
+    private final TableRow record;
+    private final ColumnIndex columns;
+    private final ConversionResult result = new ConversionResult();
+
+    public PersonConverter(TableRow record, ColumnIndex columns) {
         this.record = record;
+        this.columns = columns;
     }
 
     @Override
     public List<Resource> convert() throws Exception {
+        return convertWithIssues().getResourcesOrThrow(record);
+    }
+
+    @Override
+    public ConversionResult convertWithIssues() {
         Patient patient = new Patient();
         patient.setId(parsePatientId());
         patient.addName(parseName());
@@ -31,22 +51,34 @@ public class PersonConverter implements Converter {
         patient.setBirthDateElement(parseBirthDate());
         patient.addAddress(parseAddress());
         patient.addGeneralPractitioner(parseHealthProvider());
-        return Collections.singletonList(patient);
+        return result.setResources(Collections.singletonList(patient));
+    }
+
+    /**
+     * Checks only the values whose errors prevent the conversion, without building the patient.
+     *
+     * @return the id of the patient if the record is converted without errors, otherwise null
+     */
+    public String getValidPatientId() {
+        String id = parsePatientId();
+        parseSex();
+        parseBirthDate();
+        parseHealthProvider();
+        return result.hasErrors() ? null : id;
     }
 
-    private String parsePatientId() throws Exception {
-        String id = record.get("Patient-ID");
+    private String parsePatientId() {
+        String id = get(PATIENT_ID);
         if (id != null) {
             return id;
         } else {
-            throw new Exception("Error on Patient: Patient-ID empty for Record: "
-                    + record.getRecordNumber() + "! " + record.toString());
+            return error(PATIENT_ID, Issue.Kind.EMPTY, "Error on Patient: Patient-ID empty");
         }
     }
 
     private HumanName parseName() {
-        String forename = record.get("Vorname");
-        String surname = record.get("Nachname");
+        String forename = get(VORNAME);
+        String surname = get(NACHNAME);
 
 
         if (forename != null && surname != null) {
@@ -56,14 +88,13 @@ public class PersonConverter implements Converter {
             }
             return humanName;
         } else {
-            System.out.println("On Patient: Vorname or Nachname empty for Record: "
-                    + record.getRecordNumber() + "! " + record.toString());
+            warning(forename == null ? VORNAME : NACHNAME, Issue.Kind.EMPTY, "On Patient: Vorname or Nachname empty");
             return null;
         }
     }
 
-    private Enumerations.AdministrativeGender parseSex() throws Exception {
-        String sex = record.get("Geschlecht");
+    private Enumerations.AdministrativeGender parseSex() {
+        String sex = get(GESCHLECHT);
         if (sex != null) {
             if (sex.length() != 0) {
                 switch (sex) {
@@ -77,35 +108,32 @@ public class PersonConverter implements Converter {
                     case "divers":
                         return Enumerations.AdministrativeGender.OTHER;
                     default:
-                        throw new Exception("Error on Patient: Geschlecht <"+ sex+ ">not parsable for Record: "
-                                + record.getRecordNumber() + "! " + record.toString());
+                        return error(GESCHLECHT, Issue.Kind.INVALID_VALUE,
+                                "Error on Patient: Geschlecht <"+ sex+ ">not parsable");
                 }
             } else {
-                throw new Exception("Error on Patient: Geschlecht empty for Record: "
-                        + record.getRecordNumber() + "! " + record.toString());
+                return error(GESCHLECHT, Issue.Kind.EMPTY, "Error on Patient: Geschlecht empty");
             }
         } else {
-            throw new Exception("Error on Patient: Geschlecht not found!");
+            return error(GESCHLECHT, Issue.Kind.EMPTY, "Error on Patient: Geschlecht not found");
         }
     }
 
-    private DateType parseBirthDate() throws Exception {
-        String birthday = record.get("Geburtsdatum");
+    private DateType parseBirthDate() {
+        String birthday = get(GEBURTSDATUM);
         if (birthday != null) {
             try {
                 return DateUtil.parseDateType(birthday);
             } catch (Exception e) {
-                throw new Exception("Error on Patient: Can not parse birthday for Record: "
-                        + record.getRecordNumber() + "!\n" + record.toString());
+                return error(GEBURTSDATUM, Issue.Kind.INVALID_DATE, "Error on Patient: Can not parse birthday");
             }
         } else {
-            throw new Exception("Error on Patient: Geburtsdatum empty for Record: "
-                    + record.getRecordNumber() + "! " + record.toString());
+            return error(GEBURTSDATUM, Issue.Kind.EMPTY, "Error on Patient: Geburtsdatum empty");
         }
     }
 
     private Address parseAddress() {
-        String address = record.get("Anschrift");
+        String address = get(ANSCHRIFT);
         if (address != null) {
             String[] addressSplitByComma = address.split(",");
             if (addressSplitByComma.length == 2) {
@@ -117,28 +145,38 @@ public class PersonConverter implements Converter {
                 }
                 return new Address().setCity(city.toString()).setPostalCode(plz).setText(address);
             } else {
-                System.out.println("On Patient: Can not parse Address for Record: "
-                        + record.getRecordNumber() + "! " + record.toString());
+                warning(ANSCHRIFT, Issue.Kind.INVALID_VALUE, "On Patient: Can not parse Address");
                 return null;
             }
         } else {
-            System.out.println("On Patient: Anschrift empty for Record: "
-                    + record.getRecordNumber() + "! " + record.toString());
+            warning(ANSCHRIFT, Issue.Kind.EMPTY, "On Patient: Anschrift empty");
             return null;
         }
     }
 
-    private Reference parseHealthProvider() throws Exception {
-        String practitioner = record.get("Krankenkasse");
+    private Reference parseHealthProvider() {
+        String practitioner = get(KRANKENKASSE);
         if (practitioner != null) {
             if (practitioner.length() != 0) {
                 return new Reference().setDisplay(practitioner);
             } else {
-                throw new Exception("Error on Patient: Krankenkasse empty for Record: "
-                        + record.getRecordNumber() + "!\n" + record.toString());
+                return error(KRANKENKASSE, Issue.Kind.EMPTY, "Error on Patient: Krankenkasse empty");
             }
         } else {
-            throw new Exception("Error on Patient: Collumn Krankenkasse not found!");
+            return error(KRANKENKASSE, Issue.Kind.EMPTY, "Error on Patient: Collumn Krankenkasse not found");
         }
     }
+
+    private String get(int column) {
+        return columns.get(record, column);
+    }
+
+    private <T> T error(int column, Issue.Kind kind, String description) {
+        result.addIssue(Issue.error(columns.getName(column), kind, description));
+        return null;
+    }
+
+    private void warning(int column, Issue.Kind kind, String description) {
+        result.addIssue(Issue.warning(columns.getName(column), kind, description));
+    }
 }
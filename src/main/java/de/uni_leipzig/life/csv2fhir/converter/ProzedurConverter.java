@@ -1,8 +1,13 @@
 package de.uni_leipzig.life.csv2fhir.converter;
 
+import de.uni_leipzig.life.csv2fhir.ColumnIndex;
+import de.uni_leipzig.life.csv2fhir.ConversionException;
 import de.uni_leipzig.life.csv2fhir.Converter;
+import de.uni_leipzig.life.csv2fhir.EncounterIndex;
+import de.uni_leipzig.life.csv2fhir.Issue;
+import de.uni_leipzig.life.csv2fhir.TableRow;
 import de.uni_leipzig.life.csv2fhir.utils.DateUtil;
-import org.apache.commons.csv.CSVRecord;
+import de.uni_leipzig.life.csv2fhir.utils.IdUtil;
 import org.hl7.fhir.r4.model.CodeableConcept;
 import org.hl7.fhir.r4.model.Coding;
 import org.hl7.fhir.r4.model.DateTimeType;
@@ -16,60 +21,82 @@ import java.util.List;
 
 public class ProzedurConverter implements Converter {
 
-    private final CSVRecord record;
+    // positions in the column names of the ProzedurConverterFactory
+    private static final int PATIENT_ID = 0;
+    private static final int PROZEDURENTEXT = 1;
+    private static final int PROZEDURENCODE = 2;
+    private static final int DOKUMENTATIONSDATUM = 3;
 
-    public ProzedurConverter(CSVRecord record) {
+    private final TableRow record;
+    private final ColumnIndex columns;
+    private final EncounterIndex encounters;
+
+    public ProzedurConverter(TableRow record, ColumnIndex columns, EncounterIndex encounters) {
         this.record = record;
+        this.columns = columns;
+        this.encounters = encounters;
     }
 
     @Override
     public List<Resource> convert() throws Exception {
         Procedure procedure = new Procedure();
+        procedure.setId(convertId());
+        DateTimeType recordedDate = convertRecordedDate();
         procedure.addExtension(new Extension()
                 .setUrl("https://www.medizininformatik-initiative.de/fhir/core/modul-prozedur/StructureDefinition/procedure-recordedDate")
-                .setValue(convertRecordedDate()));
+                .setValue(recordedDate));
         procedure.setStatus(Procedure.ProcedureStatus.COMPLETED);//TODO
         procedure.setCode(convertProcedureCode());
         procedure.setSubject(convertSubject());
+        procedure.setEncounter(encounters.getReference(get(PATIENT_ID), recordedDate));
         // TODO procedure.setPerformed(null);
         return Collections.singletonList(procedure);
     }
 
     private DateTimeType convertRecordedDate() throws Exception {
         try {
-            return DateUtil.parseDateTimeType(record.get("Dokumentationsdatum"));
+            return DateUtil.parseDateTimeType(get(DOKUMENTATIONSDATUM));
         } catch (Exception e) {
-            throw new Exception("Error on Procedure: Can not parse Dokumentationsdatum for Record: "
-                    + record.getRecordNumber() + "! " + record.toString());
+            throw error(DOKUMENTATIONSDATUM, Issue.Kind.INVALID_DATE,
+                    "Error on Procedure: Can not parse Dokumentationsdatum");
         }
     }
 
     private CodeableConcept convertProcedureCode() throws Exception {
         return new CodeableConcept()
                 .addCoding(getCode())
-                .setText(record.get("Prozedurentext"));
+                .setText(get(PROZEDURENTEXT));
     }
 
     private Coding getCode() throws Exception {
-        String code = record.get("Prozedurencode");
+        String code = get(PROZEDURENCODE);
         if (code != null) {
             return new Coding()
                     .setSystem("http://snomed.info/sct")
                     .setCode(code);
         } else {
-            throw new Exception("Error on Procedure: Prozedurencode empty for Record: "
-                    + record.getRecordNumber() + "!" + record.toString());
+            throw error(PROZEDURENCODE, Issue.Kind.EMPTY, "Error on Procedure: Prozedurencode empty");
         }
     }
 
     private Reference convertSubject() throws Exception {
-        String patientId = record.get("Patient-ID");
+        String patientId = get(PATIENT_ID);
         if (patientId != null) {
             return new Reference().setReference("Patient/" + patientId);
         } else {
-            throw new Exception("Error on Procedure: Patient-ID empty for Record: "
-                    + record.getRecordNumber() + "!" + record.toString());
+            throw error(PATIENT_ID, Issue.Kind.EMPTY, "Error on Procedure: Patient-ID empty");
         }
     }
-}
 
+    private String convertId() {
+        return IdUtil.nameBasedId("Prozedur", columns.getAll(record));
+    }
+
+    private String get(int column) {
+        return columns.get(record, column);
+    }
+
+    private ConversionException error(int column, Issue.Kind kind, String description) {
+        return new ConversionException(Issue.error(columns.getName(column), kind, description), record);
+    }
+}
@@ -1,10 +1,16 @@
 package de.uni_leipzig.life.csv2fhir.converter;
 
+import de.uni_leipzig.life.csv2fhir.ColumnIndex;
+import de.uni_leipzig.life.csv2fhir.ConversionException;
 import de.uni_leipzig.life.csv2fhir.Converter;
+import de.uni_leipzig.life.csv2fhir.EncounterIndex;
+import de.uni_leipzig.life.csv2fhir.Issue;
+import de.uni_leipzig.life.csv2fhir.TableRow;
 import de.uni_leipzig.life.csv2fhir.utils.DateUtil;
-import org.apache.commons.csv.CSVRecord;
+import de.uni_leipzig.life.csv2fhir.utils.IdUtil;
 import org.hl7.fhir.r4.model.CodeableConcept;
 import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.DateTimeType;
 import org.hl7.fhir.r4.model.Encounter;
 import org.hl7.fhir.r4.model.Period;
 import org.hl7.fhir.r4.model.Reference;
@@ -15,15 +21,25 @@ import java.util.List;
 
 public class VersorgungsfallConverter implements Converter {
 
-    private final CSVRecord record;
+    // positions in the column names of the VersorgungsfallConverterFactory
+    private static final int PATIENT_ID = 0;
+    private static final int AUFNAHMEDIAGNOSE = 1;
+    private static final int STARTDATUM = 2;
+    private static final int ENDDATUM = 3;
+    private static final int VERSORGUNGSFALLKLASSE = 4;
 
-    public VersorgungsfallConverter(CSVRecord record) {
+    private final TableRow record;
+    private final ColumnIndex columns;
+
+    public VersorgungsfallConverter(TableRow record, ColumnIndex columns) {
         this.record = record;
+        this.columns = columns;
     }
 
     @Override
     public List<Resource> convert() throws Exception {
         Encounter encounter = new Encounter();
+        encounter.setId(convertId());
         // TODO encounter.setIdentifier(null);
         encounter.setStatus(Encounter.EncounterStatus.FINISHED);//TODO
         encounter.setClass_(convertClass());
@@ -35,41 +51,55 @@ public class VersorgungsfallConverter implements Converter {
         return Collections.singletonList(encounter);
     }
 
+    /**
+     * Adds the encounter to the index without building it. Checks only the values whose errors prevent
+     * the conversion, and throws like {@link #convert()} on the first of them.
+     */
+    public void index(EncounterIndex encounters) throws Exception {
+        convertClass();
+        convertSubject();
+        Period period = convertPeriod();
+        encounters.add(get(PATIENT_ID), period.getStart().getTime(), period.getEnd().getTime(), convertId());
+    }
+
     private Coding convertClass() throws Exception {
-        String code = record.get("Versorgungsfallklasse");
+        String code = get(VERSORGUNGSFALLKLASSE);
         if (code != null) {
             return new Coding()
                     .setSystem("https://www.medizininformatik-initiative.de/fhir/core/modul-fall/CodeSystem/Versorgungsfallklasse")
                     .setCode(code);
         } else {
-            throw new Exception("Error on Versorgungsfall: Versorgungsfallklasse empty for Record: "
-                    + record.getRecordNumber() + "! " + record.toString());
+            throw error(VERSORGUNGSFALLKLASSE, Issue.Kind.EMPTY,
+                    "Error on Versorgungsfall: Versorgungsfallklasse empty");
         }
     }
 
     private Reference convertSubject() throws Exception {
-        String patientId = record.get("Patient-ID");
+        String patientId = get(PATIENT_ID);
         if (patientId != null) {
             return new Reference().setReference("Patient/" + patientId);
         } else {
-            throw new Exception("Error on Versorgungsfall: Patient-ID empty for Record: "
-                    + record.getRecordNumber() + "!" + record.toString());
+            throw error(PATIENT_ID, Issue.Kind.EMPTY, "Error on Versorgungsfall: Patient-ID empty");
         }
     }
 
     private Period convertPeriod() throws Exception {
+        return new Period()
+                .setStartElement(parseDateTime(STARTDATUM))
+                .setEndElement(parseDateTime(ENDDATUM));
+    }
+
+    private DateTimeType parseDateTime(int column) throws Exception {
         try {
-            return new Period()
-                    .setStartElement(DateUtil.parseDateTimeType(record.get("Startdatum")))
-                    .setEndElement(DateUtil.parseDateTimeType(record.get("Enddatum")));
+            return DateUtil.parseDateTimeType(get(column));
         } catch (Exception e) {
-            throw new Exception("Error on Versorgungsfall: Can not parse Startdatum or Enddatum for Record: "
-                    + record.getRecordNumber() + "! " + record.toString());
+            throw error(column, Issue.Kind.INVALID_DATE,
+                    "Error on Versorgungsfall: Can not parse Startdatum or Enddatum");
         }
     }
 
     private CodeableConcept convertReasonCode() {
-        String code = record.get("Versorgungsfallgrund (Aufnahmediagnose)");
+        String code = get(AUFNAHMEDIAGNOSE);
         if (code != null) {
             return new CodeableConcept().addCoding(new Coding()
                     .setSystem("2.25.13106415395318837456468900343666547797")
@@ -79,5 +109,16 @@ public class VersorgungsfallConverter implements Converter {
         }
     }
 
+    private String convertId() {
+        // referenced by the rows of other files, so a correction of the other values keeps the id
+        return IdUtil.nameBasedId("Versorgungsfall", get(PATIENT_ID), get(STARTDATUM));
+    }
+
+    private String get(int column) {
+        return columns.get(record, column);
+    }
 
+    private ConversionException error(int column, Issue.Kind kind, String description) {
+        return new ConversionException(Issue.error(columns.getName(column), kind, description), record);
+    }
 }
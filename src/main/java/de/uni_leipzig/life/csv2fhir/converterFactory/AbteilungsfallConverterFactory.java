@@ -1,17 +1,29 @@
 package de.uni_leipzig.life.csv2fhir.converterFactory;
 
+import de.uni_leipzig.life.csv2fhir.ColumnIndex;
 import de.uni_leipzig.life.csv2fhir.Converter;
 import de.uni_leipzig.life.csv2fhir.ConverterFactory;
+import de.uni_leipzig.life.csv2fhir.EncounterIndex;
+import de.uni_leipzig.life.csv2fhir.TableRow;
 import de.uni_leipzig.life.csv2fhir.converter.AbteilungsfallConverter;
-import org.apache.commons.csv.CSVRecord;
 
 public class AbteilungsfallConverterFactory implements ConverterFactory {
 
     private static final String[] NEEDED_COLUMNS = {"Patient-ID", "Startdatum", "Enddatum", "Fachabteilung"};
 
+    private final EncounterIndex encounters;
+
+    public AbteilungsfallConverterFactory() {
+        this(new EncounterIndex());
+    }
+
+    public AbteilungsfallConverterFactory(EncounterIndex encounters) {
+        this.encounters = encounters;
+    }
+
     @Override
-    public Converter create(CSVRecord record) {
-        return new AbteilungsfallConverter(record);
+    public Converter create(TableRow record, ColumnIndex columns) {
+        return new AbteilungsfallConverter(record, columns, encounters);
     }
 
     @Override
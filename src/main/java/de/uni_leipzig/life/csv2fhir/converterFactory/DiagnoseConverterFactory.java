@@ -1,17 +1,29 @@
 package de.uni_leipzig.life.csv2fhir.converterFactory;
 
+import de.uni_leipzig.life.csv2fhir.ColumnIndex;
 import de.uni_leipzig.life.csv2fhir.Converter;
 import de.uni_leipzig.life.csv2fhir.ConverterFactory;
+import de.uni_leipzig.life.csv2fhir.EncounterIndex;
+import de.uni_leipzig.life.csv2fhir.TableRow;
 import de.uni_leipzig.life.csv2fhir.converter.DiagnoseConverter;
-import org.apache.commons.csv.CSVRecord;
 
 public class DiagnoseConverterFactory implements ConverterFactory {
 
     private static final String[] NEEDED_COLUMNS = {"Patient-ID", "Bezeichner", "ICD", "Dokumentationsdatum", "Typ"};
 
+    private final EncounterIndex encounters;
+
+    public DiagnoseConverterFactory() {
+        this(new EncounterIndex());
+    }
+
+    public DiagnoseConverterFactory(EncounterIndex encounters) {
+        this.encounters = encounters;
+    }
+
     @Override
-    public Converter create(CSVRecord record) {
-        return new DiagnoseConverter(record);
+    public Converter create(TableRow record, ColumnIndex columns) {
+        return new DiagnoseConverter(record, columns, encounters);
     }
 
     @Override
@@ -1,17 +1,29 @@
 package de.uni_leipzig.life.csv2fhir.converterFactory;
 
+import de.uni_leipzig.life.csv2fhir.ColumnIndex;
 import de.uni_leipzig.life.csv2fhir.Converter;
 import de.uni_leipzig.life.csv2fhir.ConverterFactory;
+import de.uni_leipzig.life.csv2fhir.EncounterIndex;
+import de.uni_leipzig.life.csv2fhir.TableRow;
 import de.uni_leipzig.life.csv2fhir.converter.KlinischeDokumentationConverter;
-import org.apache.commons.csv.CSVRecord;
 
 public class KlinischeDokumentationConverterFactory implements ConverterFactory {
 
     private static final String[] NEEDED_COLUMNS = {"Patient-ID", "Bezeichner", "LOINC", "Wert", "Einheit", "Zeitstempel"};
 
+    private final EncounterIndex encounters;
+
+    public KlinischeDokumentationConverterFactory() {
+        this(new EncounterIndex());
+    }
+
+    public KlinischeDokumentationConverterFactory(EncounterIndex encounters) {
+        this.encounters = encounters;
+    }
+
     @Override
-    public Converter create(CSVRecord record) {
-        return new KlinischeDokumentationConverter(record);
+    public Converter create(TableRow record, ColumnIndex columns) {
+        return new KlinischeDokumentationConverter(record, columns, encounters);
     }
 
     @Override
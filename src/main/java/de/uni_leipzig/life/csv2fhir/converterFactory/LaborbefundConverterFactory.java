@@ -1,18 +1,30 @@
 package de.uni_leipzig.life.csv2fhir.converterFactory;
 
+import de.uni_leipzig.life.csv2fhir.ColumnIndex;
 import de.uni_leipzig.life.csv2fhir.Converter;
 import de.uni_leipzig.life.csv2fhir.ConverterFactory;
+import de.uni_leipzig.life.csv2fhir.EncounterIndex;
+import de.uni_leipzig.life.csv2fhir.TableRow;
 import de.uni_leipzig.life.csv2fhir.converter.LaborbefundConverter;
-import org.apache.commons.csv.CSVRecord;
 
 public class LaborbefundConverterFactory implements ConverterFactory {
 
     private static final String[] NEEDED_COLUMNS = {"Patient-ID", "LOINC", "Parameter",
             "Messwert", "Einheit", "Zeitstempel (Abnahme)"}; //Not used: "Methode"
 
+    private final EncounterIndex encounters;
+
+    public LaborbefundConverterFactory() {
+        this(new EncounterIndex());
+    }
+
+    public LaborbefundConverterFactory(EncounterIndex encounters) {
+        this.encounters = encounters;
+    }
+
     @Override
-    public Converter create(CSVRecord record) {
-        return new LaborbefundConverter(record);
+    public Converter create(TableRow record, ColumnIndex columns) {
+        return new LaborbefundConverter(record, columns, encounters);
     }
 
     @Override
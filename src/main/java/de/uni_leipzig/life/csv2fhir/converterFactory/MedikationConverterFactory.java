@@ -1,9 +1,11 @@
 package de.uni_leipzig.life.csv2fhir.converterFactory;
 
+import de.uni_leipzig.life.csv2fhir.ColumnIndex;
 import de.uni_leipzig.life.csv2fhir.Converter;
 import de.uni_leipzig.life.csv2fhir.ConverterFactory;
+import de.uni_leipzig.life.csv2fhir.EncounterIndex;
+import de.uni_leipzig.life.csv2fhir.TableRow;
 import de.uni_leipzig.life.csv2fhir.converter.MedikationConverter;
-import org.apache.commons.csv.CSVRecord;
 
 public class MedikationConverterFactory implements ConverterFactory {
 
@@ -13,15 +15,31 @@ public class MedikationConverterFactory implements ConverterFactory {
                     "Anzahl Dosen pro Tag", "Therapiestartdatum",
                     "Therapieendedatum", "Einzeldosis", "Einheit",
                     "Wirksubstanz aus Präparat/Handelsname"};
-    //"Medikationsplanart", "Darreichungsform", "Tagesdosis", "KombinationsAMI", "ASK" not used!
+    //"Medikationsplanart", "Darreichungsform", "Tagesdosis", "KombinationsAMI" not used!
+    private static final String[] OPTIONAL_COLUMNS = {"ASK"};
+
+    private final EncounterIndex encounters;
+
+    public MedikationConverterFactory() {
+        this(new EncounterIndex());
+    }
+
+    public MedikationConverterFactory(EncounterIndex encounters) {
+        this.encounters = encounters;
+    }
 
     @Override
-    public Converter create(CSVRecord record) {
-        return new MedikationConverter(record);
+    public Converter create(TableRow record, ColumnIndex columns) {
+        return new MedikationConverter(record, columns, encounters);
     }
 
     @Override
     public String[] getNeededColumnNames() {
         return NEEDED_COLUMNS;
     }
+
+    @Override
+    public String[] getOptionalColumnNames() {
+        return OPTIONAL_COLUMNS;
+    }
 }
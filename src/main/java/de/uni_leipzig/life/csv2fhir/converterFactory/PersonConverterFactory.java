@@ -1,9 +1,11 @@
 package de.uni_leipzig.life.csv2fhir.converterFactory;
 
+import de.uni_leipzig.life.csv2fhir.ColumnIndex;
 import de.uni_leipzig.life.csv2fhir.Converter;
 import de.uni_leipzig.life.csv2fhir.ConverterFactory;
+import de.uni_leipzig.life.csv2fhir.IdSet;
+import de.uni_leipzig.life.csv2fhir.TableRow;
 import de.uni_leipzig.life.csv2fhir.converter.PersonConverter;
-import org.apache.commons.csv.CSVRecord;
 
 public class PersonConverterFactory implements ConverterFactory {
 
@@ -11,8 +13,32 @@ public class PersonConverterFactory implements ConverterFactory {
             {"Patient-ID", "Vorname", "Nachname", "Anschrift", "Geburtsdatum",
                     "Geschlecht", "Krankenkasse"};
 
-    public Converter create(CSVRecord record) {
-        return new PersonConverter(record);
+    private final IdSet patients;
+
+    public PersonConverterFactory() {
+        this(new IdSet());
+    }
+
+    /**
+     * @param patients the set the ids of the valid patients are added to
+     */
+    public PersonConverterFactory(IdSet patients) {
+        this.patients = patients;
+    }
+
+    public Converter create(TableRow record, ColumnIndex columns) {
+        return new PersonConverter(record, columns);
+    }
+
+    /**
+     * Checks the record like its conversion does, so only patients which are written are known.
+     */
+    @Override
+    public void index(TableRow record, ColumnIndex columns) {
+        String patientId = new PersonConverter(record, columns).getValidPatientId();
+        if (patientId != null) {
+            patients.add(patientId);
+        }
     }
 
     @Override
@@ -1,17 +1,29 @@
 package de.uni_leipzig.life.csv2fhir.converterFactory;
 
+import de.uni_leipzig.life.csv2fhir.ColumnIndex;
 import de.uni_leipzig.life.csv2fhir.Converter;
 import de.uni_leipzig.life.csv2fhir.ConverterFactory;
+import de.uni_leipzig.life.csv2fhir.EncounterIndex;
+import de.uni_leipzig.life.csv2fhir.TableRow;
 import de.uni_leipzig.life.csv2fhir.converter.ProzedurConverter;
-import org.apache.commons.csv.CSVRecord;
 
 public class ProzedurConverterFactory implements ConverterFactory {
 
     private static final String[] NEEDED_COLUMNS = {"Patient-ID", "Prozedurentext", "Prozedurencode", "Dokumentationsdatum"};
 
+    private final EncounterIndex encounters;
+
+    public ProzedurConverterFactory() {
+        this(new EncounterIndex());
+    }
+
+    public ProzedurConverterFactory(EncounterIndex encounters) {
+        this.encounters = encounters;
+    }
+
     @Override
-    public Converter create(CSVRecord record) {
-        return new ProzedurConverter(record);
+    public Converter create(TableRow record, ColumnIndex columns) {
+        return new ProzedurConverter(record, columns, encounters);
     }
 
     @Override
@@ -1,16 +1,43 @@
 package de.uni_leipzig.life.csv2fhir.converterFactory;
 
+import de.uni_leipzig.life.csv2fhir.ColumnIndex;
 import de.uni_leipzig.life.csv2fhir.Converter;
 import de.uni_leipzig.life.csv2fhir.ConverterFactory;
+import de.uni_leipzig.life.csv2fhir.EncounterIndex;
+import de.uni_leipzig.life.csv2fhir.TableRow;
 import de.uni_leipzig.life.csv2fhir.converter.VersorgungsfallConverter;
-import org.apache.commons.csv.CSVRecord;
 
 public class VersorgungsfallConverterFactory implements ConverterFactory {
 
     private static final String[] NEEDED_COLUMNS = {"Patient-ID", "Versorgungsfallgrund (Aufnahmediagnose)", "Startdatum", "Enddatum", "Versorgungsfallklasse"};
 
-    public Converter create(CSVRecord record) {
-        return new VersorgungsfallConverter(record);
+    private final EncounterIndex encounters;
+
+    public VersorgungsfallConverterFactory() {
+        this(new EncounterIndex());
+    }
+
+    /**
+     * @param encounters the index the valid encounters are added to
+     */
+    public VersorgungsfallConverterFactory(EncounterIndex encounters) {
+        this.encounters = encounters;
+    }
+
+    public Converter create(TableRow record, ColumnIndex columns) {
+        return new VersorgungsfallConverter(record, columns);
+    }
+
+    /**
+     * Checks the record like its conversion does, so only encounters which are written can be referenced.
+     */
+    @Override
+    public void index(TableRow record, ColumnIndex columns) {
+        try {
+            new VersorgungsfallConverter(record, columns).index(encounters);
+        } catch (Exception e) {
+            // reported by the conversion of the record
+        }
     }
 
     @Override
@@ -0,0 +1,244 @@
+package de.uni_leipzig.life.csv2fhir.generator;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import picocli.CommandLine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+
+/**
+ * Generates csv files for all converters at a configurable scale. The files are referentially consistent:
+ * every row references a patient of Person.csv and is dated within one of the patient's Versorgungsfaelle.
+ * The rows are written patient by patient, so memory does not grow with the number of patients.
+ */
+@CommandLine.Command(name = "csvgenerator", mixinStandardHelpOptions = true, version = "1.0",
+        description = "Generates synthetic csv files for load tests of csv2fhir.")
+public class CsvGenerator implements Callable<Integer> {
+
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("dd.MM.yyyy, HH:mm");
+    private static final DateTimeFormatter DATE = DateTimeFormatter.ISO_LOCAL_DATE;
+    private static final LocalDateTime FIRST_ADMISSION = LocalDateTime.of(2019, 1, 1, 0, 0);
+    private static final int ANALYTES_PER_SAMPLE = 10;
+
+    private static final Map<String, String[]> HEADERS = new LinkedHashMap<>();
+
+    static {
+        HEADERS.put("Person", new String[]{"Patient-ID", "Vorname", "Nachname", "Anschrift", "Geburtsdatum",
+                "Geschlecht", "Krankenkasse"});
+        HEADERS.put("Versorgungsfall", new String[]{"Patient-ID", "Versorgungsfallgrund (Aufnahmediagnose)",
+                "Startdatum", "Enddatum", "Versorgungsfallklasse"});
+        HEADERS.put("Abteilungsfall", new String[]{"Patient-ID", "Startdatum", "Enddatum", "Fachabteilung"});
+        HEADERS.put("Laborbefund", new String[]{"Patient-ID", "LOINC", "Parameter", "Messgrösse", "Zeit",
+                "Probe", "Skala", "Methode", "Messwert", "Einheit", "Zeitstempel (Abnahme)"});
+        HEADERS.put("Diagnose", new String[]{"Patient-ID", "Bezeichner", "ICD", "Dokumentationsdatum", "Typ"});
+        HEADERS.put("Prozedur", new String[]{"Patient-ID", "Prozedurentext", "Prozedurencode",
+                "Dokumentationsdatum"});
+        HEADERS.put("Medikation", new String[]{"Patient-ID", "Zeitstempel", "FHIR_Resourcentyp", "ATC Code",
+                "PZN Code", "ASK", "FHIR_UserSelected", "Anzahl Dosen pro Tag", "Therapiestartdatum",
+                "Therapieendedatum", "Einzeldosis", "Einheit", "Wirksubstanz aus Präparat/Handelsname"});
+        HEADERS.put("Klinische Dokumentation", new String[]{"Patient-ID", "Bezeichner", "LOINC", "Wert", "Einheit",
+                "Zeitstempel"});
+    }
+
+    // LOINC, parameter, unit, minimum, maximum
+    private static final Object[][] ANALYTES = {
+            {"718-7", "Hämoglobin", "g/dl", 12.0, 17.0},
+            {"4544-3", "Hämatokrit", "%", 36.0, 48.0},
+            {"6690-2", "Leukozyten", "G/l", 4.0, 10.0},
+            {"777-3", "Thrombozyten", "G/l", 150.0, 400.0},
+            {"2160-0", "Kreatinin", "mg/dl", 0.5, 1.3},
+            {"2951-2", "Natrium", "mmol/l", 135.0, 145.0},
+            {"2823-3", "Kalium", "mmol/l", 3.5, 5.1},
+            {"1988-5", "CRP", "mg/l", 0.0, 50.0},
+            {"2345-7", "Glukose", "mg/dl", 70.0, 140.0},
+            {"1920-8", "ASAT", "U/l", 10.0, 50.0}};
+    // LOINC, description, unit, minimum, maximum
+    private static final Object[][] VITAL_SIGNS = {
+            {"29463-7", "Körpergewicht", "kg", 50.0, 120.0},
+            {"8302-2", "Körpergröße", "cm", 150.0, 200.0},
+            {"8867-4", "Herzfrequenz", "1/min", 50.0, 120.0},
+            {"8310-5", "Körpertemperatur", "Cel", 36.0, 40.0}};
+    // ATC, PZN, ASK, substance, single dose, unit
+    private static final String[][] MEDICATIONS = {
+            {"C09AA05", "00766794", "21718", "Ramipril", "5", "mg"},
+            {"B01AB05", "01573616", "25561", "Enoxaparin", "40", "mg"},
+            {"N02BE01", "03485237", "00110", "Paracetamol", "500", "mg"}};
+    // ICD-10-GM, description
+    private static final String[][] DIAGNOSES = {
+            {"I10.90", "Essentielle Hypertonie"},
+            {"E11.90", "Diabetes mellitus, Typ 2"},
+            {"J18.9", "Pneumonie, nicht näher bezeichnet"},
+            {"N18.2", "Chronische Nierenkrankheit, Stadium 2"},
+            {"I50.12", "Linksherzinsuffizienz"}};
+    // SNOMED CT, description
+    private static final String[][] PROCEDURES = {
+            {"46973005", "Blutdruckmessung"},
+            {"29303009", "Elektrokardiogramm"},
+            {"168537006", "Röntgen Thorax"}};
+    private static final String[] DEPARTMENTS = {"0100", "0300", "0800", "1500", "3600"};
+    private static final String[] INSURANCES = {"AOK", "Barmer", "TKK", "DAK"};
+    private static final String[] GENDERS = {"m", "w", "d", "weiblich"};
+    private static final String[] DIRTY_VALUES = {"", "n/a", "-", "?", "32.13.2020, 25:61", "1,5", "xyz"};
+
+    @CommandLine.Option(names = {"-o", "--output-directory"}, required = true, paramLabel = "OUTPUT-DIRECTORY",
+            description = "directory the csv files are written to")
+    File outputDirectory;
+
+    @CommandLine.Option(names = {"-n", "--patients"}, defaultValue = "1000",
+            description = "number of patients (default: ${DEFAULT-VALUE})")
+    int patients;
+
+    @CommandLine.Option(names = {"-r", "--records-per-patient"}, defaultValue = "50",
+            description = "number of Laborbefund rows per patient; the other files scale with it (default: ${DEFAULT-VALUE})")
+    int recordsPerPatient;
+
+    @CommandLine.Option(names = {"-d", "--dirty-ratio"}, defaultValue = "0",
+            description = "fraction of rows with one invalid value (default: ${DEFAULT-VALUE})")
+    double dirtyRatio;
+
+    @CommandLine.Option(names = {"--seed"}, defaultValue = "1",
+            description = "seed of the random values (default: ${DEFAULT-VALUE})")
+    long seed;
+
+    private SplittableRandom random;
+    private Map<String, CSVPrinter> printers;
+    private Map<String, Long> rowCounts;
+
+    public CsvGenerator() {
+    }
+
+    public CsvGenerator(File outputDirectory, int patients, int recordsPerPatient, double dirtyRatio, long seed) {
+        this.outputDirectory = outputDirectory;
+        this.patients = patients;
+        this.recordsPerPatient = recordsPerPatient;
+        this.dirtyRatio = dirtyRatio;
+        this.seed = seed;
+    }
+
+    public static void main(String[] args) {
+        System.exit(new CommandLine(new CsvGenerator()).execute(args));
+    }
+
+    @Override
+    public Integer call() throws Exception {
+        generate();
+        rowCounts.forEach((name, rows) -> System.out.println(name + ".csv: " + rows + " rows"));
+        return 0;
+    }
+
+    /**
+     * @return the number of rows written per file name without extension
+     */
+    public Map<String, Long> generate() throws IOException {
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            throw new IOException("Can not create output directory " + outputDirectory);
+        }
+        random = new SplittableRandom(seed);
+        printers = new LinkedHashMap<>();
+        rowCounts = new LinkedHashMap<>();
+        try {
+            for (Map.Entry<String, String[]> header : HEADERS.entrySet()) {
+                CSVPrinter printer = new CSVPrinter(Files.newBufferedWriter(
+                        new File(outputDirectory, header.getKey() + ".csv").toPath(), StandardCharsets.UTF_8),
+                        CSVFormat.DEFAULT);
+                printers.put(header.getKey(), printer);
+                printer.printRecord((Object[]) header.getValue());
+                rowCounts.put(header.getKey(), 0L);
+            }
+            for (int patient = 1; patient <= patients; patient++) {
+                writePatient(String.format("P%07d", patient));
+            }
+        } finally {
+            for (CSVPrinter printer : printers.values()) {
+                printer.close();
+            }
+        }
+        return rowCounts;
+    }
+
+    private void writePatient(String patientId) throws IOException {
+        print("Person", patientId, "Vorname" + random.nextInt(1000), "Nachname" + random.nextInt(1000),
+                "Hauptstraße " + (1 + random.nextInt(100)) + ", " + String.format("%05d", 1000 + random.nextInt(99000)) + " Leipzig",
+                String.valueOf(1930 + random.nextInt(80)), pick(GENDERS), pick(INSURANCES));
+
+        int encounters = 1 + random.nextInt(3);
+        int samples = Math.max(1, recordsPerPatient / ANALYTES_PER_SAMPLE);
+        int vitalSigns = Math.max(1, recordsPerPatient / 5);
+        int writtenSamples = 0;
+        LocalDateTime start = FIRST_ADMISSION.plusDays(random.nextInt(365)).plusHours(random.nextInt(24));
+        for (int encounter = 0; encounter < encounters; encounter++) {
+            long hours = 24 + random.nextInt(14 * 24);
+            LocalDateTime end = start.plusHours(hours);
+            String[] diagnosis = pick(DIAGNOSES);
+            print("Versorgungsfall", patientId, diagnosis[0], DATE_TIME.format(start), DATE_TIME.format(end),
+                    "stationaer");
+            LocalDateTime transfer = start.plusHours(hours / 2);
+            print("Abteilungsfall", patientId, DATE_TIME.format(start), DATE_TIME.format(transfer), pick(DEPARTMENTS));
+            print("Abteilungsfall", patientId, DATE_TIME.format(transfer), DATE_TIME.format(end), pick(DEPARTMENTS));
+            print("Diagnose", patientId, diagnosis[1], diagnosis[0], DATE.format(start), "Aufnahmediagnose");
+            String[] secondary = pick(DIAGNOSES);
+            print("Diagnose", patientId, secondary[1], secondary[0], DATE.format(end), "Entlassdiagnose");
+            String[] procedure = pick(PROCEDURES);
+            print("Prozedur", patientId, procedure[1], procedure[0], DATE.format(start));
+            for (int i = 0; i < 2; i++) {
+                String[] medication = pick(MEDICATIONS);
+                print("Medikation", patientId, DATE.format(start), i == 0 ? "Statement" : "Administration",
+                        medication[0], medication[1], medication[2], "ATC", String.valueOf(1 + random.nextInt(3)),
+                        DATE.format(start), DATE.format(end), medication[4], medication[5], medication[3]);
+            }
+
+            // spread the samples and vital signs of the patient over the encounters
+            int encounterSamples = share(samples, encounters, encounter);
+            for (int sample = 0; sample < encounterSamples; sample++) {
+                String timestamp = DATE_TIME.format(start.plusMinutes(random.nextLong(hours * 60)));
+                // the last sample of the patient takes the rows that do not fill a whole sample
+                int analytes = ++writtenSamples == samples
+                        ? recordsPerPatient - (samples - 1) * ANALYTES_PER_SAMPLE : ANALYTES_PER_SAMPLE;
+                for (int i = 0; i < analytes; i++) {
+                    Object[] analyte = ANALYTES[i % ANALYTES.length];
+                    print("Laborbefund", patientId, (String) analyte[0], (String) analyte[1], "MCnc", "Pt", "Bld",
+                            "Qn", null, value(analyte), (String) analyte[2], timestamp);
+                }
+            }
+            for (int i = share(vitalSigns, encounters, encounter); i > 0; i--) {
+                Object[] vitalSign = pick(VITAL_SIGNS);
+                print("Klinische Dokumentation", patientId, (String) vitalSign[1], (String) vitalSign[0],
+                        value(vitalSign), (String) vitalSign[2],
+                        DATE_TIME.format(start.plusMinutes(random.nextLong(hours * 60))));
+            }
+            start = end.plusDays(1 + random.nextInt(60));
+        }
+    }
+
+    private void print(String name, String... values) throws IOException {
+        if (dirtyRatio > 0 && random.nextDouble() < dirtyRatio) {
+            values[random.nextInt(values.length)] = pick(DIRTY_VALUES);
+        }
+        printers.get(name).printRecord((Object[]) values);
+        rowCounts.merge(name, 1L, Long::sum);
+    }
+
+    private String value(Object[] range) {
+        double min = (Double) range[3];
+        double max = (Double) range[4];
+        return String.format(Locale.ROOT, "%.1f", min + random.nextDouble() * (max - min));
+    }
+
+    private <T> T pick(T[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static int share(int total, int parts, int part) {
+        return total / parts + (part < total % parts ? 1 : 0);
+    }
+}
@@ -0,0 +1,93 @@
+package de.uni_leipzig.life.csv2fhir.output;
+
+import ca.uhn.fhir.context.FhirContext;
+import de.uni_leipzig.life.csv2fhir.IdSet;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Resource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Collects all resources in one transaction bundle which is written on close.
+ */
+public class BundleWriter implements ResourceWriter {
+
+    private final FhirContext ctx;
+    private final File outputFile;
+    private final boolean compact;
+    private final boolean gzip;
+    private final Bundle bundle;
+    private final IdSet references = new IdSet();
+
+    public BundleWriter(FhirContext ctx, File outputFile) {
+        this(ctx, outputFile, false, false);
+    }
+
+    public BundleWriter(FhirContext ctx, File outputFile, boolean compact, boolean gzip) {
+        this.ctx = ctx;
+        this.outputFile = outputFile;
+        this.compact = compact;
+        this.gzip = gzip;
+        this.bundle = new Bundle();
+        bundle.setType(Bundle.BundleType.TRANSACTION);
+    }
+
+    @Override
+    public boolean write(Resource resource) {
+        if (resource.getId() != null && !references.add(getReference(resource))) {
+            return false;
+        }
+        bundle.addEntry()
+                .setResource(resource)
+                .setRequest(getRequestComponent(resource));
+        return true;
+    }
+
+    @Override
+    public void delete(String reference) {
+        bundle.addEntry().setRequest(getDeleteRequestComponent(reference));
+    }
+
+    /**
+     * Nothing is written before {@link #close()}, so the collected entries are just dropped.
+     */
+    @Override
+    public void abort() {
+        bundle.getEntry().clear();
+        references.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (Writer out = OutputFiles.open(outputFile, gzip)) {
+            ctx.newJsonParser().setPrettyPrint(!compact).encodeResourceToWriter(bundle, out);
+        }
+    }
+
+    public static Bundle.BundleEntryRequestComponent getRequestComponent(Resource resource) {
+        if (resource.getId() == null) {
+            return new Bundle.BundleEntryRequestComponent()
+                    .setMethod(Bundle.HTTPVerb.POST)
+                    .setUrl(resource.getResourceType().toString());
+        } else {
+            return new Bundle.BundleEntryRequestComponent()
+                    .setMethod(Bundle.HTTPVerb.PUT)
+                    .setUrl(getReference(resource));
+        }
+    }
+
+    /**
+     * @return the reference to the resource, like "Patient/123", for a resource with an id
+     */
+    public static String getReference(Resource resource) {
+        return resource.getResourceType() + "/" + resource.getId();
+    }
+
+    public static Bundle.BundleEntryRequestComponent getDeleteRequestComponent(String reference) {
+        return new Bundle.BundleEntryRequestComponent()
+                .setMethod(Bundle.HTTPVerb.DELETE)
+                .setUrl(reference);
+    }
+}
@@ -0,0 +1,117 @@
+package de.uni_leipzig.life.csv2fhir.output;
+
+import ca.uhn.fhir.context.FhirContext;
+import org.hl7.fhir.r4.model.Resource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Streams the entries into a sequence of transaction bundles. A new bundle file is started as soon as
+ * the current one holds {@code maxEntries} entries or the next entry would make the file larger than {@code maxBytes}.
+ * The files are named after the output file with a running number, e.g. {@code bundle-0001.json}.
+ * <p>
+ * A resource is only left out if the bundle it goes to already holds an entry for it, so only the
+ * references of one bundle are kept.
+ */
+public class ChunkedBundleWriter implements ResourceWriter {
+
+    private final FhirContext ctx;
+    private final File outputFile;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final boolean compact;
+    private final boolean gzip;
+    private StreamingBundleWriter chunk;
+    private int chunkCount;
+
+    /**
+     * @param maxEntries maximum number of entries per bundle, 0 for no limit
+     * @param maxBytes   maximum uncompressed size of a bundle file in bytes, 0 for no limit; a single entry
+     *                   larger than that gets a file of its own
+     */
+    public ChunkedBundleWriter(FhirContext ctx, File outputFile, int maxEntries, long maxBytes) {
+        this(ctx, outputFile, maxEntries, maxBytes, false, false);
+    }
+
+    public ChunkedBundleWriter(FhirContext ctx, File outputFile, int maxEntries, long maxBytes,
+                               boolean compact, boolean gzip) {
+        this.ctx = ctx;
+        this.outputFile = outputFile;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.compact = compact;
+        this.gzip = gzip;
+    }
+
+    @Override
+    public boolean write(Resource resource) throws IOException {
+        if (chunk == null) {
+            chunk = nextChunk();
+        }
+        String entry = chunk.encodeEntry(resource);
+        startChunkIfFull(entry);
+        if (!chunk.addReference(resource)) {
+            return false;
+        }
+        chunk.writeEntry(entry);
+        return true;
+    }
+
+    @Override
+    public void delete(String reference) throws IOException {
+        if (chunk == null) {
+            chunk = nextChunk();
+        }
+        String entry = chunk.encodeDeleteEntry(reference);
+        startChunkIfFull(entry);
+        chunk.writeEntry(entry);
+    }
+
+    private void startChunkIfFull(String entry) throws IOException {
+        if (chunk.getEntryCount() > 0 && (maxEntries > 0 && chunk.getEntryCount() >= maxEntries
+                || maxBytes > 0 && chunk.getSizeWith(OutputFiles.utf8Length(entry)) > maxBytes)) {
+            chunk.close();
+            chunk = nextChunk();
+        }
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (chunk != null) {
+            chunk.close();
+        }
+    }
+
+    /**
+     * Deletes all bundle files, as the ones completed so far hold only a part of the output.
+     */
+    @Override
+    public void abort() throws IOException {
+        if (chunk != null) {
+            chunk.abort();
+        }
+        for (int i = 1; i <= chunkCount; i++) {
+            Files.deleteIfExists(OutputFiles.getFile(getChunkFile(outputFile, i), gzip).toPath());
+        }
+    }
+
+    private StreamingBundleWriter nextChunk() throws IOException {
+        return new StreamingBundleWriter(ctx, getChunkFile(outputFile, ++chunkCount), compact, gzip);
+    }
+
+    public static File getChunkFile(File outputFile, int index) {
+        String name = OutputFiles.stripGzipSuffix(outputFile.getName());
+        int dot = name.lastIndexOf('.');
+        String chunkName = dot > 0
+                ? String.format("%s-%04d%s", name.substring(0, dot), index, name.substring(dot))
+                : String.format("%s-%04d", name, index);
+        chunkName += outputFile.getName().substring(name.length());
+        return new File(outputFile.getAbsoluteFile().getParentFile(), chunkName);
+    }
+}
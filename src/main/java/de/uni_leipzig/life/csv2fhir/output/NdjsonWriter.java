@@ -0,0 +1,86 @@
+package de.uni_leipzig.life.csv2fhir.output;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.ResourceType;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Writes newline delimited JSON as used by FHIR bulk data: one file per resource type
+ * (Patient.ndjson, Observation.ndjson, ...) in the output directory, one resource per line. Deletes can
+ * not be expressed in ndjson.
+ */
+public class NdjsonWriter implements ResourceWriter {
+
+    private final IParser parser;
+    private final File outputDirectory;
+    private final boolean gzip;
+    private final Map<ResourceType, Writer> writers = new EnumMap<>(ResourceType.class);
+
+    public NdjsonWriter(FhirContext ctx, File outputDirectory) throws IOException {
+        this(ctx, outputDirectory, false);
+    }
+
+    public NdjsonWriter(FhirContext ctx, File outputDirectory, boolean gzip) throws IOException {
+        this.parser = ctx.newJsonParser().setPrettyPrint(false);
+        this.outputDirectory = outputDirectory;
+        this.gzip = gzip;
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            throw new IOException("Can not create output directory " + outputDirectory);
+        }
+    }
+
+    @Override
+    public boolean write(Resource resource) throws IOException {
+        Writer out = writers.get(resource.getResourceType());
+        if (out == null) {
+            out = OutputFiles.open(getFile(resource.getResourceType()), gzip);
+            writers.put(resource.getResourceType(), out);
+        }
+        // encoding to the writer flushes it down to the file for every resource
+        out.write(parser.encodeResourceToString(resource));
+        out.write('\n');
+        // every line is loaded on its own, so a later line for the same resource just updates it
+        return true;
+    }
+
+    /**
+     * Deletes the files written so far, as every line of them would be loaded on its own.
+     */
+    @Override
+    public void abort() throws IOException {
+        try {
+            close();
+        } finally {
+            for (ResourceType type : writers.keySet()) {
+                Files.deleteIfExists(OutputFiles.getFile(getFile(type), gzip).toPath());
+            }
+        }
+    }
+
+    private File getFile(ResourceType type) {
+        return new File(outputDirectory, type + ".ndjson");
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException exception = null;
+        for (Writer out : writers.values()) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+}
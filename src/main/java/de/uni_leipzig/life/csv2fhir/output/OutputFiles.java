@@ -0,0 +1,72 @@
+package de.uni_leipzig.life.csv2fhir.output;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+public final class OutputFiles {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final String GZIP_SUFFIX = ".gz";
+
+    private OutputFiles() {
+    }
+
+    /**
+     * Opens a buffered UTF-8 writer for the file. If gzip is set, the output is compressed and
+     * ".gz" is appended to the file name unless it already ends with it.
+     */
+    public static Writer open(File file, boolean gzip) throws IOException {
+        return open(new FileOutputStream(getFile(file, gzip)), gzip);
+    }
+
+    /**
+     * Opens a buffered UTF-8 writer for the stream, compressed with gzip if set.
+     */
+    public static Writer open(OutputStream out, boolean gzip) throws IOException {
+        if (gzip) {
+            out = new GZIPOutputStream(out, BUFFER_SIZE);
+        }
+        return new BufferedWriter(new OutputStreamWriter(new BufferedOutputStream(out, BUFFER_SIZE),
+                StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    public static File getFile(File file, boolean gzip) {
+        if (gzip && !file.getName().endsWith(GZIP_SUFFIX)) {
+            return new File(file.getPath() + GZIP_SUFFIX);
+        }
+        return file;
+    }
+
+    /**
+     * @return the number of bytes of the string in UTF-8
+     */
+    static long utf8Length(String s) {
+        long length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    static String stripGzipSuffix(String name) {
+        return name.endsWith(GZIP_SUFFIX) ? name.substring(0, name.length() - GZIP_SUFFIX.length()) : name;
+    }
+}
@@ -0,0 +1,41 @@
+package de.uni_leipzig.life.csv2fhir.output;
+
+import org.hl7.fhir.r4.model.Resource;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+public interface ResourceWriter extends Closeable {
+
+    /**
+     * @return false if the resource is left out, as the bundle it would be added to already holds an entry
+     *         for a resource of the same type and id, which a transaction does not allow
+     */
+    boolean write(Resource resource) throws IOException;
+
+    /**
+     * Writes a request deleting the resource with the reference, like "Patient/123".
+     */
+    default void delete(String reference) throws IOException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " can not write deletes");
+    }
+
+    /**
+     * Called after the resources of an input file are written, as those of the following files may
+     * reference them.
+     */
+    default void completeFile() throws IOException {
+    }
+
+    /**
+     * Completes the output. Only called after the conversion succeeded.
+     */
+    @Override
+    void close() throws IOException;
+
+    /**
+     * Releases the output of a conversion that failed instead of {@link #close() closing} it, so nothing
+     * is left that looks like a complete result.
+     */
+    void abort() throws IOException;
+}
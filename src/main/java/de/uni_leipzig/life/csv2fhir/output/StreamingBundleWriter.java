@@ -0,0 +1,268 @@
+package de.uni_leipzig.life.csv2fhir.output;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import de.uni_leipzig.life.csv2fhir.IdSet;
+import de.uni_leipzig.life.csv2fhir.utils.JsonUtil;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Resource;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a transaction bundle entry by entry, so the resources are not kept in memory. The envelope is
+ * written by hand and every resource is encoded on its own; the result has the same layout as a
+ * {@link BundleWriter} bundle.
+ * <p>
+ * To leave out a second entry for a resource, the references of the entries are kept in an {@link IdSet},
+ * which takes about 80 bytes for a reference like "Observation/" and a UUID. For memory that does not grow
+ * with the output, the bundle is split by a {@link ChunkedBundleWriter}.
+ * <p>
+ * Without gzip, an aborted bundle can be continued with {@link #resume(FhirContext, File, boolean, long, long)}
+ * after the last entry that was {@link #flush() flushed}.
+ */
+public class StreamingBundleWriter implements ResourceWriter {
+
+    private static final String ENTRY_INDENT = "      ";
+
+    private final IParser parser;
+    private final boolean compact;
+    private final Writer out;
+    private final FileChannel channel;
+    private final IdSet references = new IdSet();
+    private long entryCount;
+    private long size;
+
+    public StreamingBundleWriter(FhirContext ctx, File outputFile) throws IOException {
+        this(ctx, outputFile, false, false);
+    }
+
+    public StreamingBundleWriter(FhirContext ctx, File outputFile, boolean compact, boolean gzip)
+            throws IOException {
+        this(ctx, new FileOutputStream(OutputFiles.getFile(outputFile, gzip)), compact, gzip);
+    }
+
+    private StreamingBundleWriter(FhirContext ctx, FileOutputStream out, boolean compact, boolean gzip)
+            throws IOException {
+        this(ctx, OutputFiles.open(out, gzip), gzip ? null : out.getChannel(), compact, 0, 0);
+        append(compact
+                ? "{\"resourceType\":\"Bundle\",\"type\":\"transaction\""
+                : "{\n  \"resourceType\": \"Bundle\",\n  \"type\": \"transaction\"");
+    }
+
+    private StreamingBundleWriter(FhirContext ctx, Writer out, FileChannel channel, boolean compact,
+                                  long entryCount, long size) {
+        this.parser = ctx.newJsonParser().setPrettyPrint(!compact);
+        this.compact = compact;
+        this.out = out;
+        this.channel = channel;
+        this.entryCount = entryCount;
+        this.size = size;
+    }
+
+    /**
+     * Continues an uncompressed bundle. Everything after the offset is removed, so the offset and entry
+     * count must be those returned by {@link #flush()} and {@link #getEntryCount()} at the same time. The
+     * references of the entries kept are read back from the file.
+     */
+    public static StreamingBundleWriter resume(FhirContext ctx, File outputFile, boolean compact, long offset,
+                                               long entryCount) throws IOException {
+        FileChannel channel = FileChannel.open(outputFile.toPath(), StandardOpenOption.WRITE);
+        try {
+            if (channel.size() < offset) {
+                throw new IOException("Output file " + outputFile + " is shorter than the checkpoint");
+            }
+            channel.truncate(offset);
+            channel.position(offset);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        StreamingBundleWriter writer = new StreamingBundleWriter(ctx,
+                OutputFiles.open(Channels.newOutputStream(channel), false), channel, compact, entryCount, offset);
+        try (Reader in = Files.newBufferedReader(outputFile.toPath(), StandardCharsets.UTF_8)) {
+            writer.readReferences(in);
+        } catch (IOException e) {
+            writer.abort();
+            throw e;
+        }
+        return writer;
+    }
+
+    /**
+     * Adds the urls of the PUT requests in the bundle read to the references. The text of a request is
+     * only found where it is written by {@link #encodeEntry(Resource)}, as in encoded strings every quote
+     * is escaped and no line break is left.
+     */
+    private void readReferences(Reader in) throws IOException {
+        String start = getRequestStart(Bundle.HTTPVerb.PUT.toCode());
+        // the length of the longest prefix of the start which is a shorter suffix of its first i + 1 chars
+        int[] borders = new int[start.length()];
+        for (int i = 1, k = 0; i < start.length(); i++) {
+            while (k > 0 && start.charAt(i) != start.charAt(k)) {
+                k = borders[k - 1];
+            }
+            borders[i] = start.charAt(i) == start.charAt(k) ? ++k : 0;
+        }
+        StringBuilder url = new StringBuilder();
+        int matched = 0;
+        for (int c = in.read(); c >= 0; c = in.read()) {
+            if (matched < start.length()) {
+                while (matched > 0 && c != start.charAt(matched)) {
+                    matched = borders[matched - 1];
+                }
+                if (c == start.charAt(matched)) {
+                    matched++;
+                }
+            } else if (c == '"') {
+                references.add(url.toString());
+                url.setLength(0);
+                matched = 0;
+            } else {
+                url.append((char) (c == '\\' ? in.read() : c));
+            }
+        }
+    }
+
+    @Override
+    public boolean write(Resource resource) throws IOException {
+        if (!addReference(resource)) {
+            return false;
+        }
+        writeEntry(encodeEntry(resource));
+        return true;
+    }
+
+    /**
+     * @return false if the bundle already holds an entry for the resource, otherwise its entry is expected
+     *         to be {@link #writeEntry(String) written}
+     */
+    public boolean addReference(Resource resource) {
+        return resource.getId() == null || references.add(BundleWriter.getReference(resource));
+    }
+
+    /**
+     * @return the bundle entry for the resource as it is written by {@link #writeEntry(String)}
+     */
+    public String encodeEntry(Resource resource) {
+        Bundle.BundleEntryRequestComponent request = BundleWriter.getRequestComponent(resource);
+        if (compact) {
+            return "{\"resource\":" + parser.encodeResourceToString(resource) + ","
+                    + getRequestStart(request.getMethod().toCode()) + JsonUtil.escape(request.getUrl()) + "\"}}";
+        }
+        // encoded JSON never contains raw line breaks inside strings, so re-indenting by line is safe
+        return "    {\n      \"resource\": "
+                + parser.encodeResourceToString(resource).replace("\n", "\n" + ENTRY_INDENT)
+                + ",\n      " + getRequestStart(request.getMethod().toCode()) + JsonUtil.escape(request.getUrl())
+                + "\"\n      }\n    }";
+    }
+
+    @Override
+    public void delete(String reference) throws IOException {
+        writeEntry(encodeDeleteEntry(reference));
+    }
+
+    /**
+     * @return the bundle entry deleting the resource as it is written by {@link #writeEntry(String)}
+     */
+    public String encodeDeleteEntry(String reference) {
+        Bundle.BundleEntryRequestComponent request = BundleWriter.getDeleteRequestComponent(reference);
+        if (compact) {
+            return "{" + getRequestStart(request.getMethod().toCode()) + JsonUtil.escape(request.getUrl()) + "\"}}";
+        }
+        return "    {\n      " + getRequestStart(request.getMethod().toCode()) + JsonUtil.escape(request.getUrl())
+                + "\"\n      }\n    }";
+    }
+
+    /**
+     * @return the request of an entry up to the opening quote of its url
+     */
+    private String getRequestStart(String method) {
+        return compact
+                ? "\"request\":{\"method\":\"" + method + "\",\"url\":\""
+                : "\"request\": {\n        \"method\": \"" + method + "\",\n        \"url\": \"";
+    }
+
+    public void writeEntry(String entry) throws IOException {
+        append(getSeparator(entryCount++));
+        append(entry);
+    }
+
+    private void append(String s) throws IOException {
+        out.write(s);
+        size += OutputFiles.utf8Length(s);
+    }
+
+    /**
+     * @return what is written before the entry with the index
+     */
+    private String getSeparator(long index) {
+        if (compact) {
+            return index == 0 ? ",\"entry\":[" : ",";
+        }
+        return index == 0 ? ",\n  \"entry\": [\n" : ",\n";
+    }
+
+    /**
+     * @return what terminates a bundle with this many entries
+     */
+    private String getEnd(long entryCount) {
+        if (compact) {
+            return entryCount == 0 ? "}" : "]}";
+        }
+        return entryCount == 0 ? "\n}" : "\n  ]\n}";
+    }
+
+    /**
+     * @return the uncompressed size in bytes of the bundle if it was closed after an entry of this size
+     */
+    public long getSizeWith(long entryBytes) {
+        return size + OutputFiles.utf8Length(getSeparator(entryCount)) + entryBytes
+                + OutputFiles.utf8Length(getEnd(entryCount + 1));
+    }
+
+    /**
+     * Passes the written entries on to the file and forces them to the disk, so a checkpoint saved
+     * afterwards never points past data lost in a crash.
+     *
+     * @return the size of the file after the last entry
+     */
+    public long flush() throws IOException {
+        if (channel == null) {
+            throw new UnsupportedOperationException("The position in compressed output is unknown");
+        }
+        out.flush();
+        channel.force(false);
+        return channel.position();
+    }
+
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Closes the file without terminating the bundle, so it is no valid JSON, but can be resumed.
+     */
+    @Override
+    public void abort() throws IOException {
+        out.close();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            append(getEnd(entryCount));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package de.uni_leipzig.life.csv2fhir.output;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import de.uni_leipzig.life.csv2fhir.IdSet;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Resource;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Posts the entries in transaction or batch bundles of {@code batchSize} entries to the base url of a
+ * FHIR server while the conversion goes on. At most {@code maxInFlight} bundles are on their way; a
+ * further bundle blocks the writing thread until one of them is answered, so the conversion never
+ * runs ahead of the server by more than that.
+ * <p>
+ * Requests failing with a network error, 408, 429 or a 5xx status are repeated up to
+ * {@value #MAX_RETRIES} times with growing delays, or after the delay of a Retry-After header. Bundles
+ * may reach the server in another order than they were written. Only at the end of an input file, see
+ * {@link #completeFile()}, all of them are awaited, so references to the resources of earlier files
+ * always resolve, while references within a file can only be checked by the server if one bundle is in
+ * flight at a time.
+ * <p>
+ * The first bundle that fails for good is thrown by the next call, at the latest by {@link #close()}.
+ * <p>
+ * Only the references of the bundle begun are kept to leave out a second entry for a resource, so
+ * memory is bounded by the batch size.
+ */
+public class UploadWriter implements ResourceWriter {
+
+    public static final int MAX_RETRIES = 5;
+    private static final long INITIAL_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+    private static final Duration TIMEOUT = Duration.ofMinutes(10);
+    private static final String FHIR_JSON = "application/fhir+json";
+
+    private final FhirContext ctx;
+    private final IParser parser;
+    private final URI baseUrl;
+    private final int batchSize;
+    private final int maxInFlight;
+    private final boolean batch;
+    private final HttpClient client;
+    private final Semaphore inFlight;
+    private final AtomicReference<IOException> failure = new AtomicReference<>();
+    private final AtomicLong uploadedEntries = new AtomicLong();
+    private final AtomicLong uploadedBundles = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final IdSet references = new IdSet();
+    private Bundle bundle;
+    private long bundleCount;
+
+    /**
+     * @param batch send batch bundles, whose entries are processed independently, instead of transactions
+     */
+    public UploadWriter(FhirContext ctx, URI baseUrl, int batchSize, int maxInFlight, boolean batch) {
+        if (batchSize < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("Batch size and bundles in flight must be at least 1");
+        }
+        this.ctx = ctx;
+        this.parser = ctx.newJsonParser();
+        this.baseUrl = baseUrl;
+        this.batchSize = batchSize;
+        this.maxInFlight = maxInFlight;
+        this.batch = batch;
+        this.client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(30)).build();
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    @Override
+    public boolean write(Resource resource) throws IOException {
+        checkFailure();
+        startBundle();
+        if (resource.getId() != null && !references.add(BundleWriter.getReference(resource))) {
+            return false;
+        }
+        bundle.addEntry().setResource(resource).setRequest(BundleWriter.getRequestComponent(resource));
+        sendIfFull();
+        return true;
+    }
+
+    @Override
+    public void delete(String reference) throws IOException {
+        nextEntry().setRequest(BundleWriter.getDeleteRequestComponent(reference));
+        sendIfFull();
+    }
+
+    private Bundle.BundleEntryComponent nextEntry() throws IOException {
+        checkFailure();
+        startBundle();
+        return bundle.addEntry();
+    }
+
+    private void startBundle() {
+        if (bundle == null) {
+            bundle = new Bundle();
+            bundle.setType(batch ? Bundle.BundleType.BATCH : Bundle.BundleType.TRANSACTION);
+            references.clear();
+        }
+    }
+
+    private void sendIfFull() throws IOException {
+        if (bundle.getEntry().size() >= batchSize) {
+            send();
+        }
+    }
+
+    private void send() throws IOException {
+        int entries = bundle.getEntry().size();
+        HttpRequest request = HttpRequest.newBuilder(baseUrl)
+                .timeout(TIMEOUT)
+                .header("Content-Type", FHIR_JSON)
+                .header("Accept", FHIR_JSON)
+                .POST(HttpRequest.BodyPublishers.ofString(parser.encodeResourceToString(bundle)))
+                .build();
+        bundle = null;
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the server");
+        }
+        send(request, ++bundleCount, entries, 0);
+    }
+
+    private void send(HttpRequest request, long bundleNumber, int entries, int attempt) {
+        client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).whenComplete((response, error) -> {
+            if (error == null && response.statusCode() / 100 == 2) {
+                String failedEntries;
+                try {
+                    failedEntries = batch ? getFailedEntries(response.body()) : null;
+                } catch (RuntimeException e) {
+                    failedEntries = "of the unreadable response " + e.getMessage();
+                }
+                if (failedEntries != null) {
+                    failure.compareAndSet(null, new IOException("Upload of bundle " + bundleNumber
+                            + " failed for entries " + failedEntries));
+                } else {
+                    uploadedEntries.addAndGet(entries);
+                    uploadedBundles.incrementAndGet();
+                }
+                inFlight.release();
+            } else if (attempt < MAX_RETRIES && (error != null || isRetryable(response.statusCode()))) {
+                retries.incrementAndGet();
+                CompletableFuture.delayedExecutor(getBackoff(response, attempt), TimeUnit.MILLISECONDS)
+                        .execute(() -> send(request, bundleNumber, entries, attempt + 1));
+            } else {
+                failure.compareAndSet(null, error != null
+                        ? new IOException("Upload of bundle " + bundleNumber + " failed: " + error, error)
+                        : new IOException("Upload of bundle " + bundleNumber + " failed with status "
+                        + response.statusCode() + ": " + abbreviate(response.body())));
+                inFlight.release();
+            }
+        });
+    }
+
+    private static boolean isRetryable(int status) {
+        return status == 408 || status == 429 || status / 100 == 5;
+    }
+
+    private static long getBackoff(HttpResponse<String> response, int attempt) {
+        if (response != null) {
+            String retryAfter = response.headers().firstValue("Retry-After").orElse(null);
+            if (retryAfter != null && retryAfter.matches("\\d{1,9}")) {
+                return Math.min(Long.parseLong(retryAfter) * 1000, MAX_BACKOFF_MILLIS);
+            }
+        }
+        return Math.min(INITIAL_BACKOFF_MILLIS << attempt, MAX_BACKOFF_MILLIS);
+    }
+
+    /**
+     * @return the positions of the entries of a batch response without success status, null if all succeeded
+     */
+    private String getFailedEntries(String body) {
+        // runs on the threads of the client, so the parser of the writing thread can not be used
+        Bundle response = ctx.newJsonParser().parseResource(Bundle.class, body);
+        StringBuilder failed = new StringBuilder();
+        for (int i = 0; i < response.getEntry().size(); i++) {
+            String status = response.getEntry().get(i).getResponse().getStatus();
+            if (status == null || !status.startsWith("2")) {
+                failed.append(failed.length() > 0 ? ", " : "").append(i + 1).append(" (").append(status).append(')');
+            }
+        }
+        return failed.length() > 0 ? failed.toString() : null;
+    }
+
+    private static String abbreviate(String s) {
+        return s.length() > 500 ? s.substring(0, 500) + "..." : s;
+    }
+
+    private void checkFailure() throws IOException {
+        IOException e = failure.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    public long getUploadedEntries() {
+        return uploadedEntries.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    /**
+     * Sends the bundle begun and waits for the answers to all bundles, so no bundle of the next file
+     * reaches the server before the resources it references.
+     */
+    @Override
+    public void completeFile() throws IOException {
+        if (bundle != null) {
+            send();
+        }
+        awaitInFlight();
+        checkFailure();
+    }
+
+    /**
+     * Sends the last bundle and waits for the answers to all bundles.
+     */
+    @Override
+    public void close() throws IOException {
+        if (bundle != null && failure.get() == null) {
+            send();
+        }
+        awaitInFlight();
+        checkFailure();
+    }
+
+    /**
+     * Drops the bundle not yet sent and waits for the answers to the bundles on their way. Bundles already
+     * stored by the server can not be taken back.
+     */
+    @Override
+    public void abort() throws IOException {
+        bundle = null;
+        awaitInFlight();
+    }
+
+    private void awaitInFlight() throws IOException {
+        try {
+            inFlight.acquire(maxInFlight);
+            inFlight.release(maxInFlight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the server");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return uploadedEntries + " entries in " + uploadedBundles + " bundles uploaded, " + retries + " retries";
+    }
+}
@@ -0,0 +1,104 @@
+package de.uni_leipzig.life.csv2fhir.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A thread safe cache holding at most a fixed number of entries. The entries are spread over
+ * independently locked segments, each of which evicts its least recently used entry when it is full.
+ * Values must not be null.
+ */
+public final class BoundedCache<K, V> {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment<K, V>[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public BoundedCache(int maxSize) {
+        @SuppressWarnings("unchecked")
+        Segment<K, V>[] segments = (Segment<K, V>[]) new Segment<?, ?>[SEGMENTS];
+        this.segments = segments;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment<>(Math.max(1, maxSize / SEGMENTS), evictions);
+        }
+    }
+
+    /**
+     * @return the cached value for the key, computed with the loader if the key is not cached
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        Segment<K, V> segment = segments[(key.hashCode() & 0x7fffffff) % SEGMENTS];
+        synchronized (segment) {
+            V value = segment.get(key);
+            if (value != null) {
+                hits.increment();
+                return value;
+            }
+            misses.increment();
+            value = loader.apply(key);
+            segment.put(key, value);
+            return value;
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public double getHitRate() {
+        long requests = getHitCount() + getMissCount();
+        return requests == 0 ? 0 : (double) getHitCount() / requests;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d entries, %d hits, %d misses, %d evictions, hit rate %.1f%%",
+                size(), getHitCount(), getMissCount(), getEvictionCount(), getHitRate() * 100);
+    }
+
+    private static class Segment<K, V> extends LinkedHashMap<K, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+        private final LongAdder evictions;
+
+        Segment(int maxSize, LongAdder evictions) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            if (size() > maxSize) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -6,105 +6,159 @@ import org.hl7.fhir.r4.model.DateType;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.time.Year;
-import java.time.YearMonth;
 import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
 import java.util.Date;
 
+/**
+ * Parses the date formats of the csv files. The format is recognised by the shape of the text and the
+ * fields are read directly from its digits, so no formatter is tried in vain.
+ * <p>
+ * Supported are yyyy, yyyy-MM and yyyy-MM-dd (strict, like {@link LocalDate#parse(CharSequence)}),
+ * M/d/yyyy with one or two digit month and day, and dd.MM.yyyy, H:mm for date times. The last two
+ * resolve like {@link java.time.format.ResolverStyle#SMART}: a day beyond the end of the month is
+ * moved to the last day of the month and 24:00 is midnight of the next day.
+ * <p>
+ * The same timestamps occur many times in a file, so the parsed instants are cached by their text.
+ */
 public class DateUtil {
 
-    public static DateType parseDateType(String date) throws Exception {
-        return new DateType(
-                Date.from(parseLocalDate(date)
-                        .atStartOfDay(ZoneId.systemDefault())
-                        .toInstant()),
-                TemporalPrecisionEnum.DAY);
-    }
+    private static final int CACHE_SIZE = 1 << 16;
+    private static final long INVALID = Long.MIN_VALUE;
 
-    private static LocalDate parseLocalDate(String dateTime) throws Exception {
-        if (!dateTime.isBlank()) {
-            return tryDayFormat1(dateTime);
-        } else {
+    private static final BoundedCache<String, Long> dateCache = new BoundedCache<>(CACHE_SIZE);
+    private static final BoundedCache<String, Long> dateTimeCache = new BoundedCache<>(CACHE_SIZE);
+
+    public static DateType parseDateType(String date) throws Exception {
+        if (date == null) {
             throw new Exception();
         }
+        long instant = dateCache.get(date, DateUtil::toDateInstant);
+        if (instant == INVALID) {
+            throw new Exception();
+        }
+        return new DateType(new Date(instant), TemporalPrecisionEnum.DAY);
     }
 
-    private static LocalDate tryDayFormat1(String dateTime) throws Exception {
-        try {
-            return Year.parse(dateTime).atDay(1);
-        } catch (DateTimeParseException e) {
-            return tryDayFormat2(dateTime);
+    public static DateTimeType parseDateTimeType(String date) throws Exception {
+        if (date == null) {
+            throw new Exception();
+        }
+        long instant = dateTimeCache.get(date, DateUtil::toDateTimeInstant);
+        if (instant == INVALID) {
+            throw new Exception();
         }
+        return new DateTimeType(new Date(instant), TemporalPrecisionEnum.SECOND);
     }
 
-    private static LocalDate tryDayFormat2(String dateTime) throws Exception {
-        try {
-            return YearMonth.parse(dateTime).atDay(1);
-        } catch (DateTimeParseException e) {
-            return tryDayFormat3(dateTime);
-        }
+    public static BoundedCache<String, Long> getDateCache() {
+        return dateCache;
     }
 
-    private static LocalDate tryDayFormat3(String dateTime) throws Exception {
-        try {
-            return LocalDate.parse(dateTime);
-        } catch (DateTimeParseException e) {
-            return tryDayFormat4(dateTime);
-        }
+    public static BoundedCache<String, Long> getDateTimeCache() {
+        return dateTimeCache;
     }
 
-    private static LocalDate tryDayFormat4(String dateTime) throws Exception {
-        try {
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("MM/dd/yyyy");
-            return LocalDate.parse(dateTime, formatter);
-        } catch (DateTimeParseException e) {
-            return tryDayFormat5(dateTime);
-        }
+    private static long toDateInstant(String date) {
+        LocalDate localDate = parseLocalDate(date);
+        return localDate != null
+                ? localDate.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                : INVALID;
     }
 
-    private static LocalDate tryDayFormat5(String dateTime) throws Exception {
-        try {
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("M/dd/yyyy");
-            return LocalDate.parse(dateTime, formatter);
-        } catch (DateTimeParseException e) {
-            return tryDayFormat6(dateTime);
-        }
+    private static long toDateTimeInstant(String date) {
+        LocalDateTime localDateTime = parseLocalDateTime(date);
+        return localDateTime != null
+                ? localDateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                : INVALID;
     }
 
-    private static LocalDate tryDayFormat6(String dateTime) throws Exception {
-        try {
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("M/d/yyyy");
-            return LocalDate.parse(dateTime, formatter);
-        } catch (DateTimeParseException e) {
-            throw new Exception();
+    /**
+     * @return the date or null if the text is no valid date in one of the supported formats
+     */
+    private static LocalDate parseLocalDate(String s) {
+        int length = s.length();
+        if (length == 4) {
+            int year = digits(s, 0, 4);
+            return year >= 0 ? LocalDate.of(year, 1, 1) : null;
+        }
+        if (length == 7 && s.charAt(4) == '-') {
+            int year = digits(s, 0, 4);
+            int month = digits(s, 5, 7);
+            return year >= 0 && month >= 1 && month <= 12 ? LocalDate.of(year, month, 1) : null;
         }
+        if (length == 10 && s.charAt(4) == '-' && s.charAt(7) == '-') {
+            int year = digits(s, 0, 4);
+            int month = digits(s, 5, 7);
+            int day = digits(s, 8, 10);
+            if (year < 0 || month < 1 || month > 12 || day < 1
+                    || day > LocalDate.of(year, month, 1).lengthOfMonth()) {
+                return null;
+            }
+            return LocalDate.of(year, month, day);
+        }
+        // M/d/yyyy
+        int slash1 = s.indexOf('/');
+        if (slash1 == 1 || slash1 == 2) {
+            int slash2 = s.indexOf('/', slash1 + 1);
+            if (slash2 - slash1 == 2 || slash2 - slash1 == 3) {
+                if (length - slash2 != 5) {
+                    return null;
+                }
+                return smartDate(digits(s, slash2 + 1, length), digits(s, 0, slash1), digits(s, slash1 + 1, slash2));
+            }
+        }
+        return null;
     }
 
-    public static DateTimeType parseDateTimeType(String date) throws Exception {
-        return new DateTimeType(
-                Date.from(parseLocalDateTime(date)
-                        .atZone(ZoneId.systemDefault())
-                        .toInstant()),
-                TemporalPrecisionEnum.SECOND);
+    /**
+     * @return the date time or null if the text is no valid date or date time in one of the supported formats
+     */
+    private static LocalDateTime parseLocalDateTime(String s) {
+        LocalDate localDate = parseLocalDate(s);
+        if (localDate != null) {
+            return localDate.atStartOfDay();
+        }
+        // dd.MM.yyyy, H:mm
+        int length = s.length();
+        if ((length == 16 || length == 17) && s.charAt(2) == '.' && s.charAt(5) == '.'
+                && s.charAt(10) == ',' && s.charAt(11) == ' ' && s.charAt(length - 3) == ':') {
+            LocalDate date = smartDate(digits(s, 6, 10), digits(s, 3, 5), digits(s, 0, 2));
+            int hour = digits(s, 12, length - 3);
+            int minute = digits(s, length - 2, length);
+            if (date == null || hour < 0 || minute < 0 || minute > 59) {
+                return null;
+            }
+            if (hour == 24 && minute == 0) {
+                return date.plusDays(1).atStartOfDay();
+            }
+            return hour <= 23 ? date.atTime(hour, minute) : null;
+        }
+        return null;
     }
 
-    private static LocalDateTime parseLocalDateTime(String date) throws Exception {
-        try {
-            LocalDate localDate = parseLocalDate(date);
-            return localDate.atStartOfDay();
-        } catch (Exception e) {
-            return tryTimeFormat1(date);
+    private static LocalDate smartDate(int year, int month, int day) {
+        if (year < 1 || month < 1 || month > 12 || day < 1 || day > 31) {
+            return null;
         }
+        LocalDate firstOfMonth = LocalDate.of(year, month, 1);
+        return firstOfMonth.withDayOfMonth(Math.min(day, firstOfMonth.lengthOfMonth()));
     }
 
-    private static LocalDateTime tryTimeFormat1(String date) throws Exception {
-        try {
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd.MM.yyyy, H:mm");
-            return LocalDateTime.parse(date, formatter);
-        } catch (DateTimeParseException e) {
-            throw new Exception();
+    /**
+     * @return the number in s between from and to or -1 if there is anything but ascii digits
+     */
+    private static int digits(String s, int from, int to) {
+        if (from >= to) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
         }
+        return value;
     }
 }
@@ -0,0 +1,47 @@
+package de.uni_leipzig.life.csv2fhir.utils;
+
+/**
+ * The 64 bit FNV-1a hash, used where values are kept as hashes instead of strings.
+ */
+public final class HashUtil {
+
+    public static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private HashUtil() {
+    }
+
+    /**
+     * @return the FNV-1a hash of the chars of the string
+     */
+    public static long fnv1a(String s) {
+        return fnv1a(FNV_OFFSET, s);
+    }
+
+    /**
+     * @return the hash continued with the chars of the string
+     */
+    public static long fnv1a(long hash, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            hash = fnv1a(hash, s.charAt(i));
+        }
+        return hash;
+    }
+
+    /**
+     * @return the hash continued with the eight bytes of the value
+     */
+    public static long fnv1a(long hash, long value) {
+        for (int shift = 0; shift < Long.SIZE; shift += Byte.SIZE) {
+            hash = (hash ^ (value >>> shift & 0xff)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * @return the hash continued with the char
+     */
+    public static long fnv1a(long hash, char c) {
+        return (hash ^ c) * FNV_PRIME;
+    }
+}
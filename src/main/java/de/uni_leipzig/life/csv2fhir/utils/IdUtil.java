@@ -0,0 +1,38 @@
+package de.uni_leipzig.life.csv2fhir.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Creates resource ids from the values of a row, so converting the row again gives the same id and the
+ * server updates the resource instead of creating a second one.
+ * <p>
+ * The files hold different results for the same patient, code and time, so all converted values of a
+ * row are part of its id. A corrected row therefore gets a new id; the resource of the old row is
+ * deleted by an incremental conversion with delete requests for vanished rows. Identical rows get the
+ * same id, so only the resource of the first of them is written.
+ */
+public final class IdUtil {
+
+    // a control character, not expected inside the values of a csv file
+    private static final char SEPARATOR = '\u001f';
+
+    private IdUtil() {
+    }
+
+    /**
+     * @param kind   the name of the input file, so rows of different files never share an id
+     * @param values the values of the row, null for an empty value
+     * @return a name based UUID of the kind and the values
+     */
+    public static String nameBasedId(String kind, String... values) {
+        StringBuilder name = new StringBuilder(kind);
+        for (String value : values) {
+            name.append(SEPARATOR);
+            if (value != null) {
+                name.append(value);
+            }
+        }
+        return UUID.nameUUIDFromBytes(name.toString().getBytes(StandardCharsets.UTF_8)).toString();
+    }
+}
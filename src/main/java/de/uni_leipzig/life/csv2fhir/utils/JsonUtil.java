@@ -0,0 +1,22 @@
+package de.uni_leipzig.life.csv2fhir.utils;
+
+public class JsonUtil {
+
+    /**
+     * @return the text escaped for a json string, without the enclosing quotes
+     */
+    public static String escape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
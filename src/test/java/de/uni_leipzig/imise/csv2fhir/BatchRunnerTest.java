@@ -0,0 +1,71 @@
+package de.uni_leipzig.imise.csv2fhir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+import de.uni_leipzig.life.csv2fhir.Csv2Fhir;
+import de.uni_leipzig.life.csv2fhir.generator.CsvGenerator;
+import junit.framework.TestCase;
+
+public class BatchRunnerTest extends TestCase {
+
+    private File directory;
+
+    public BatchRunnerTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = Files.createTempDirectory("batch").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    public void testJobsRunSideBySideWithTheirOwnLogs() throws Exception {
+        File[] inputs = new File[3];
+        for (int i = 0; i < 2; i++) {
+            inputs[i] = new File(directory, "site" + i);
+            new CsvGenerator(inputs[i], 10 + i, 5, 0.1, i).generate();
+        }
+        inputs[2] = new File(directory, "site2.xlsx");
+        File csvDirectory = new File(directory, "site2");
+        new CsvGenerator(csvDirectory, 12, 5, 0.1, 2).generate();
+        SplitExcelTest.writeWorkbook(csvDirectory, inputs[2]);
+        File missing = new File(directory, "missing.xlsx");
+
+        List<BatchRunner.JobResult> results;
+        try (BatchRunner runner = new BatchRunner(2, 1)) {
+            for (File input : Arrays.asList(inputs[0], inputs[1], inputs[2], missing)) {
+                runner.submit(input, new File(directory, input.getName() + ".json"),
+                        new File(directory, input.getName() + ".log"));
+            }
+            results = runner.awaitAll();
+            runner.printSummary(System.out, results);
+        }
+
+        assertEquals(4, results.size());
+        for (int i = 0; i < inputs.length; i++) {
+            BatchRunner.JobResult result = results.get(i);
+            assertEquals(inputs[i].getName(), result.getName());
+            assertNull(result.getFailure());
+            assertTrue(result.getRecords() > 0);
+
+            File expected = new File(directory, "expected.json");
+            new Csv2Fhir(i < 2 ? inputs[i] : csvDirectory, expected).convertFiles();
+            assertEquals(FileUtils.readFileToString(expected, "UTF-8"),
+                    FileUtils.readFileToString(new File(directory, inputs[i].getName() + ".json"), "UTF-8"));
+            String log = FileUtils.readFileToString(new File(directory, inputs[i].getName() + ".log"), "UTF-8");
+            assertTrue(log, log.contains("Start parsing File:Person.csv"));
+        }
+        assertTrue(results.get(3).getFailure() instanceof java.io.FileNotFoundException);
+    }
+}
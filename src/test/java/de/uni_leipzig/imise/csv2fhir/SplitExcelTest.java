@@ -0,0 +1,244 @@
+package de.uni_leipzig.imise.csv2fhir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import de.uni_leipzig.life.csv2fhir.Csv2Fhir;
+import de.uni_leipzig.life.csv2fhir.generator.CsvGenerator;
+import junit.framework.TestCase;
+
+public class SplitExcelTest extends TestCase {
+
+    private File directory;
+
+    public SplitExcelTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = Files.createTempDirectory("split").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    public void testStreamingGivesTheSameCsvFiles() throws IOException {
+        compareModes(false);
+    }
+
+    public void testStreamingGivesTheSameCsvFilesFor1904Dates() throws IOException {
+        compareModes(true);
+    }
+
+    public void testTextIsQuotedAsInRfc4180() throws IOException {
+        String[] texts = {"say \"hi\"", "\"quoted\"", "two\nlines", "a, b", "plain"};
+        File excel = new File(directory, "quotes.xlsx");
+        try (XSSFWorkbook workbook = new XSSFWorkbook(); OutputStream out = new FileOutputStream(excel)) {
+            Sheet person = workbook.createSheet("Person");
+            person.createRow(0).createCell(0).setCellValue("Patient-ID");
+            for (int i = 0; i < texts.length; i++) {
+                person.createRow(i + 1).createCell(0).setCellValue(texts[i]);
+            }
+            workbook.write(out);
+        }
+        File csvDir = new SplitExcel().splitExcel(excel);
+        try (CSVParser parser = Csv2Fhir.CSV_FORMAT.parse(
+                Files.newBufferedReader(new File(csvDir, "Person.csv").toPath()))) {
+            List<CSVRecord> records = parser.getRecords();
+            assertEquals(texts.length, records.size());
+            for (int i = 0; i < texts.length; i++) {
+                assertEquals(texts[i], records.get(i).get("Patient-ID"));
+            }
+        }
+    }
+
+    public void testNumbersAreWrittenWithoutAnIntegralFraction() {
+        assertEquals("14", CellEncoder.format(14.0));
+        assertEquals("-3", CellEncoder.format(-3.0));
+        assertEquals("-0", CellEncoder.format(-0.0));
+        assertEquals("14.1", CellEncoder.format(14.1));
+        assertEquals("9999999", CellEncoder.format(9999999.0));
+        assertEquals("1.0E7", CellEncoder.format(1e7));
+        assertEquals("1.0E10", CellEncoder.format(1e10));
+        assertEquals("1.0E-4", CellEncoder.format(1e-4));
+    }
+
+    public void testMultiThreadedWorkbookSplitEqualsSingleThreadedSplit() throws IOException {
+        File generated = new File(directory, "generated");
+        new CsvGenerator(generated, 50, 20, 0.1, 1).generate();
+        File excel = new File(directory, "generated.xlsx");
+        writeWorkbook(generated, excel);
+
+        File csvDir = new SplitExcel().splitExcel(excel);
+        File singleThreadedDir = new File(directory, "single");
+        FileUtils.moveDirectory(csvDir, singleThreadedDir);
+        String[] files = singleThreadedDir.list();
+        assertTrue(files.length > 2);
+        SplitExcel split = new SplitExcel();
+        split.setSheetThreads(4);
+        split.splitExcel(excel);
+        assertEquals(files.length, csvDir.list().length);
+        for (String file : files) {
+            assertEquals(file, FileUtils.readFileToString(new File(singleThreadedDir, file), "UTF-8"),
+                    FileUtils.readFileToString(new File(csvDir, file), "UTF-8"));
+        }
+    }
+
+    public void testWorkbookThatCannotBeSplitIsReportedAsFailedJob() throws IOException {
+        new CsvGenerator(new File(directory, "generated"), 10, 5, 0.1, 1).generate();
+        writeWorkbook(new File(directory, "generated"), new File(directory, "b.xlsx"));
+        Files.write(new File(directory, "a.xlsx").toPath(), "not a workbook".getBytes("UTF-8"));
+
+        List<BatchRunner.JobResult> results = new SplitExcel().convertAllExcelInDir(directory);
+
+        assertEquals(2, results.size());
+        assertEquals("a.xlsx", results.get(0).getName());
+        assertNotNull(results.get(0).getFailure());
+        // the job converts the csv files split from the workbook
+        assertEquals("b", results.get(1).getName());
+        assertNull(results.get(1).getFailure());
+        assertTrue(results.get(1).getRecords() > 0);
+    }
+
+    public void testDirectConversionEqualsConversionOfCsvFiles() throws Exception {
+        File generated = new File(directory, "generated");
+        new CsvGenerator(generated, 20, 5, 0.1, 1).generate();
+        File excel = new File(directory, "generated.xlsx");
+        writeWorkbook(generated, excel);
+
+        File csvOutput = new File(directory, "csv.json");
+        new Csv2Fhir(new SplitExcel().splitExcel(excel), csvOutput).convertFiles();
+        File directOutput = new File(directory, "direct.json");
+        new SplitExcel().convertExcel(excel, directOutput);
+
+        String expected = FileUtils.readFileToString(csvOutput, "UTF-8");
+        assertTrue(expected.contains("\"Observation\""));
+        assertEquals(expected, FileUtils.readFileToString(directOutput, "UTF-8"));
+    }
+
+    private void compareModes(boolean date1904) throws IOException {
+        File excel = new File(directory, "test.xlsx");
+        writeWorkbook(excel, date1904);
+
+        File csvDir = new SplitExcel().splitExcel(excel);
+        File workbookDir = new File(directory, "workbook");
+        FileUtils.moveDirectory(csvDir, workbookDir);
+        String[] files = workbookDir.list();
+        assertEquals(2, files.length);
+        for (int mode = 0; mode < 3; mode++) {
+            SplitExcel split = new SplitExcel();
+            split.setStreaming(mode != 1);
+            split.setSheetThreads(mode == 0 ? 1 : 2);
+            split.splitExcel(excel);
+            assertEquals(files.length, csvDir.list().length);
+            for (String file : files) {
+                assertEquals(file, FileUtils.readFileToString(new File(workbookDir, file), "UTF-8"),
+                        FileUtils.readFileToString(new File(csvDir, file), "UTF-8"));
+            }
+        }
+        String laborbefund = FileUtils.readFileToString(new File(csvDir, "Laborbefund.csv"), "UTF-8");
+        assertTrue(laborbefund, laborbefund.contains("P1,718-7,\"Hb, venös\",14.1,g/dl,\"01.04.2020, 10:30\"" ));
+    }
+
+    /**
+     * Writes the csv files as sheets, numbers which are written back unchanged as numeric cells.
+     */
+    static void writeWorkbook(File csvDirectory, File excel) throws IOException {
+        try (XSSFWorkbook workbook = new XSSFWorkbook(); OutputStream out = new FileOutputStream(excel)) {
+            for (File csv : csvDirectory.listFiles()) {
+                Sheet sheet = workbook.createSheet(FilenameUtils.removeExtension(csv.getName()));
+                try (CSVParser parser = CSVFormat.DEFAULT.parse(Files.newBufferedReader(csv.toPath()))) {
+                    for (CSVRecord record : parser) {
+                        Row row = sheet.createRow((int) record.getRecordNumber() - 1);
+                        for (int i = 0; i < record.size(); i++) {
+                            String value = record.get(i);
+                            if (value.isEmpty()) {
+                                continue;
+                            }
+                            try {
+                                double number = Double.parseDouble(value);
+                                if (CellEncoder.format(number).equals(value)) {
+                                    row.createCell(i).setCellValue(number);
+                                    continue;
+                                }
+                            } catch (NumberFormatException e) {
+                                // text
+                            }
+                            row.createCell(i).setCellValue(value);
+                        }
+                    }
+                }
+            }
+            workbook.write(out);
+        }
+    }
+
+    private static void writeWorkbook(File excel, boolean date1904) throws IOException {
+        try (XSSFWorkbook workbook = new XSSFWorkbook(); OutputStream out = new FileOutputStream(excel)) {
+            if (date1904) {
+                workbook.getCTWorkbook().addNewWorkbookPr().setDate1904(true);
+            }
+            CellStyle dateStyle = workbook.createCellStyle();
+            dateStyle.setDataFormat(workbook.createDataFormat().getFormat("dd.mm.yyyy hh:mm"));
+
+            Sheet other = workbook.createSheet("Notizen");
+            other.createRow(0).createCell(0).setCellValue("skipped");
+
+            Sheet person = workbook.createSheet("Person");
+            Row header = person.createRow(0);
+            header.createCell(0).setCellValue("Patient-ID");
+            header.createCell(1).setCellValue("Geburtsdatum");
+            header.createCell(2).setCellValue("Geschlecht ");
+            header.createCell(4).setCellValue("not a column");
+            Row p1 = person.createRow(1);
+            p1.createCell(0).setCellValue("P1");
+            p1.createCell(1).setCellValue(1970);
+            p1.createCell(2).setCellValue("männlich");
+            Row p2 = person.createRow(3);
+            p2.createCell(0).setCellValue(2);
+            p2.createCell(2).setCellValue(true);
+            Row noId = person.createRow(4);
+            noId.createCell(1).setCellValue("skipped");
+            person.createRow(5);
+
+            Sheet lab = workbook.createSheet("Laborbefund");
+            String[] columns = {"Patient-ID", "LOINC", "Parameter", "Messwert", "Einheit", "Zeitstempel (Abnahme)"};
+            Row labHeader = lab.createRow(0);
+            for (int i = 0; i < columns.length; i++) {
+                labHeader.createCell(i).setCellValue(columns[i]);
+            }
+            for (int i = 1; i <= 3; i++) {
+                Row row = lab.createRow(i);
+                row.createCell(0).setCellValue("P" + i);
+                row.createCell(1).setCellValue("718-7");
+                row.createCell(2).setCellValue("Hb, venös");
+                row.createCell(3).setCellValue(i == 3 ? 1e10 : 14.1 * i);
+                row.createCell(4).setCellValue("g/dl");
+                row.createCell(5).setCellValue(new GregorianCalendar(2020, Calendar.APRIL, i, 10, 30));
+                row.getCell(5).setCellStyle(dateStyle);
+            }
+            lab.getRow(2).createCell(4).setCellFormula("A2&\"x\"");
+            lab.getRow(3).getCell(5).setCellStyle(null);
+            workbook.write(out);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package de.uni_leipzig.life.csv2fhir;
+
+import junit.framework.TestCase;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Resource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class ConversionStateTest extends TestCase {
+
+    private File directory;
+    private File stateFile;
+
+    public ConversionStateTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = Files.createTempDirectory("csv2fhir").toFile();
+        stateFile = new File(directory, "state");
+    }
+
+    @Override
+    protected void tearDown() {
+        stateFile.delete();
+        directory.delete();
+    }
+
+    public void testKeepsRowsAcrossRuns() throws IOException {
+        try (ConversionState state = ConversionState.load(stateFile)) {
+            state.startFile("Person.csv");
+            state.put("Person.csv", 1, resources(new Patient().setId("P1")));
+            state.put("Person.csv", 2, resources(new Patient().setId("P2")));
+            // a repeated row is saved once
+            state.put("Person.csv", 2, resources(new Patient().setId("P2")));
+            state.put("Laborbefund.csv", 3, resources(new Observation().setId("O1")));
+            state.save(stateFile);
+        }
+        // Laborbefund.csv is not converted, so it keeps its rows
+        try (ConversionState state = ConversionState.load(stateFile)) {
+            assertTrue(state.isUnchanged("Person.csv", 1));
+            assertTrue(state.isUnchanged("Person.csv", 2));
+            assertFalse(state.isUnchanged("Person.csv", 3));
+            state.startFile("Person.csv");
+            state.keep("Person.csv", 1);
+            state.put("Person.csv", 4, resources(new Patient().setId("P4")));
+            assertEquals(1, state.getVanishedCount());
+            assertEquals(Collections.singletonList("Patient/P2"), state.getVanishedReferences());
+            state.save(stateFile);
+        }
+        try (ConversionState state = ConversionState.load(stateFile)) {
+            assertTrue(state.isUnchanged("Person.csv", 1));
+            assertFalse(state.isUnchanged("Person.csv", 2));
+            assertTrue(state.isUnchanged("Person.csv", 4));
+            assertTrue(state.isUnchanged("Laborbefund.csv", 3));
+            state.startFile("Laborbefund.csv");
+            assertEquals(Collections.singletonList("Observation/O1"), state.getVanishedReferences());
+            // Person.csv is not converted, so none of its rows vanish
+            assertEquals(1, state.getVanishedCount());
+        }
+    }
+
+    public void testChangedRowKeepsItsResources() throws IOException {
+        try (ConversionState state = ConversionState.load(stateFile)) {
+            state.startFile("Laborbefund.csv");
+            state.put("Laborbefund.csv", 1, resources(new Observation().setId("O1"), new Observation().setId("O2")));
+            state.save(stateFile);
+        }
+        try (ConversionState state = ConversionState.load(stateFile)) {
+            state.startFile("Laborbefund.csv");
+            state.put("Laborbefund.csv", 2, resources(new Observation().setId("O2")));
+            assertEquals(1, state.getVanishedCount());
+            assertEquals(Collections.singletonList("Observation/O1"), state.getVanishedReferences());
+        }
+    }
+
+    private static List<Resource> resources(Resource... resources) {
+        return Arrays.asList(resources);
+    }
+}
@@ -0,0 +1,91 @@
+package de.uni_leipzig.life.csv2fhir;
+
+import de.uni_leipzig.life.csv2fhir.converterFactory.DiagnoseConverterFactory;
+import de.uni_leipzig.life.csv2fhir.converterFactory.LaborbefundConverterFactory;
+import de.uni_leipzig.life.csv2fhir.converterFactory.PersonConverterFactory;
+import junit.framework.TestCase;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.StringReader;
+
+public class ConverterTest extends TestCase {
+
+    public ConverterTest(String testName) {
+        super(testName);
+    }
+
+    public void testConvertWithIssuesCollectsAllProblems() throws Exception {
+        ConversionResult result = convert(new PersonConverterFactory(),
+                "Patient-ID,Vorname,Nachname,Anschrift,Geburtsdatum,Geschlecht,Krankenkasse\n"
+                        + "P1,Max,Mustermann,,19xx,x,AOK\n");
+        assertTrue(result.hasErrors());
+        assertTrue(result.getResources().isEmpty());
+        assertEquals(3, result.getIssues().size());
+        assertIssue(result.getIssues().get(0), false, "Geschlecht", Issue.Kind.INVALID_VALUE);
+        assertIssue(result.getIssues().get(1), false, "Geburtsdatum", Issue.Kind.INVALID_DATE);
+        assertIssue(result.getIssues().get(2), true, "Anschrift", Issue.Kind.EMPTY);
+    }
+
+    public void testConvertWithIssuesKeepsResourcesOnWarnings() throws Exception {
+        ConversionResult result = convert(new PersonConverterFactory(),
+                "Patient-ID,Vorname,Nachname,Anschrift,Geburtsdatum,Geschlecht,Krankenkasse\n"
+                        + "P1,Max,Mustermann,,1970,m,AOK\n");
+        assertFalse(result.hasErrors());
+        assertEquals(1, result.getResources().size());
+        assertEquals(1, result.getIssues().size());
+    }
+
+    public void testConvertWithIssuesAdaptsThrowingConverters() throws Exception {
+        ConversionResult result = convert(new DiagnoseConverterFactory(),
+                "Patient-ID,Bezeichner,ICD,Dokumentationsdatum,Typ\n"
+                        + ",Hypertonie,I10.90,2020-01-01,Aufnahmediagnose\n");
+        assertTrue(result.getResources().isEmpty());
+        assertEquals(1, result.getIssues().size());
+        assertIssue(result.getIssues().get(0), false, "Patient-ID", Issue.Kind.EMPTY);
+    }
+
+    public void testConvertThrowsFirstError() throws Exception {
+        CSVRecord record = parse("Patient-ID,Vorname,Nachname,Anschrift,Geburtsdatum,Geschlecht,Krankenkasse\n"
+                + "P1,Max,Mustermann,,19xx,x,AOK\n");
+        PersonConverterFactory factory = new PersonConverterFactory();
+        try {
+            factory.create(new CsvRow(record), factory.bindColumns(record.getParser().getHeaderMap())).convert();
+            fail();
+        } catch (ConversionException e) {
+            assertEquals("Geschlecht", e.getIssue().getColumn());
+            assertTrue(e.getMessage(), e.getMessage().contains("for Record: 1!"));
+        }
+    }
+
+    public void testIdsDependOnRowValues() throws Exception {
+        String header = "Patient-ID,LOINC,Parameter,Messwert,Einheit,Zeitstempel (Abnahme)\n";
+        String id = convert(new LaborbefundConverterFactory(),
+                header + "P1,718-7,Hb,14.1,g/dl,\"01.04.2020, 10:00\"\n").getResources().get(0).getId();
+        assertEquals(36, id.length());
+        assertEquals(id, convert(new LaborbefundConverterFactory(),
+                header + "P1,718-7,Hb,14.1,g/dl,\"01.04.2020, 10:00\"\n").getResources().get(0).getId());
+        assertFalse(id.equals(convert(new LaborbefundConverterFactory(),
+                header + "P1,718-7,Hb,9.8,g/dl,\"01.04.2020, 10:00\"\n").getResources().get(0).getId()));
+        assertFalse(id.equals(convert(new LaborbefundConverterFactory(),
+                header + "P2,718-7,Hb,14.1,g/dl,\"01.04.2020, 10:00\"\n").getResources().get(0).getId()));
+        assertFalse(id.equals(convert(new LaborbefundConverterFactory(),
+                header + "P1,718-7,Hb,14.1,g/dl,\"01.04.2020, 11:00\"\n").getResources().get(0).getId()));
+    }
+
+    private static ConversionResult convert(ConverterFactory factory, String csv) throws Exception {
+        CSVRecord record = parse(csv);
+        return factory.create(new CsvRow(record), factory.bindColumns(record.getParser().getHeaderMap())).convertWithIssues();
+    }
+
+    private static CSVRecord parse(String csv) throws Exception {
+        CSVParser parser = Csv2Fhir.CSV_FORMAT.parse(new StringReader(csv));
+        return parser.iterator().next();
+    }
+
+    private static void assertIssue(Issue issue, boolean warning, String column, Issue.Kind kind) {
+        assertEquals(warning, issue.isWarning());
+        assertEquals(column, issue.getColumn());
+        assertEquals(kind, issue.getKind());
+    }
+}
@@ -0,0 +1,630 @@
+package de.uni_leipzig.life.csv2fhir;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.DataFormatException;
+import de.uni_leipzig.life.csv2fhir.generator.CsvGenerator;
+import de.uni_leipzig.life.csv2fhir.output.BundleWriter;
+import de.uni_leipzig.life.csv2fhir.output.ChunkedBundleWriter;
+import de.uni_leipzig.life.csv2fhir.output.ResourceWriter;
+import de.uni_leipzig.life.csv2fhir.output.StreamingBundleWriter;
+import junit.framework.TestCase;
+import org.apache.commons.io.IOUtils;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Encounter;
+import org.hl7.fhir.r4.model.Observation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+public class Csv2FhirTest extends TestCase {
+
+    private static final File INPUT_DIRECTORY = new File("resources");
+
+    public Csv2FhirTest(String testName) {
+        super(testName);
+    }
+
+    public void testStreamingOutputEqualsBundleOutput() throws Exception {
+        File expected = convert(converter -> {});
+        File actual = convert(converter -> converter.setStreaming(true));
+        assertEquals(read(expected), read(actual));
+    }
+
+    public void testCompactStreamingOutputEqualsCompactBundleOutput() throws Exception {
+        File expected = convert(converter -> converter.setCompact(true));
+        File actual = convert(converter -> {
+            converter.setCompact(true);
+            converter.setStreaming(true);
+        });
+        assertEquals(read(expected), read(actual));
+    }
+
+    public void testParallelOutputEqualsSequentialOutput() throws Exception {
+        File expected = convert(converter -> {});
+        File actual = convert(converter -> converter.setThreads(4));
+        assertEquals(read(expected), read(actual));
+    }
+
+    public void testParallelFilesOutputEqualsSequentialOutput() throws Exception {
+        Csv2Fhir[] converters = new Csv2Fhir[2];
+        File expected = convert(converter -> converters[0] = converter);
+        File actual = convert(converter -> {
+            converter.setParallelFiles(true);
+            converter.setThreads(2);
+            converters[1] = converter;
+        });
+        assertEquals(read(expected), read(actual));
+        // the issues of the spooled files are reported as well
+        StringWriter expectedReport = new StringWriter();
+        converters[0].getDiagnostics().writeReport(expectedReport);
+        StringWriter actualReport = new StringWriter();
+        converters[1].getDiagnostics().writeReport(actualReport);
+        assertEquals(expectedReport.toString(), actualReport.toString());
+    }
+
+    public void testParallelFilesSpoolingToDiskEqualsSequentialOutput() throws Exception {
+        File inputDirectory = Files.createTempDirectory("csv2fhir").toFile();
+        // more results than a file keeps in memory while it waits for its turn
+        Map<String, Long> rows = new CsvGenerator(inputDirectory, 100, 60, 0.1, 1).generate();
+        assertTrue(rows.toString(), rows.get("Laborbefund") > 4096);
+        File[] outputFiles = new File[2];
+        Diagnostics[] diagnostics = new Diagnostics[2];
+        for (int i = 0; i < 2; i++) {
+            outputFiles[i] = File.createTempFile("csv2fhir", ".json");
+            Csv2Fhir converter = new Csv2Fhir(inputDirectory, outputFiles[i]);
+            converter.setStreaming(true);
+            converter.setParallelFiles(i == 1);
+            converter.convertFiles();
+            diagnostics[i] = converter.getDiagnostics();
+        }
+        assertEquals(read(outputFiles[0]), read(outputFiles[1]));
+        StringWriter expectedReport = new StringWriter();
+        diagnostics[0].writeReport(expectedReport);
+        StringWriter actualReport = new StringWriter();
+        diagnostics[1].writeReport(actualReport);
+        assertEquals(expectedReport.toString(), actualReport.toString());
+
+        for (File file : outputFiles) {
+            file.delete();
+        }
+        for (File file : inputDirectory.listFiles()) {
+            file.delete();
+        }
+        inputDirectory.delete();
+    }
+
+    public void testObservationsReferenceEncountersOfTheBundle() throws Exception {
+        Bundle bundle = parse(FhirContext.forR4(), convert(converter -> {}));
+        Set<String> encounters = new HashSet<>();
+        for (Bundle.BundleEntryComponent entry : bundle.getEntry()) {
+            if (entry.getResource() instanceof Encounter) {
+                encounters.add("Encounter/" + entry.getResource().getIdElement().getIdPart());
+            }
+        }
+        int linked = 0;
+        for (Bundle.BundleEntryComponent entry : bundle.getEntry()) {
+            if (entry.getResource() instanceof Observation && ((Observation) entry.getResource()).hasEncounter()) {
+                String reference = ((Observation) entry.getResource()).getEncounter().getReference();
+                assertTrue(reference, encounters.contains(reference));
+                linked++;
+            }
+        }
+        assertTrue(linked > 0);
+    }
+
+    public void testChunkedOutputSplitsEntries() throws Exception {
+        FhirContext ctx = FhirContext.forR4();
+        Set<String> expected = getUrls(parse(ctx, convert(converter -> {})));
+
+        File outputDirectory = Files.createTempDirectory("csv2fhir").toFile();
+        File outputFile = new File(outputDirectory, "bundle.json");
+        Csv2Fhir converter = new Csv2Fhir(INPUT_DIRECTORY, outputFile);
+        converter.setMaxEntries(100);
+        converter.convertFiles();
+
+        // a resource repeated in another bundle is written again, but never twice in one bundle
+        Set<String> actual = new HashSet<>();
+        File chunk;
+        for (int i = 1; (chunk = ChunkedBundleWriter.getChunkFile(outputFile, i)).exists(); i++) {
+            Bundle bundle = parse(ctx, chunk);
+            assertTrue(bundle.getEntry().size() <= 100);
+            actual.addAll(getUrls(bundle));
+            chunk.delete();
+        }
+        outputDirectory.delete();
+        assertEquals(expected, actual);
+    }
+
+    public void testChunkedOutputRespectsMaxBytes() throws Exception {
+        FhirContext ctx = FhirContext.forR4();
+        Set<String> expected = getUrls(parse(ctx, convert(converter -> {})));
+
+        File outputDirectory = Files.createTempDirectory("csv2fhir").toFile();
+        File outputFile = new File(outputDirectory, "bundle.json");
+        Csv2Fhir converter = new Csv2Fhir(INPUT_DIRECTORY, outputFile);
+        converter.setMaxBytes(20000);
+        converter.convertFiles();
+
+        Set<String> actual = new HashSet<>();
+        File chunk;
+        for (int i = 1; (chunk = ChunkedBundleWriter.getChunkFile(outputFile, i)).exists(); i++) {
+            assertTrue(chunk + " has " + chunk.length() + " bytes", chunk.length() <= 20000);
+            actual.addAll(getUrls(parse(ctx, chunk)));
+            chunk.delete();
+        }
+        outputDirectory.delete();
+        assertEquals(expected, actual);
+    }
+
+    public void testNdjsonOutputHasOneLinePerResource() throws Exception {
+        FhirContext ctx = FhirContext.forR4();
+        Map<String, Set<String>> expected = new HashMap<>();
+        for (Bundle.BundleEntryComponent entry : parse(ctx, convert(converter -> {})).getEntry()) {
+            expected.computeIfAbsent(entry.getResource().getResourceType() + ".ndjson", key -> new HashSet<>())
+                    .add(entry.getResource().getIdElement().getIdPart());
+        }
+
+        File outputDirectory = Files.createTempDirectory("csv2fhir").toFile();
+        Csv2Fhir converter = new Csv2Fhir(INPUT_DIRECTORY, outputDirectory);
+        converter.setNdjson(true);
+        converter.convertFiles();
+
+        // a resource repeated in the input is written again, as every line is loaded on its own
+        Map<String, Set<String>> actual = new HashMap<>();
+        for (File file : outputDirectory.listFiles()) {
+            Set<String> ids = new HashSet<>();
+            for (String line : Files.readAllLines(file.toPath())) {
+                ids.add(ctx.newJsonParser().parseResource(line).getIdElement().getIdPart());
+            }
+            actual.put(file.getName(), ids);
+            file.delete();
+        }
+        outputDirectory.delete();
+        assertEquals(expected, actual);
+    }
+
+    public void testGzippedOutputEqualsUncompressedOutput() throws Exception {
+        List<Consumer<Csv2Fhir>> outputs = Arrays.asList(
+                converter -> {},
+                converter -> converter.setStreaming(true),
+                converter -> converter.setMaxEntries(100),
+                converter -> converter.setNdjson(true));
+        for (Consumer<Csv2Fhir> output : outputs) {
+            File expectedDirectory = convertInto(output, false);
+            File actualDirectory = convertInto(output, true);
+            List<File> expectedFiles = listFiles(expectedDirectory);
+            assertFalse(expectedFiles.isEmpty());
+            assertEquals(expectedFiles.size(), listFiles(actualDirectory).size());
+            for (File expected : expectedFiles) {
+                File actual = new File(actualDirectory,
+                        expectedDirectory.toPath().relativize(expected.toPath()) + ".gz");
+                assertTrue(actual + " is missing", actual.exists());
+                assertEquals(read(expected), readGzip(actual));
+                expected.delete();
+                actual.delete();
+            }
+            deleteDirectories(expectedDirectory);
+            deleteDirectories(actualDirectory);
+        }
+    }
+
+    public void testDiagnosticsGroupErrorsByColumnAndKind() throws Exception {
+        File inputDirectory = Files.createTempDirectory("csv2fhir").toFile();
+        File input = new File(inputDirectory, "Laborbefund.csv");
+        StringBuilder csv = new StringBuilder("Patient-ID,LOINC,Parameter,Messwert,Einheit,Zeitstempel (Abnahme)\n");
+        for (int i = 0; i < 20; i++) {
+            // distinct times, as identical rows are written once with a warning
+            csv.append("P1,718-7,Hb,").append(i % 2 == 0 ? "x" : "14.1")
+                    .append(String.format(",g/dl,\"01.04.2020, 10:%02d\"\n", i));
+        }
+        csv.append("P1,718-7,Hb,14.1,Eimer,\"01.04.2020, 10:00\"\n");
+        Files.write(input.toPath(), csv.toString().getBytes(StandardCharsets.UTF_8));
+        File outputFile = new File(inputDirectory, "bundle.json");
+        File reportFile = new File(inputDirectory, "report.json");
+
+        Csv2Fhir converter = new Csv2Fhir(inputDirectory, outputFile);
+        converter.setDiagnosticsFile(reportFile);
+        converter.convertFiles();
+        String report = read(reportFile);
+        input.delete();
+        outputFile.delete();
+        reportFile.delete();
+        inputDirectory.delete();
+
+        assertEquals(10, converter.getDiagnostics().getErrorCount());
+        assertEquals(1, converter.getDiagnostics().getWarningCount());
+        assertTrue(report, report.contains("\"column\": \"Messwert\",\n      \"kind\": \"NOT_NUMERIC\""));
+        assertTrue(report, report.contains("\"records\": [1, 3, 5, 7, 9, 11, 13, 15, 17, 19]"));
+        assertTrue(report, report.contains("\"kind\": \"UNKNOWN_UNIT\",\n      \"severity\": \"warning\""));
+    }
+
+    public void testOrphansAreFlaggedOrDropped() throws Exception {
+        FhirContext ctx = FhirContext.forR4();
+        File inputDirectory = Files.createTempDirectory("csv2fhir").toFile();
+        Files.write(new File(inputDirectory, "Person.csv").toPath(), Arrays.asList(
+                "Patient-ID,Vorname,Nachname,Anschrift,Geburtsdatum,Geschlecht,Krankenkasse",
+                "P1,Max,Mustermann,\"Hauptstr. 1, 04109 Leipzig\",1970,m,AOK"));
+        Files.write(new File(inputDirectory, "Laborbefund.csv").toPath(), Arrays.asList(
+                "Patient-ID,LOINC,Parameter,Messwert,Einheit,Zeitstempel (Abnahme)",
+                "P1,718-7,Hb,14.1,g/dl,\"01.04.2020, 10:00\"",
+                "P2,718-7,Hb,14.1,g/dl,\"01.04.2020, 10:00\""));
+        Map<Csv2Fhir.Orphans, Integer> entries = new HashMap<>();
+        for (Csv2Fhir.Orphans orphans : Csv2Fhir.Orphans.values()) {
+            File outputFile = File.createTempFile("csv2fhir", ".json");
+            Csv2Fhir converter = new Csv2Fhir(inputDirectory, outputFile);
+            converter.setOrphans(orphans);
+            converter.convertFiles();
+            entries.put(orphans, parse(ctx, outputFile).getEntry().size());
+            outputFile.delete();
+            Diagnostics diagnostics = converter.getDiagnostics();
+            assertEquals(orphans == Csv2Fhir.Orphans.DROP ? 1 : 0, diagnostics.getErrorCount());
+            assertEquals(orphans == Csv2Fhir.Orphans.FLAG ? 1 : 0, diagnostics.getWarningCount());
+        }
+        assertEquals(3, (int) entries.get(Csv2Fhir.Orphans.KEEP));
+        assertEquals(3, (int) entries.get(Csv2Fhir.Orphans.FLAG));
+        assertEquals(2, (int) entries.get(Csv2Fhir.Orphans.DROP));
+
+        for (File file : inputDirectory.listFiles()) {
+            file.delete();
+        }
+        inputDirectory.delete();
+    }
+
+    public void testDuplicatedRowIsWrittenOnce() throws Exception {
+        FhirContext ctx = FhirContext.forR4();
+        File inputDirectory = Files.createTempDirectory("csv2fhir").toFile();
+        Files.write(new File(inputDirectory, "Laborbefund.csv").toPath(), Arrays.asList(
+                "Patient-ID,LOINC,Parameter,Messwert,Einheit,Zeitstempel (Abnahme)",
+                "P1,718-7,Hb,14.1,g/dl,\"01.04.2020, 10:00\"",
+                "P1,718-7,Hb,14.1,g/dl,\"01.04.2020, 10:00\"",
+                "P1,718-7,Hb,14.2,g/dl,\"01.04.2020, 10:00\""));
+        File outputFile = File.createTempFile("csv2fhir", ".json");
+        Csv2Fhir converter = new Csv2Fhir(inputDirectory, outputFile);
+        converter.convertFiles();
+        List<Bundle.BundleEntryComponent> entries = parse(ctx, outputFile).getEntry();
+        outputFile.delete();
+        for (File file : inputDirectory.listFiles()) {
+            file.delete();
+        }
+        inputDirectory.delete();
+
+        assertEquals(2, entries.size());
+        assertFalse(entries.get(0).getRequest().getUrl().equals(entries.get(1).getRequest().getUrl()));
+        assertEquals(0, converter.getDiagnostics().getErrorCount());
+        assertEquals(1, converter.getDiagnostics().getWarningCount());
+    }
+
+    public void testIncrementalConversionWritesOnlyChanges() throws Exception {
+        FhirContext ctx = FhirContext.forR4();
+        File directory = Files.createTempDirectory("csv2fhir").toFile();
+        File inputDirectory = new File(directory, "input");
+        inputDirectory.mkdir();
+        File input = new File(inputDirectory, "Person.csv");
+        List<String> lines = Files.readAllLines(new File(INPUT_DIRECTORY, "Person.csv").toPath());
+        Files.write(input.toPath(), lines);
+        File stateFile = new File(directory, "state");
+
+        int rows = lines.size() - 1;
+        assertEquals(rows, parse(ctx, convertIncremental(inputDirectory, stateFile, false)).getEntry().size());
+        assertEquals(0, parse(ctx, convertIncremental(inputDirectory, stateFile, false)).getEntry().size());
+
+        // change the second patient and remove the third
+        String changed = lines.get(2).replace("AOK", "TK");
+        String removed = lines.get(3);
+        lines.set(2, changed);
+        lines.remove(3);
+        Files.write(input.toPath(), lines);
+        List<Bundle.BundleEntryComponent> entries =
+                parse(ctx, convertIncremental(inputDirectory, stateFile, true)).getEntry();
+        assertEquals(2, entries.size());
+        assertEquals(Bundle.HTTPVerb.PUT, entries.get(0).getRequest().getMethod());
+        assertEquals("Patient/" + changed.split(",")[0], entries.get(0).getRequest().getUrl());
+        assertEquals(Bundle.HTTPVerb.DELETE, entries.get(1).getRequest().getMethod());
+        assertEquals("Patient/" + removed.split(",")[0], entries.get(1).getRequest().getUrl());
+        assertFalse(entries.get(1).hasResource());
+
+        input.delete();
+        inputDirectory.delete();
+        stateFile.delete();
+        directory.delete();
+    }
+
+    public void testIncrementalConversionRelinksChangedEncounter() throws Exception {
+        FhirContext ctx = FhirContext.forR4();
+        File directory = Files.createTempDirectory("csv2fhir").toFile();
+        File inputDirectory = new File(directory, "input");
+        inputDirectory.mkdir();
+        File versorgungsfall = new File(inputDirectory, "Versorgungsfall.csv");
+        Files.write(versorgungsfall.toPath(), Arrays.asList(
+                "Patient-ID,Versorgungsfallgrund (Aufnahmediagnose),Startdatum,Enddatum,Versorgungsfallklasse",
+                "P1,,\"01.04.2020, 00:00\",\"08.04.2020, 00:00\",stationaer"));
+        Files.write(new File(inputDirectory, "Laborbefund.csv").toPath(), Arrays.asList(
+                "Patient-ID,LOINC,Parameter,Messwert,Einheit,Zeitstempel (Abnahme)",
+                "P1,718-7,Hb,14.1,g/dl,\"02.04.2020, 10:00\""));
+        File stateFile = new File(directory, "state");
+        List<Bundle.BundleEntryComponent> entries =
+                parse(ctx, convertIncremental(inputDirectory, stateFile, false)).getEntry();
+        String oldEncounter = entries.get(0).getRequest().getUrl();
+
+        // a corrected Startdatum gives the encounter a new id
+        Files.write(versorgungsfall.toPath(), Arrays.asList(
+                "Patient-ID,Versorgungsfallgrund (Aufnahmediagnose),Startdatum,Enddatum,Versorgungsfallklasse",
+                "P1,,\"02.04.2020, 00:00\",\"08.04.2020, 00:00\",stationaer"));
+        entries = parse(ctx, convertIncremental(inputDirectory, stateFile, true)).getEntry();
+        assertEquals(3, entries.size());
+        String newEncounter = entries.get(0).getRequest().getUrl();
+        assertFalse(oldEncounter.equals(newEncounter));
+        Observation observation = (Observation) entries.get(1).getResource();
+        assertEquals(newEncounter, observation.getEncounter().getReference());
+        assertEquals(Bundle.HTTPVerb.DELETE, entries.get(2).getRequest().getMethod());
+        assertEquals(oldEncounter, entries.get(2).getRequest().getUrl());
+
+        for (File file : inputDirectory.listFiles()) {
+            file.delete();
+        }
+        inputDirectory.delete();
+        stateFile.delete();
+        directory.delete();
+    }
+
+    public void testStreamingDeleteEntriesEqualBundleDeleteEntries() throws Exception {
+        FhirContext ctx = FhirContext.forR4();
+        for (boolean compact : new boolean[]{false, true}) {
+            File expected = File.createTempFile("csv2fhir", ".json");
+            File actual = File.createTempFile("csv2fhir", ".json");
+            try (ResourceWriter writer = new BundleWriter(ctx, expected, compact, false)) {
+                writer.delete("Patient/1");
+                writer.delete("Observation/2");
+            }
+            try (ResourceWriter writer = new StreamingBundleWriter(ctx, actual, compact, false)) {
+                writer.delete("Patient/1");
+                writer.delete("Observation/2");
+            }
+            assertEquals(read(expected), read(actual));
+            expected.delete();
+            actual.delete();
+        }
+    }
+
+    public void testResumedOutputEqualsCompleteOutput() throws Exception {
+        File expected = convert(converter -> converter.setStreaming(true));
+        File inputDirectory = Files.createTempDirectory("csv2fhir").toFile();
+        for (String fileName : INPUT_DIRECTORY.list()) {
+            Files.copy(new File(INPUT_DIRECTORY, fileName).toPath(), new File(inputDirectory, fileName).toPath());
+        }
+        // an unterminated quote aborts the conversion in the middle of the file
+        File input = new File(inputDirectory, "Laborbefund.csv");
+        List<String> lines = Files.readAllLines(input.toPath());
+        List<String> broken = new ArrayList<>(lines);
+        broken.set(2000, "\"" + broken.get(2000));
+        Files.write(input.toPath(), broken);
+        File outputFile = new File(inputDirectory, "bundle.json");
+
+        // checkpoints are only saved when asked for
+        Csv2Fhir converter = new Csv2Fhir(inputDirectory, outputFile);
+        converter.setStreaming(true);
+        try {
+            converter.convertFiles();
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertFalse(Csv2Fhir.getCheckpointFile(outputFile).exists());
+
+        converter = new Csv2Fhir(inputDirectory, outputFile);
+        converter.setStreaming(true);
+        converter.setCheckpointInterval(100);
+        try {
+            converter.convertFiles();
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertTrue(Csv2Fhir.getCheckpointFile(outputFile).exists());
+
+        Files.write(input.toPath(), lines);
+        converter = new Csv2Fhir(inputDirectory, outputFile);
+        converter.setStreaming(true);
+        converter.setResume(true);
+        converter.convertFiles();
+        assertEquals(read(expected), read(outputFile));
+        assertFalse(Csv2Fhir.getCheckpointFile(outputFile).exists());
+
+        for (File file : inputDirectory.listFiles()) {
+            file.delete();
+        }
+        inputDirectory.delete();
+    }
+
+    public void testResumedOutputLeavesOutDuplicatesOnBothSidesOfTheCheckpoint() throws Exception {
+        File inputDirectory = Files.createTempDirectory("csv2fhir").toFile();
+        File input = new File(inputDirectory, "Laborbefund.csv");
+        List<String> lines = Arrays.asList(
+                "Patient-ID,LOINC,Parameter,Messwert,Einheit,Zeitstempel (Abnahme)",
+                "P1,718-7,Hb,14.1,g/dl,\"01.04.2020, 10:00\"",
+                "P1,718-7,Hb,14.1,g/dl,\"01.04.2020, 10:01\"",
+                "P1,718-7,Hb,14.1,g/dl,\"01.04.2020, 10:00\"",
+                // the first row after the checkpoint repeats one before it
+                "P1,718-7,Hb,14.1,g/dl,\"01.04.2020, 10:01\"",
+                "P1,718-7,Hb,14.1,g/dl,\"01.04.2020, 10:02\"",
+                "P1,718-7,Hb,14.1,g/dl,\"01.04.2020, 10:02\"");
+        List<String> broken = new ArrayList<>(lines);
+        broken.set(4, "\"" + broken.get(4));
+        File outputFile = new File(inputDirectory, "bundle.json");
+        File expected = new File(inputDirectory, "expected.json");
+        for (boolean compact : new boolean[]{false, true}) {
+            Files.write(input.toPath(), lines);
+            Csv2Fhir converter = new Csv2Fhir(inputDirectory, expected);
+            converter.setStreaming(true);
+            converter.setCompact(compact);
+            converter.convertFiles();
+
+            Files.write(input.toPath(), broken);
+            converter = new Csv2Fhir(inputDirectory, outputFile);
+            converter.setStreaming(true);
+            converter.setCompact(compact);
+            converter.setCheckpointInterval(1);
+            try {
+                converter.convertFiles();
+                fail();
+            } catch (IllegalStateException e) {
+                // expected
+            }
+
+            Files.write(input.toPath(), lines);
+            converter = new Csv2Fhir(inputDirectory, outputFile);
+            converter.setStreaming(true);
+            converter.setCompact(compact);
+            converter.setResume(true);
+            converter.convertFiles();
+            assertEquals(read(expected), read(outputFile));
+            assertEquals(3, parse(FhirContext.forR4(), outputFile).getEntry().size());
+            assertEquals(2, converter.getDiagnostics().getWarningCount());
+        }
+
+        for (File file : inputDirectory.listFiles()) {
+            file.delete();
+        }
+        inputDirectory.delete();
+    }
+
+    public void testFailedConversionLeavesNoLoadableOutput() throws Exception {
+        FhirContext ctx = FhirContext.forR4();
+        File inputDirectory = Files.createTempDirectory("csv2fhir").toFile();
+        Files.write(new File(inputDirectory, "Person.csv").toPath(), Arrays.asList(
+                "Patient-ID,Vorname,Nachname,Anschrift,Geburtsdatum,Geschlecht,Krankenkasse",
+                "P1,Max,Mustermann,\"Hauptstr. 1, 04109 Leipzig\",1970,m,AOK"));
+        // the missing columns fail the conversion after Person.csv is written
+        Files.write(new File(inputDirectory, "Laborbefund.csv").toPath(), Arrays.asList(
+                "Patient-ID,LOINC",
+                "P1,718-7"));
+        List<Consumer<Csv2Fhir>> outputs = Arrays.asList(
+                converter -> {},
+                converter -> converter.setStreaming(true),
+                converter -> converter.setMaxEntries(1),
+                converter -> converter.setNdjson(true));
+        for (Consumer<Csv2Fhir> output : outputs) {
+            File outputDirectory = Files.createTempDirectory("csv2fhir").toFile();
+            File outputFile = new File(outputDirectory, "bundle.json");
+            Csv2Fhir converter = new Csv2Fhir(inputDirectory, outputFile);
+            output.accept(converter);
+            try {
+                converter.convertFiles();
+                fail();
+            } catch (Exception e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("Laborbefund.csv"));
+            }
+            for (File file : listFiles(outputDirectory)) {
+                try {
+                    ctx.newJsonParser().parseResource(read(file));
+                    fail(file + " is loadable");
+                } catch (DataFormatException e) {
+                    // expected
+                }
+                file.delete();
+            }
+            // the ndjson output directory
+            outputFile.delete();
+            outputDirectory.delete();
+        }
+
+        for (File file : inputDirectory.listFiles()) {
+            file.delete();
+        }
+        inputDirectory.delete();
+    }
+
+    private static List<File> listFiles(File directory) {
+        List<File> files = new ArrayList<>();
+        for (File file : directory.listFiles()) {
+            if (file.isDirectory()) {
+                files.addAll(listFiles(file));
+            } else {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Converts the input to bundle.json in a new directory, which is the ndjson output directory.
+     *
+     * @return the new directory
+     */
+    private static File convertInto(Consumer<Csv2Fhir> options, boolean gzip) throws Exception {
+        File outputDirectory = Files.createTempDirectory("csv2fhir").toFile();
+        Csv2Fhir converter = new Csv2Fhir(INPUT_DIRECTORY, new File(outputDirectory, "bundle.json"));
+        options.accept(converter);
+        converter.setGzip(gzip);
+        converter.convertFiles();
+        return outputDirectory;
+    }
+
+    /**
+     * Deletes the directory and the empty directories below it.
+     */
+    private static void deleteDirectories(File directory) {
+        for (File file : directory.listFiles()) {
+            deleteDirectories(file);
+        }
+        assertTrue(directory + " is not empty", directory.delete());
+    }
+
+    private static File convertIncremental(File inputDirectory, File stateFile, boolean deleteVanished)
+            throws Exception {
+        File outputFile = File.createTempFile("csv2fhir", ".json");
+        outputFile.deleteOnExit();
+        Csv2Fhir converter = new Csv2Fhir(inputDirectory, outputFile);
+        converter.setStateFile(stateFile);
+        converter.setDeleteVanished(deleteVanished);
+        converter.convertFiles();
+        return outputFile;
+    }
+
+    private static File convert(Consumer<Csv2Fhir> options) throws Exception {
+        File outputFile = File.createTempFile("csv2fhir", ".json");
+        outputFile.deleteOnExit();
+        Csv2Fhir converter = new Csv2Fhir(INPUT_DIRECTORY, outputFile);
+        options.accept(converter);
+        converter.convertFiles();
+        return outputFile;
+    }
+
+    /**
+     * @return the urls of the requests in the bundle, which must not hold two entries for a resource
+     */
+    private static Set<String> getUrls(Bundle bundle) {
+        Set<String> urls = new HashSet<>();
+        for (Bundle.BundleEntryComponent entry : bundle.getEntry()) {
+            assertTrue(entry.getRequest().getUrl(), urls.add(entry.getRequest().getUrl()));
+        }
+        return urls;
+    }
+
+    private static Bundle parse(FhirContext ctx, File file) throws IOException {
+        return ctx.newJsonParser().parseResource(Bundle.class, read(file));
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()));
+    }
+
+    private static String readGzip(File file) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file.toPath()))) {
+            return new String(IOUtils.toByteArray(in));
+        }
+    }
+}
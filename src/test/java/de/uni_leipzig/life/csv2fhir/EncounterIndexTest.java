@@ -0,0 +1,66 @@
+package de.uni_leipzig.life.csv2fhir;
+
+import junit.framework.TestCase;
+import org.hl7.fhir.r4.model.DateTimeType;
+import org.hl7.fhir.r4.model.Reference;
+
+import java.util.Date;
+import java.util.UUID;
+
+public class EncounterIndexTest extends TestCase {
+
+    private static final String FIRST = UUID.randomUUID().toString();
+    private static final String SECOND = UUID.randomUUID().toString();
+    private static final String LONG = UUID.randomUUID().toString();
+
+    public EncounterIndexTest(String testName) {
+        super(testName);
+    }
+
+    public void testFindsEncounterContainingTime() {
+        EncounterIndex index = new EncounterIndex();
+        index.add("P1", 300, 400, SECOND);
+        index.add("P1", 100, 200, FIRST);
+        index.build();
+        assertEquals(FIRST, find(index, "P1", 100));
+        assertEquals(FIRST, find(index, "P1", 200));
+        assertNull(find(index, "P1", 250));
+        assertEquals(SECOND, find(index, "P1", 350));
+        assertNull(find(index, "P1", 99));
+        assertNull(find(index, "P1", 401));
+        assertNull(find(index, "P2", 150));
+        assertNull(index.getReference(null, time(150)));
+    }
+
+    public void testPrefersLatestStartOfNestedEncounters() {
+        EncounterIndex index = new EncounterIndex();
+        index.add("P1", 0, 1000, LONG);
+        index.add("P1", 100, 200, FIRST);
+        index.add("P1", 300, 400, SECOND);
+        index.build();
+        assertEquals(FIRST, find(index, "P1", 150));
+        assertEquals(LONG, find(index, "P1", 250));
+        assertEquals(SECOND, find(index, "P1", 400));
+        assertEquals(LONG, find(index, "P1", 1000));
+    }
+
+    public void testMustBeBuiltBeforeLookup() {
+        EncounterIndex index = new EncounterIndex();
+        index.add("P1", 100, 200, FIRST);
+        try {
+            index.getReference("P1", time(150));
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    private static String find(EncounterIndex index, String patientId, long time) {
+        Reference reference = index.getReference(patientId, time(time));
+        return reference != null ? reference.getReferenceElement().getIdPart() : null;
+    }
+
+    private static DateTimeType time(long time) {
+        return new DateTimeType(new Date(time));
+    }
+}
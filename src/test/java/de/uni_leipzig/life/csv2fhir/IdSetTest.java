@@ -0,0 +1,45 @@
+package de.uni_leipzig.life.csv2fhir;
+
+import junit.framework.TestCase;
+
+public class IdSetTest extends TestCase {
+
+    public IdSetTest(String testName) {
+        super(testName);
+    }
+
+    public void testContainsAddedIdsAfterGrowing() {
+        IdSet patients = new IdSet();
+        for (int i = 0; i < 10000; i++) {
+            patients.add("P" + i);
+        }
+        patients.add("P1");
+        assertEquals(10000, patients.size());
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(patients.contains("P" + i));
+        }
+        assertFalse(patients.contains("P10000"));
+        assertFalse(patients.contains("p1"));
+        assertFalse(patients.contains(""));
+    }
+
+    public void testIdsWithTheSameHashAreToldApart() {
+        IdSet patients = new IdSet(id -> 42);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(patients.add("P" + i));
+        }
+        assertFalse(patients.add("P1"));
+        assertEquals(100, patients.size());
+        assertTrue(patients.contains("P99"));
+        assertFalse(patients.contains("P100"));
+        assertFalse(patients.contains("P"));
+    }
+
+    public void testClear() {
+        IdSet patients = new IdSet();
+        patients.add("P1");
+        patients.clear();
+        assertEquals(0, patients.size());
+        assertFalse(patients.contains("P1"));
+    }
+}
@@ -0,0 +1,125 @@
+package de.uni_leipzig.life.csv2fhir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+
+import de.uni_leipzig.life.csv2fhir.generator.CsvGenerator;
+import junit.framework.TestCase;
+
+public class MappedCsvDirectoryTest extends TestCase {
+
+    private File directory;
+
+    public MappedCsvDirectoryTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = Files.createTempDirectory("mapped").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    public void testValuesAreThoseOfTheCsvFormat() throws Exception {
+        write("Patient-ID , Name,,Name\r\n"
+                + "\n"
+                + "P1, \"Mustermann, Max\" ,\"say \"\"hi\"\"\",x　\n"
+                + "\r\n"
+                + "  \n"
+                + "P2,\"two\r\nlines\",a\"b,\tä \n"
+                + "P3,,\" \",\"\"\n"
+                + "P4,　\"quoted\"　,\u0001x\u0001, \n"
+                + "P5,");
+        List<String> expected = read(new CsvDirectory(directory));
+        assertEquals(expected, read(new MappedCsvDirectory(directory)));
+        assertEquals(expected, read(new MappedCsvDirectory(directory, 64)));
+        assertEquals("{Patient-ID=0, Name=3}", expected.get(0));
+        assertEquals("CSVRecord [comment='null', recordNumber=1, values=[P1, Mustermann, Max, say \"hi\", x]]",
+                expected.get(1));
+        assertEquals(7, expected.size());
+    }
+
+    public void testRandomFilesAreReadLikeCommonsCsv() throws Exception {
+        char[] alphabet = {'a', 'b', ',', '"', ' ', '\t', '\r', '\n', '　', 'ä', '\u0001', ' '};
+        Random random = new Random(1);
+        int compared = 0;
+        for (int file = 0; file < 2000; file++) {
+            StringBuilder content = new StringBuilder();
+            int length = random.nextInt(80);
+            for (int i = 0; i < length; i++) {
+                content.append(alphabet[random.nextInt(alphabet.length)]);
+            }
+            write(content.toString());
+            List<String> expected = read(new CsvDirectory(directory));
+            assertEquals(content.toString(), errorsAsOne(expected), errorsAsOne(read(new MappedCsvDirectory(directory))));
+            List<String> windowed = read(new MappedCsvDirectory(directory, 24));
+            if (!windowed.get(windowed.size() - 1).contains("is longer than")) {
+                assertEquals(content.toString(), errorsAsOne(expected), errorsAsOne(windowed));
+                compared++;
+            }
+        }
+        assertTrue(compared > 1000);
+    }
+
+    public void testConversionEqualsConversionWithCommonsCsv() throws Exception {
+        new CsvGenerator(directory, 20, 5, 0.1, 3).generate();
+        File expected = new File(directory.getParentFile(), directory.getName() + "-csv.json");
+        File actual = new File(directory.getParentFile(), directory.getName() + "-mapped.json");
+        try {
+            new Csv2Fhir(directory, expected).convertFiles();
+            new Csv2Fhir(new MappedCsvDirectory(directory, 4096), actual).convertFiles();
+            assertEquals(FileUtils.readFileToString(expected, "UTF-8"), FileUtils.readFileToString(actual, "UTF-8"));
+        } finally {
+            expected.delete();
+            actual.delete();
+        }
+    }
+
+    private void write(String content) throws IOException {
+        FileUtils.write(new File(directory, "Test.csv"), content, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the header map and the rows, followed by the message of an exception
+     */
+    private static List<String> read(TableSource source) {
+        List<String> lines = new ArrayList<>();
+        try {
+            source.read("Test.csv", new TableSource.RowHandler() {
+                @Override
+                public void start(Map<String, Integer> headerMap) {
+                    lines.add(headerMap.toString());
+                }
+
+                @Override
+                public void row(TableRow row) {
+                    lines.add(row.toString());
+                }
+            });
+        } catch (Exception e) {
+            lines.add("error: " + e.getMessage());
+        }
+        return lines;
+    }
+
+    private static List<String> errorsAsOne(List<String> lines) {
+        List<String> result = new ArrayList<>(lines);
+        int last = result.size() - 1;
+        if (result.get(last).startsWith("error: ")) {
+            result.set(last, "error");
+        }
+        return result;
+    }
+}
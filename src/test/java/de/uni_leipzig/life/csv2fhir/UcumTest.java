@@ -0,0 +1,38 @@
+package de.uni_leipzig.life.csv2fhir;
+
+import junit.framework.TestCase;
+
+public class UcumTest extends TestCase {
+
+    public UcumTest(String testName) {
+        super(testName);
+    }
+
+    public void testResolveUcumUnit() {
+        Ucum.Unit unit = Ucum.resolve("mg/dL");
+        assertEquals("mg/dL", unit.getCode());
+        assertEquals("mg/dl", unit.getDisplay());
+        assertSame(unit, Ucum.resolve("mg/dL"));
+    }
+
+    public void testResolveHumanUnit() {
+        Ucum.Unit unit = Ucum.resolve("µmol/l");
+        assertEquals("umol/L", unit.getCode());
+        assertEquals("µmol/l", unit.getDisplay());
+    }
+
+    public void testResolveUnknownUnit() {
+        Ucum.Unit unit = Ucum.resolve("Tabletten");
+        assertEquals("", unit.getCode());
+        assertEquals("Tabletten", unit.getDisplay());
+    }
+
+    public void testResolveAgreesWithConversions() {
+        for (String unit : new String[]{"g/dl", "mmol/L", "%", "1/min", "x10^9/l", "Cel", "mg/1", "/"}) {
+            String ucum = Ucum.isUcum(unit) ? unit : Ucum.human2ucum(unit);
+            String display = Ucum.isUcum(unit) ? Ucum.ucum2human(unit) : unit;
+            assertEquals(unit, ucum, Ucum.resolve(unit).getCode());
+            assertEquals(unit, display, Ucum.resolve(unit).getDisplay());
+        }
+    }
+}
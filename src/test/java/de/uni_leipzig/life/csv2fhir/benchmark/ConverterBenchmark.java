@@ -0,0 +1,108 @@
+package de.uni_leipzig.life.csv2fhir.benchmark;
+
+import de.uni_leipzig.life.csv2fhir.ColumnIndex;
+import de.uni_leipzig.life.csv2fhir.ConverterFactory;
+import de.uni_leipzig.life.csv2fhir.Csv2Fhir;
+import de.uni_leipzig.life.csv2fhir.CsvRow;
+import de.uni_leipzig.life.csv2fhir.TableRow;
+import de.uni_leipzig.life.csv2fhir.converterFactory.AbteilungsfallConverterFactory;
+import de.uni_leipzig.life.csv2fhir.converterFactory.DiagnoseConverterFactory;
+import de.uni_leipzig.life.csv2fhir.converterFactory.KlinischeDokumentationConverterFactory;
+import de.uni_leipzig.life.csv2fhir.converterFactory.LaborbefundConverterFactory;
+import de.uni_leipzig.life.csv2fhir.converterFactory.MedikationConverterFactory;
+import de.uni_leipzig.life.csv2fhir.converterFactory.PersonConverterFactory;
+import de.uni_leipzig.life.csv2fhir.converterFactory.ProzedurConverterFactory;
+import de.uni_leipzig.life.csv2fhir.converterFactory.VersorgungsfallConverterFactory;
+import de.uni_leipzig.life.csv2fhir.generator.CsvGenerator;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records per second of each converter on records of the {@link CsvGenerator}; one operation converts one record.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConverterBenchmark {
+
+    private static final Map<String, ConverterFactory> FACTORIES = new LinkedHashMap<>();
+
+    static {
+        FACTORIES.put("Person", new PersonConverterFactory());
+        FACTORIES.put("Versorgungsfall", new VersorgungsfallConverterFactory());
+        FACTORIES.put("Abteilungsfall", new AbteilungsfallConverterFactory());
+        FACTORIES.put("Laborbefund", new LaborbefundConverterFactory());
+        FACTORIES.put("Diagnose", new DiagnoseConverterFactory());
+        FACTORIES.put("Prozedur", new ProzedurConverterFactory());
+        FACTORIES.put("Medikation", new MedikationConverterFactory());
+        FACTORIES.put("Klinische Dokumentation", new KlinischeDokumentationConverterFactory());
+    }
+
+    @Param({"Person", "Versorgungsfall", "Abteilungsfall", "Laborbefund", "Diagnose", "Prozedur", "Medikation",
+            "Klinische Dokumentation"})
+    public String converter;
+
+    @Param("1000")
+    public int records;
+
+    private ConverterFactory factory;
+    private ColumnIndex columns;
+    private List<TableRow> csvRecords;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        // at least one row per patient in every file
+        File directory = Files.createTempDirectory("csv2fhir-converter").toFile();
+        new CsvGenerator(directory, records, 10, 0, 1).generate();
+        factory = FACTORIES.get(converter);
+        csvRecords = new ArrayList<>(records);
+        try (Reader in = Files.newBufferedReader(new File(directory, converter + ".csv").toPath(),
+                StandardCharsets.UTF_8)) {
+            CSVParser parser = Csv2Fhir.CSV_FORMAT.parse(in);
+            columns = factory.bindColumns(parser.getHeaderMap());
+            for (CSVRecord record : parser) {
+                if (csvRecords.size() == records) {
+                    break;
+                }
+                csvRecords.add(new CsvRow(record));
+            }
+        } finally {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    @Benchmark
+    public Object convert() throws Exception {
+        TableRow record = csvRecords.get(next);
+        next = (next + 1) % csvRecords.size();
+        return factory.create(record, columns).convertWithIssues();
+    }
+}
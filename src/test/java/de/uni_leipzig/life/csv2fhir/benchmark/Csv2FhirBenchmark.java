@@ -0,0 +1,85 @@
+package de.uni_leipzig.life.csv2fhir.benchmark;
+
+import de.uni_leipzig.life.csv2fhir.Csv2Fhir;
+import de.uni_leipzig.life.csv2fhir.generator.CsvGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end conversion of a directory written by the {@link CsvGenerator}. One operation converts
+ * about patients * (1.2 * recordsPerPatient + 17) records; the row counts are printed in the setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class Csv2FhirBenchmark {
+
+    @Param("1000")
+    public int patients;
+
+    @Param("50")
+    public int recordsPerPatient;
+
+    @Param({"bundle", "streaming", "ndjson"})
+    public String output;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    @Param({"false", "true"})
+    public boolean parallelFiles;
+
+    private File inputDirectory;
+    private File outputDirectory;
+
+    @Setup
+    public void setUp() throws Exception {
+        inputDirectory = Files.createTempDirectory("csv2fhir-input").toFile();
+        outputDirectory = Files.createTempDirectory("csv2fhir-output").toFile();
+        new CsvGenerator(inputDirectory, patients, recordsPerPatient, 0, 1).generate()
+                .forEach((name, rows) -> System.out.println(name + ".csv: " + rows + " rows"));
+    }
+
+    @Benchmark
+    public void convertFiles() throws Exception {
+        Csv2Fhir converter = new Csv2Fhir(inputDirectory, new File(outputDirectory, output));
+        converter.setStreaming("streaming".equals(output));
+        converter.setNdjson("ndjson".equals(output));
+        converter.setThreads(threads);
+        converter.setParallelFiles(parallelFiles);
+        converter.convertFiles();
+    }
+
+    @TearDown
+    public void tearDown() {
+        delete(inputDirectory);
+        delete(outputDirectory);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
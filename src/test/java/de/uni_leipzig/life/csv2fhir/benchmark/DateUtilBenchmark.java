@@ -0,0 +1,100 @@
+package de.uni_leipzig.life.csv2fhir.benchmark;
+
+import ca.uhn.fhir.model.api.TemporalPrecisionEnum;
+import de.uni_leipzig.life.csv2fhir.utils.DateUtil;
+import org.hl7.fhir.r4.model.DateTimeType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.Year;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link DateUtil} with the former parser, which tried one format after the other and
+ * used the DateTimeParseException of each failed attempt to move on to the next format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateUtilBenchmark {
+
+    @Param({"1963", "2020-04-08", "4/8/2020", "01.04.2020, 08:00"})
+    public String date;
+
+    @Benchmark
+    public Object dateUtil() throws Exception {
+        return DateUtil.parseDateTimeType(date);
+    }
+
+    @Benchmark
+    public Object formerExceptionChain() throws Exception {
+        return FormerDateUtil.parseDateTimeType(date);
+    }
+
+    private static class FormerDateUtil {
+
+        static DateTimeType parseDateTimeType(String date) throws Exception {
+            return new DateTimeType(
+                    Date.from(parseLocalDateTime(date)
+                            .atZone(ZoneId.systemDefault())
+                            .toInstant()),
+                    TemporalPrecisionEnum.SECOND);
+        }
+
+        static LocalDateTime parseLocalDateTime(String date) throws Exception {
+            try {
+                return parseLocalDate(date).atStartOfDay();
+            } catch (Exception e) {
+                try {
+                    return LocalDateTime.parse(date, DateTimeFormatter.ofPattern("dd.MM.yyyy, H:mm"));
+                } catch (DateTimeParseException e1) {
+                    throw new Exception();
+                }
+            }
+        }
+
+        static LocalDate parseLocalDate(String date) throws Exception {
+            if (date.isBlank()) {
+                throw new Exception();
+            }
+            try {
+                return Year.parse(date).atDay(1);
+            } catch (DateTimeParseException e1) {
+                try {
+                    return YearMonth.parse(date).atDay(1);
+                } catch (DateTimeParseException e2) {
+                    try {
+                        return LocalDate.parse(date);
+                    } catch (DateTimeParseException e3) {
+                        for (String pattern : new String[]{"MM/dd/yyyy", "M/dd/yyyy", "M/d/yyyy"}) {
+                            try {
+                                return LocalDate.parse(date, DateTimeFormatter.ofPattern(pattern));
+                            } catch (DateTimeParseException e4) {
+                                // try next pattern
+                            }
+                        }
+                        throw new Exception();
+                    }
+                }
+            }
+        }
+    }
+}
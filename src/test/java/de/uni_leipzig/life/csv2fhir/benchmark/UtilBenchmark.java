@@ -0,0 +1,60 @@
+package de.uni_leipzig.life.csv2fhir.benchmark;
+
+import de.uni_leipzig.life.csv2fhir.Ucum;
+import de.uni_leipzig.life.csv2fhir.utils.DecimalUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The parameters are held by one state per utility, so every benchmark only runs the values it uses.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UtilBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Decimals {
+
+        @Param({"14.6", "-3", "1234567.0001"})
+        public String decimal;
+    }
+
+    @State(Scope.Benchmark)
+    public static class Units {
+
+        @Param({"mg/dL", "g/dl", "mmol/l"})
+        public String unit;
+    }
+
+    @Benchmark
+    public Object parseDecimal(Decimals decimals) throws Exception {
+        return DecimalUtil.parseDecimal(decimals.decimal);
+    }
+
+    @Benchmark
+    public Object resolveUnit(Units units) {
+        return Ucum.resolve(units.unit);
+    }
+
+    /**
+     * The former unit handling of the converters: check for ucum, then convert in one direction.
+     */
+    @Benchmark
+    public Object resolveUnitUncached(Units units) {
+        String unit = units.unit;
+        return Ucum.isUcum(unit) ? Ucum.ucum2human(unit) : Ucum.human2ucum(unit);
+    }
+}
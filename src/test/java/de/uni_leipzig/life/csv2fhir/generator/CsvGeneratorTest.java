@@ -0,0 +1,73 @@
+package de.uni_leipzig.life.csv2fhir.generator;
+
+import de.uni_leipzig.life.csv2fhir.Csv2Fhir;
+import junit.framework.TestCase;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class CsvGeneratorTest extends TestCase {
+
+    public CsvGeneratorTest(String testName) {
+        super(testName);
+    }
+
+    public void testSameSeedGeneratesSameFiles() throws Exception {
+        File first = Files.createTempDirectory("csv2fhir").toFile();
+        File second = Files.createTempDirectory("csv2fhir").toFile();
+        new CsvGenerator(first, 20, 30, 0.1, 7).generate();
+        new CsvGenerator(second, 20, 30, 0.1, 7).generate();
+        for (String name : first.list()) {
+            assertEquals(name, read(new File(first, name)), read(new File(second, name)));
+        }
+    }
+
+    public void testRowsReferenceGeneratedPatients() throws Exception {
+        File directory = Files.createTempDirectory("csv2fhir").toFile();
+        Map<String, Long> rowCounts = new CsvGenerator(directory, 20, 30, 0, 1).generate();
+        assertEquals(8, rowCounts.size());
+        assertEquals(20L, (long) rowCounts.get("Person"));
+        assertEquals(20L * 30, (long) rowCounts.get("Laborbefund"));
+
+        Set<String> patientIds = new HashSet<>();
+        for (CSVRecord record : parse(new File(directory, "Person.csv"))) {
+            patientIds.add(record.get("Patient-ID"));
+        }
+        for (String name : rowCounts.keySet()) {
+            long rows = 0;
+            for (CSVRecord record : parse(new File(directory, name + ".csv"))) {
+                assertTrue(name, patientIds.contains(record.get("Patient-ID")));
+                rows++;
+            }
+            assertEquals(name, (long) rowCounts.get(name), rows);
+        }
+    }
+
+    public void testLaborbefundRowsMatchRecordsPerPatient() throws Exception {
+        // fewer samples than the up to three encounters of a patient, and rows not filling whole samples
+        for (int recordsPerPatient : new int[]{5, 15, 25}) {
+            File directory = Files.createTempDirectory("csv2fhir").toFile();
+            Map<String, Long> rowCounts = new CsvGenerator(directory, 20, recordsPerPatient, 0, 1).generate();
+            assertEquals(20L * recordsPerPatient, (long) rowCounts.get("Laborbefund"));
+            assertEquals(20L * recordsPerPatient, parse(new File(directory, "Laborbefund.csv")).size());
+        }
+    }
+
+    private static List<CSVRecord> parse(File file) throws IOException {
+        try (Reader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            return Csv2Fhir.CSV_FORMAT.parse(in).getRecords();
+        }
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
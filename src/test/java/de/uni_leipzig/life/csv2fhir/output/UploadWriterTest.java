@@ -0,0 +1,173 @@
+package de.uni_leipzig.life.csv2fhir.output;
+
+import ca.uhn.fhir.context.FhirContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.TestCase;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Patient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class UploadWriterTest extends TestCase {
+
+    private final FhirContext ctx = FhirContext.forR4();
+    private final List<Bundle> received = new CopyOnWriteArrayList<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger maxPending = new AtomicInteger();
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+    private HttpServer server;
+    private URI baseUrl;
+
+    public UploadWriterTest(String testName) {
+        super(testName);
+    }
+
+    public void testUploadsAllEntriesAndRetriesUnavailableServer() throws Exception {
+        start(request -> request == 1 ? 503 : 200, "transaction-response");
+        try (UploadWriter writer = new UploadWriter(ctx, baseUrl, 10, 2, false)) {
+            for (int i = 0; i < 25; i++) {
+                writer.write(patient(i));
+            }
+        }
+        assertEquals(4, requests.get());
+        assertEquals(3, received.size());
+        int entries = 0;
+        for (Bundle bundle : received) {
+            assertEquals(Bundle.BundleType.TRANSACTION, bundle.getType());
+            entries += bundle.getEntry().size();
+        }
+        assertEquals(25, entries);
+    }
+
+    public void testInFlightRequestsAreLimited() throws Exception {
+        start(request -> 200, "transaction-response");
+        UploadWriter writer = new UploadWriter(ctx, baseUrl, 1, 3, false);
+        for (int i = 0; i < 30; i++) {
+            writer.write(patient(i));
+        }
+        writer.close();
+        assertEquals(30, writer.getUploadedEntries());
+        assertTrue(String.valueOf(maxPending.get()), maxPending.get() <= 3);
+    }
+
+    public void testCompleteFileAwaitsAllBundles() throws Exception {
+        start(request -> 200, "transaction-response");
+        try (UploadWriter writer = new UploadWriter(ctx, baseUrl, 10, 4, false)) {
+            for (int i = 0; i < 25; i++) {
+                writer.write(patient(i));
+            }
+            writer.completeFile();
+            assertEquals(25, writer.getUploadedEntries());
+            assertEquals(3, received.size());
+            writer.write(patient(25));
+        }
+        assertEquals(4, received.size());
+    }
+
+    public void testRejectedBundleFailsClose() throws Exception {
+        start(request -> 400, "transaction-response");
+        UploadWriter writer = new UploadWriter(ctx, baseUrl, 10, 2, false);
+        writer.write(patient(1));
+        try {
+            writer.close();
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("status 400"));
+        }
+        assertEquals(1, requests.get());
+    }
+
+    public void testFailedBatchEntryFailsClose() throws Exception {
+        start(request -> 200, "batch-response");
+        UploadWriter writer = new UploadWriter(ctx, baseUrl, 10, 2, true);
+        writer.write(patient(1));
+        writer.write(patient(-1));
+        try {
+            writer.close();
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("entries 2 (400 Bad Request)"));
+        }
+    }
+
+    public void testNoBundleInFlightIsRejected() {
+        try {
+            new UploadWriter(ctx, URI.create("http://localhost/fhir"), 10, 0, false);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Override
+    protected void tearDown() {
+        if (server != null) {
+            server.stop(0);
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * Starts a server answering the n-th request with the status of n. A successful response has one
+     * entry per request entry, which failed if the id of its patient is negative.
+     */
+    private void start(StatusOfRequest status, String responseType) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/fhir", exchange -> handle(exchange, status.get(requests.incrementAndGet()),
+                responseType));
+        server.start();
+        baseUrl = URI.create("http://localhost:" + server.getAddress().getPort() + "/fhir");
+    }
+
+    private void handle(HttpExchange exchange, int status, String responseType) throws IOException {
+        int now = pending.incrementAndGet();
+        maxPending.accumulateAndGet(now, Math::max);
+        try {
+            Bundle request = ctx.newJsonParser().parseResource(Bundle.class, exchange.getRequestBody());
+            Thread.sleep(5);
+            String body = "{\"resourceType\":\"OperationOutcome\"}";
+            if (status == 200) {
+                received.add(request);
+                Bundle response = new Bundle().setType(Bundle.BundleType.fromCode(responseType));
+                for (Bundle.BundleEntryComponent entry : request.getEntry()) {
+                    boolean failed = entry.getResource().getIdElement().getIdPart().startsWith("-");
+                    response.addEntry().getResponse().setStatus(failed ? "400 Bad Request" : "201 Created");
+                }
+                body = ctx.newJsonParser().encodeResourceToString(response);
+            } else if (status == 503) {
+                exchange.getResponseHeaders().add("Retry-After", "0");
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pending.decrementAndGet();
+        }
+    }
+
+    private static Patient patient(int id) {
+        Patient patient = new Patient();
+        patient.setId(String.valueOf(id));
+        return patient;
+    }
+
+    private interface StatusOfRequest {
+        int get(int request);
+    }
+}
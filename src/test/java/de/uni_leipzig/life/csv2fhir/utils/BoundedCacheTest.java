@@ -0,0 +1,31 @@
+package de.uni_leipzig.life.csv2fhir.utils;
+
+import junit.framework.TestCase;
+
+public class BoundedCacheTest extends TestCase {
+
+    public BoundedCacheTest(String testName) {
+        super(testName);
+    }
+
+    public void testHitsAndMisses() {
+        BoundedCache<String, Integer> cache = new BoundedCache<>(100);
+        assertEquals(Integer.valueOf(1), cache.get("a", String::length));
+        assertEquals(Integer.valueOf(1), cache.get("a", key -> {
+            throw new AssertionError("loaded cached key");
+        }));
+        assertEquals(Integer.valueOf(2), cache.get("bb", String::length));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1.0 / 3, cache.getHitRate(), 1e-9);
+    }
+
+    public void testEviction() {
+        BoundedCache<Integer, Integer> cache = new BoundedCache<>(160);
+        for (int i = 0; i < 1000; i++) {
+            cache.get(i, key -> key);
+        }
+        assertTrue(cache.size() <= 160);
+        assertEquals(1000 - cache.size(), cache.getEvictionCount());
+    }
+}
@@ -0,0 +1,67 @@
+package de.uni_leipzig.life.csv2fhir.utils;
+
+import junit.framework.TestCase;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+
+public class DateUtilTest extends TestCase {
+
+    public DateUtilTest(String testName) {
+        super(testName);
+    }
+
+    public void testDateFormats() throws Exception {
+        assertDate("1963", LocalDateTime.of(1963, 1, 1, 0, 0));
+        assertDate("2020-04", LocalDateTime.of(2020, 4, 1, 0, 0));
+        assertDate("2020-04-08", LocalDateTime.of(2020, 4, 8, 0, 0));
+        assertDate("04/08/2020", LocalDateTime.of(2020, 4, 8, 0, 0));
+        assertDate("4/08/2020", LocalDateTime.of(2020, 4, 8, 0, 0));
+        assertDate("4/8/2020", LocalDateTime.of(2020, 4, 8, 0, 0));
+        assertDate("12/8/2020", LocalDateTime.of(2020, 12, 8, 0, 0));
+    }
+
+    public void testDateTimeFormats() throws Exception {
+        assertDateTime("2020-04-08", LocalDateTime.of(2020, 4, 8, 0, 0));
+        assertDateTime("01.04.2020, 08:00", LocalDateTime.of(2020, 4, 1, 8, 0));
+        assertDateTime("01.04.2020, 8:05", LocalDateTime.of(2020, 4, 1, 8, 5));
+        assertDateTime("01.04.2020, 23:59", LocalDateTime.of(2020, 4, 1, 23, 59));
+    }
+
+    public void testSmartResolution() throws Exception {
+        assertDate("2/30/2020", LocalDateTime.of(2020, 2, 29, 0, 0));
+        assertDateTime("31.04.2020, 10:00", LocalDateTime.of(2020, 4, 30, 10, 0));
+        assertDateTime("01.04.2020, 24:00", LocalDateTime.of(2020, 4, 2, 0, 0));
+    }
+
+    public void testInvalidDates() {
+        for (String s : new String[]{null, "", " ", "20", "2020-13", "2020-02-30", "2020-1-01", "13/1/2020",
+                "2/32/2020", "1/1/0000", "1/1/20", "01.04.2020, 24:01", "01.04.2020, 8:5", "01.04.2020 08:00",
+                "abcd", "2020-04-08T08:00"}) {
+            try {
+                DateUtil.parseDateTimeType(s);
+                fail("parsed " + s);
+            } catch (Exception expected) {
+            }
+        }
+        try {
+            DateUtil.parseDateType("01.04.2020, 08:00");
+            fail("parsed date time as date");
+        } catch (Exception expected) {
+        }
+    }
+
+    private static void assertDate(String s, LocalDateTime expected) throws Exception {
+        assertEquals(toDate(expected), DateUtil.parseDateType(s).getValue());
+        assertEquals(toDate(expected), DateUtil.parseDateTimeType(s).getValue());
+    }
+
+    private static void assertDateTime(String s, LocalDateTime expected) throws Exception {
+        assertEquals(toDate(expected), DateUtil.parseDateTimeType(s).getValue());
+    }
+
+    private static Date toDate(LocalDateTime localDateTime) {
+        return Date.from(localDateTime.atZone(ZoneId.systemDefault()).toInstant());
+    }
+}